@@ -9,6 +9,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.StatsFile;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
@@ -21,6 +22,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Parser {
     static boolean explain = false;
@@ -258,18 +261,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -281,9 +281,21 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             ParsingException, ParseException {
+        return handleQueryStatement(s, LogicalPlan.NO_LIMIT, tId);
+    }
+
+    /**
+     * Plan a query that returns at most limit tuples, or
+     * {@link LogicalPlan#NO_LIMIT}.
+     */
+    public Query handleQueryStatement(ZQuery s, int limit, TransactionId tId)
+            throws IOException,
+            ParsingException, ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != LogicalPlan.NO_LIMIT)
+            lp.addLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -463,14 +475,48 @@ public class Parser {
         }
     }
 
+    /**
+     * A statement with its LIMIT clause cut off. Zql does not know LIMIT, so
+     * a LIMIT at the end of a query is taken off before Zql parses it.
+     */
+    static class LimitedStatement {
+        private static final Pattern LIMIT = Pattern.compile(
+                "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+        final String sql;
+        final int limit;
+
+        LimitedStatement(String statement) throws ParsingException {
+            Matcher m = LIMIT.matcher(statement);
+            if (!m.matches()) {
+                sql = statement;
+                limit = LogicalPlan.NO_LIMIT;
+                return;
+            }
+            sql = m.group(1) + m.group(3);
+            try {
+                limit = Integer.parseInt(m.group(2));
+            } catch (NumberFormatException e) {
+                throw new ParsingException("LIMIT " + m.group(2) + " is too large");
+            }
+        }
+
+        ZStatement parse() throws ParseException {
+            return new ZqlParser(new ByteArrayInputStream(
+                    sql.getBytes(StandardCharsets.UTF_8))).readStatement();
+        }
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
-        ZqlParser p = new ZqlParser(bis);
+        LimitedStatement ls = new LimitedStatement(s);
         try {
-            ZStatement stmt = p.readStatement();
+            ZStatement stmt = ls.parse();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (ls.limit != LogicalPlan.NO_LIMIT)
+                    lp.addLimit(ls.limit);
+                return lp;
             }
         } catch (ParseException e) {
             throw new ParsingException(
@@ -495,8 +541,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; )
+                statement.write(buf, 0, n);
+            LimitedStatement ls = new LimitedStatement(statement.toString("UTF-8"));
+            ZStatement s = ls.parse();
+            if (ls.limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery))
+                throw new ParsingException("LIMIT is only supported on queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -516,7 +568,7 @@ public class Parser {
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
+                        query = handleQueryStatement((ZQuery) s, ls.limit,
                                 curtrans.getId());
                     else {
                         System.out
@@ -593,7 +645,9 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // statistics are read from the stats file, or computed, when a
+        // query first uses a table
+        TableStats.setStatsFile(StatsFile.fileFor(argv[0]));
 
         String queryFile = null;
 
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -15,8 +16,11 @@ import java.util.NoSuchElementException;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The tuples of the child are read a batch at a time and merged into the
+ * aggregator column by column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
@@ -26,6 +30,7 @@ public class Aggregate extends Operator {
     private Aggregator aggregator;
     private TupleDesc tupleDesc;
     private OpIterator it;
+    private transient TupleBatch out;
     /**
      * Constructor.
      * <p>
@@ -128,8 +133,10 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         child.open();
-        while (child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(child.next());
+        BatchOpIterator in = BatchOpIterator.of(child);
+        TupleBatch batch;
+        while ((batch = in.nextBatch()) != null) {
+            this.aggregator.mergeBatchIntoGroup(batch);
         }
         this.it.open();
         super.open();
@@ -149,6 +156,17 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(it.getTupleDesc());
+        }
+        out.clear();
+        while (!out.isFull() && it.hasNext()) {
+            out.addTuple(it.next());
+        }
+        return out.numRows() > 0 ? out : null;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child.rewind();
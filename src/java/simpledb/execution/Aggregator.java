@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,19 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the rows of a batch into the aggregate, as mergeTupleIntoGroup
+     * does for each of them. Aggregators should read the columns of the
+     * batch directly rather than make a Tuple of each row.
+     *
+     * @param batch the rows, with an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.numRows(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
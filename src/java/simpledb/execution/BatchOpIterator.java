@@ -0,0 +1,36 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is an OpIterator that can also return its tuples a batch
+ * at a time, which saves the operators above it a call and a Tuple per row.
+ * <p>
+ * One pass over the iterator, from open() or rewind() on, uses either
+ * next() and hasNext() or nextBatch(), not both. A batch returned by
+ * nextBatch() may be reused by the iterator, so it is only valid until the
+ * next call to nextBatch(), rewind() or close().
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. A batch holds at least one tuple.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return it, if it returns batches itself, or else an adapter that
+     * collects the tuples it returns into batches
+     */
+    static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator) {
+            return (BatchOpIterator) it;
+        }
+        return new RowBatchAdapter(it);
+    }
+}
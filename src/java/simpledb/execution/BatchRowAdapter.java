@@ -0,0 +1,70 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchRowAdapter lets an operator that reads a tuple at a time use the
+ * batches of its child: it reads the child with nextBatch() and returns the
+ * rows of each batch as tuples.
+ */
+public class BatchRowAdapter extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    public BatchRowAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.numRows()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(pos++);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        return child.nextBatch();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = BatchOpIterator.of(children[0]);
+    }
+}
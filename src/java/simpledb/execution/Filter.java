@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -10,11 +11,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private  Predicate predicate;
     private OpIterator child;
+    private transient BatchOpIterator batchChild;
+    private transient int[] rows;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -80,6 +83,30 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with the rows that pass the
+     * predicate selected, skipping batches in which none does.
+     *
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null) {
+            batchChild = BatchOpIterator.of(child);
+        }
+        TupleBatch b;
+        while ((b = batchChild.nextBatch()) != null) {
+            if (rows == null || rows.length < b.size()) {
+                rows = new int[Math.max(b.size(), TupleBatch.DEFAULT_SIZE)];
+            }
+            int n = predicate.filter(b, rows);
+            if (n > 0) {
+                b.select(rows, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -90,6 +117,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child=children[0];
+        batchChild = null;
     }
 
 }
@@ -1,23 +1,45 @@
 package simpledb.execution;
 
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.RowStore;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The first time it is asked for a tuple, HashEquiJoin reads all the tuples
+ * of child1 into a RowStore and an IntHashTable on their join field, both
+ * sized from the estimated cardinality of child1, and then probes the table
+ * with the tuples of child2 in one pass. An int join field is its own key;
+ * a string one is keyed by its hash code and compared on a match.
+ * <p>
+ * If the table outgrows the memory budget of the join, it is a hybrid hash
+ * join: the tuples of child1 are split by hash into FANOUT partitions, of
+ * which the first stays in memory while it fits and the others are written
+ * to SpillFiles. The tuples of child2 that fall into a spilled partition are
+ * spilled too, and after child2 each pair of spilled partitions is joined
+ * the same way, with a hash that depends on the depth, so that a partition
+ * that is still too large is split again. At MAX_DEPTH, where a partition
+ * probably holds a single large key, its build side is loaded a budget at a
+ * time and its probe side read once for each load.
+ * <p>
+ * The tuple interface returns the rows of the batches.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -55,28 +77,304 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+    /** Number of rows of child1 to make room for if it has no estimate. */
+    public static final int DEFAULT_BUILD_ROWS = 1024;
+    // bound on the room made up front, whatever the estimate
+    private static final int MAX_BUILD_ROWS = 1 << 20;
+    /** Default bound on the bytes of the table of a join. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    /** Number of partitions the inputs are split into at each depth. */
+    public static final int FANOUT = 16;
+    /** Depth at which partitions are no longer split. */
+    public static final int MAX_DEPTH = 4;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    private interface BatchSource {
+        TupleBatch nextBatch() throws DbException, TransactionAbortedException, IOException;
+    }
+
+    /** Spilled partitions of both inputs, to be joined at a depth. */
+    private static class PartitionPair {
+        final SpillFile build, probe;
+        final int depth;
+
+        PartitionPair(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
+    transient private boolean stringKeys;
+    // the pass that is running: it joins child1 and child2, at depth 0, or
+    // a pair of partitions
+    transient private int depth;
+    transient private PartitionPair pair;
+    transient private BatchSource buildSource;
+    transient private TupleBatch buildBatch;
+    transient private int buildPos;
+    // the table of the pass, or null if all of its rows were spilled
+    transient private RowStore build;
+    transient private IntHashTable table;
+    // the partitions the pass spilled, or null if it did not split its input
+    transient private SpillFile[] buildParts, probeParts;
+    transient private boolean firstPartSpilled;
+    transient private BatchSource probeSource;
+    transient private TupleBatch probe;
+    transient private int probePos, probeRow;
+    transient private String probeString;
+    // next row of the table that may match the current row of probe
+    transient private int match = -1;
+    transient private Deque<PartitionPair> pending;
+    transient private List<SpillFile> spillFiles;
+    transient private boolean done;
+    transient private TupleBatch out;
+    // the batch the tuple interface is returning the rows of
+    transient private TupleBatch rows;
+    transient private int rowPos;
+
+    /**
+     * Set the number of bytes the table of the join may take. Changes take
+     * effect when the join is next opened or rewound.
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of partitions of either input the join has written
+     * to disk since it was opened
+     */
+    public int getSpilledPartitions() {
+        return spillFiles == null ? 0 : spillFiles.size();
+    }
+
+    /**
+     * @return the estimated number of tuples of child1: its estimated
+     * cardinality, or the number of tuples in the table it scans
+     */
+    private int estimateBuildRows() {
+        int rows = 0;
+        if (child1 instanceof Operator) {
+            rows = ((Operator) child1).getEstimatedCardinality();
+        } else if (child1 instanceof SeqScan) {
+            TableStats stats = TableStats.getTableStats(((SeqScan) child1).getTableName());
+            if (stats != null) {
+                rows = stats.estimateTableCardinality(1.0);
+            }
+        }
+        if (rows <= 0) {
+            rows = DEFAULT_BUILD_ROWS;
+        }
+        return rows;
+    }
+
+    private static int partition(int key, int depth) {
+        // a different hash at each depth, and not the one of IntHashTable
+        int h = key + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h >>> 1) % FANOUT;
+    }
+
+    private int key(TupleBatch b, int field, int row) {
+        return stringKeys ? b.getString(field, row).hashCode() : b.getInt(field, row);
+    }
+
+    private int key(RowStore s, int field, int row) {
+        return stringKeys ? s.getString(row, field).hashCode() : s.getInt(row, field);
+    }
+
+    private boolean overBudget() {
+        return build.bytes() + table.bytes() > memoryBudget;
+    }
+
+    private SpillFile spillFile() throws IOException {
+        SpillFile f = new SpillFile(child1.getTupleDesc());
+        spillFiles.add(f);
+        return f;
+    }
+
+    /**
+     * Start joining child1 and child2.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        stringKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.STRING_TYPE;
+        pending = new ArrayDeque<>();
+        spillFiles = new ArrayList<>();
+        done = false;
+        pair = null;
+        buildSource = BatchOpIterator.of(child1)::nextBatch;
+        buildBatch = null;
+        load(0, estimateBuildRows());
+        probeSource = BatchOpIterator.of(child2)::nextBatch;
+        probe = null;
+        match = -1;
+    }
+
+    /**
+     * Load the build input of the pass into the table, splitting it if it
+     * does not fit. At MAX_DEPTH, stop when the table is full instead,
+     * leaving the rest of the input in buildSource.
+     */
+    private void load(int depth, int expectedRows) throws DbException, TransactionAbortedException {
+        this.depth = depth;
+        int rowBytes = child1.getTupleDesc().getSize() + 16;
+        expectedRows = (int) Math.min(Math.min(expectedRows, MAX_BUILD_ROWS), memoryBudget / rowBytes);
+        build = new RowStore(child1.getTupleDesc(), expectedRows);
+        table = new IntHashTable(expectedRows);
+        buildParts = null;
+        probeParts = null;
+        firstPartSpilled = false;
+        int field = pred.getField1();
+        try {
+            while (true) {
+                if (buildBatch == null || buildPos == buildBatch.numRows()) {
+                    buildBatch = buildSource.nextBatch();
+                    buildPos = 0;
+                    if (buildBatch == null) {
+                        buildSource = null;
+                        return;
+                    }
+                }
+                int i = buildPos++;
+                int key = key(buildBatch, field, buildBatch.row(i));
+                if (buildParts != null) {
+                    int p = partition(key, depth);
+                    if (firstPartSpilled || p != 0) {
+                        buildParts[p].add(buildBatch, i);
+                        continue;
+                    }
+                }
+                table.add(key, build.add(buildBatch, i));
+                if (overBudget()) {
+                    if (depth == MAX_DEPTH) {
+                        return;
+                    }
+                    split();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join partition: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Split the table of the pass into partitions, keeping the first in
+     * memory if it fits.
+     */
+    private void split() throws IOException {
+        int field = pred.getField1();
+        if (buildParts == null) {
+            buildParts = new SpillFile[FANOUT];
+            probeParts = new SpillFile[FANOUT];
+            for (int p = 1; p < FANOUT; p++) {
+                buildParts[p] = spillFile();
+            }
+            RowStore rows = build;
+            build = new RowStore(rows.getTupleDesc(), rows.size() / FANOUT);
+            table = new IntHashTable(rows.size() / FANOUT);
+            for (int row = 0; row < rows.size(); row++) {
+                int key = key(rows, field, row);
+                int p = partition(key, depth);
+                if (p == 0) {
+                    table.add(key, build.add(rows, row));
+                } else {
+                    buildParts[p].add(rows, row);
+                }
+            }
+            if (!overBudget()) {
+                return;
+            }
+        }
+        buildParts[0] = spillFile();
+        for (int row = 0; row < build.size(); row++) {
+            buildParts[0].add(build, row);
+        }
+        build = null;
+        table = null;
+        firstPartSpilled = true;
+    }
+
+    /**
+     * @return row, or the first row chained after it, whose join field
+     * equals the one of the current probe row
+     */
+    private int nextMatch(int row) {
+        if (stringKeys) {
+            while (row != -1 && !build.stringEquals(row, pred.getField1(), probeString)) {
+                row = table.next(row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * The probe input of the pass is done: start the next pass.
+     *
+     * @return false if there is none
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        try {
+            if (buildSource != null) {
+                // the next load of a pass at MAX_DEPTH
+                load(depth, pair.build.size());
+                probeSource = pair.probe.reader()::nextBatch;
                 return true;
+            }
+            if (pair != null) {
+                pair.build.delete();
+                pair.probe.delete();
+            }
+            if (buildParts != null) {
+                for (int p = 0; p < FANOUT; p++) {
+                    if (buildParts[p] != null && probeParts[p] != null) {
+                        pending.push(new PartitionPair(buildParts[p], probeParts[p], depth + 1));
+                    } else if (buildParts[p] != null) {
+                        buildParts[p].delete();
+                    }
+                }
+            }
+            pair = pending.poll();
+            if (pair == null) {
+                if (!spillFiles.isEmpty()) {
+                    build = null;
+                    table = null;
+                }
+                return false;
+            }
+            SpillFile.Reader buildReader = pair.build.reader();
+            buildSource = buildReader::nextBatch;
+            buildBatch = null;
+            load(pair.depth, pair.build.size());
+            probeSource = pair.probe.reader()::nextBatch;
+            return true;
+        } catch (IOException e) {
+            throw new DbException("could not read join partition: " + e.getMessage());
         }
-        return cnt > 0;
+    }
 
+    private void deleteSpillFiles() {
+        if (spillFiles != null) {
+            for (SpillFile f : spillFiles) {
+                f.delete();
+            }
+            spillFiles.clear();
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
         super.open();
     }
 
@@ -84,19 +382,40 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        deleteSpillFiles();
+        this.spillFiles = null;
+        this.build = null;
+        this.table = null;
+        this.buildParts = null;
+        this.probeParts = null;
+        this.pending = null;
+        this.probe = null;
+        this.out = null;
+        this.rows = null;
     }
 
+    /**
+     * Rewinds child2 only, if the table of child1 fit in memory: it is kept
+     * for the next pass. Otherwise the join starts over.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
         child2.rewind();
+        this.rows = null;
+        this.probe = null;
+        this.match = -1;
+        if (spillFiles == null) {
+            return;
+        }
+        if (spillFiles.isEmpty() && depth == 0) {
+            this.done = false;
+            this.probeSource = BatchOpIterator.of(child2)::nextBatch;
+        } else {
+            child1.rewind();
+            deleteSpillFiles();
+            this.spillFiles = null;
+        }
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -115,49 +434,77 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (rows == null || rowPos == rows.numRows()) {
+            rows = nextBatch();
+            rowPos = 0;
+            if (rows == null) {
+                return null;
+            }
         }
+        return rows.getTuple(rowPos++);
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    /**
+     * Returns the next batch of joined rows.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (spillFiles == null) {
+            start();
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        if (done) {
+            return null;
         }
-
-        return null;
+        if (out == null) {
+            out = new TupleBatch(comboTD);
+        }
+        out.clear();
+        int field = pred.getField2();
+        try {
+            while (!out.isFull()) {
+                if (match != -1) {
+                    out.addRow(build, match, probe, probeRow);
+                    match = nextMatch(table.next(match));
+                    continue;
+                }
+                if (probe == null || probePos == probe.numRows()) {
+                    probe = probeSource.nextBatch();
+                    probePos = 0;
+                    if (probe == null) {
+                        if (!nextPass()) {
+                            done = true;
+                            break;
+                        }
+                        continue;
+                    }
+                }
+                int i = probePos++;
+                probeRow = probe.row(i);
+                if (stringKeys) {
+                    probeString = probe.getString(field, probeRow);
+                }
+                int key = key(probe, field, probeRow);
+                if (buildParts != null) {
+                    int p = partition(key, depth);
+                    if (firstPartSpilled || p != 0) {
+                        // no tuple of child1 fell into an empty partition
+                        if (buildParts[p].size() > 0) {
+                            if (probeParts[p] == null) {
+                                probeParts[p] = spillFile();
+                            }
+                            probeParts[p].add(probe, i);
+                        }
+                        continue;
+                    }
+                }
+                if (table != null) {
+                    match = nextMatch(table.first(key));
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join partition: " + e.getMessage());
+        }
+        return out.numRows() > 0 ? out : null;
     }
 
     @Override
@@ -169,6 +516,8 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        deleteSpillFiles();
+        this.spillFiles = null;
     }
     
 }
@@ -0,0 +1,133 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable maps int keys to the numbers of the rows that have them,
+ * without boxing either. It is an open addressing table of the distinct keys
+ * with linear probing; each slot has the first and the last row with its
+ * key, and the rows with the same key are chained, in the order they were
+ * added, through an array indexed by row number.
+ * <p>
+ * Keys that are not ints can be added by their hash code, in which case the
+ * caller has to check that the rows it finds really have its key.
+ */
+public class IntHashTable {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] first;
+    private int[] last;
+    private int[] next;
+    private int mask;
+    private int distinct;
+    private int rows;
+
+    /**
+     * @param expectedRows the number of rows to make room for up front; the
+     *                     table grows if more are added
+     */
+    public IntHashTable(int expectedRows) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedRows) * 2 - 1) << 1;
+        allocate(capacity);
+        next = new int[Math.max(16, expectedRows)];
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        first = new int[capacity];
+        last = new int[capacity];
+        Arrays.fill(first, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int i = hash(key) & mask;
+        while (first[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Add a row with a key.
+     *
+     * @param row the number of the row; rows must be added in increasing order
+     */
+    public void add(int key, int row) {
+        if (row >= next.length) {
+            next = Arrays.copyOf(next, Math.max(next.length * 2, row + 1));
+        }
+        next[row] = EMPTY;
+        rows++;
+        int i = slot(key);
+        if (first[i] == EMPTY) {
+            keys[i] = key;
+            first[i] = row;
+            last[i] = row;
+            if (++distinct * 2 > keys.length) {
+                grow();
+            }
+        } else {
+            next[last[i]] = row;
+            last[i] = row;
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldFirst = first;
+        int[] oldLast = last;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldFirst[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                first[i] = oldFirst[j];
+                last[i] = oldLast[j];
+            }
+        }
+    }
+
+    /**
+     * @return the first row added with a key, or -1 if there is none
+     */
+    public int first(int key) {
+        return first[slot(key)];
+    }
+
+    /**
+     * @return the row added after a row with the same key, or -1 if there is
+     * none
+     */
+    public int next(int row) {
+        return next[row];
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the number of distinct keys in the table
+     */
+    public int distinctKeys() {
+        return distinct;
+    }
+
+    /**
+     * @return the number of bytes of the arrays of the table
+     */
+    public long bytes() {
+        return 4L * (3L * keys.length + next.length);
+    }
+}
@@ -5,6 +5,7 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -58,7 +59,24 @@ public class IntegerAggregator implements Aggregator {
         IntField intField = (IntField) tup.getField(afield);
         // get the field which tuple was grouped by
         Field gbfield = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
-        int value = intField.getValue();
+        merge(gbfield, intField.getValue());
+    }
+
+    /**
+     * Merge the rows of a batch into the aggregate, reading the aggregate
+     * values from their column.
+     */
+    @Override
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int[] values = batch.getIntColumn(afield);
+        for (int i = 0; i < batch.numRows(); i++) {
+            int row = batch.row(i);
+            Field gbfield = this.gbfield == NO_GROUPING ? null : batch.getField(this.gbfield, row);
+            merge(gbfield, values[row]);
+        }
+    }
+
+    private void merge(Field gbfield, int value) {
         if (gbfield != null && gbfield.getType() != gbfieldtype) {
             throw new IllegalStateException("Given type is wrong type");
         }
@@ -0,0 +1,84 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements a relational LIMIT without an ORDER
+ * BY: it returns the first n tuples of its child, and stops reading it after
+ * them.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private int returned;
+
+    /**
+     * Creates a new Limit node over the tuples from the iterator.
+     *
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to limit.
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples the operator returns at most
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (returned < limit && child.hasNext()) {
+            returned++;
+            return child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
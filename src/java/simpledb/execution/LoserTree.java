@@ -0,0 +1,94 @@
+package simpledb.execution;
+
+/**
+ * LoserTree picks which of k sorted inputs has the least head, for a k-way
+ * merge. It is a tournament over the inputs where each inner node keeps the
+ * loser of the match played there and the winner goes on up, so that after
+ * the winner's head is taken only the log2(k) matches on its path to the
+ * root are replayed, with one comparison each.
+ * <p>
+ * Inputs are numbered from 0. An input that is exhausted loses to all
+ * others, and of two equal heads the one of the lower input wins, so a merge
+ * of runs that were cut from a stable order in turn is stable.
+ */
+public class LoserTree {
+
+    /** The inputs of a merge, as the tree sees them. */
+    public interface Inputs {
+        /**
+         * @return true if input i has no more rows
+         */
+        boolean exhausted(int i);
+
+        /**
+         * @return a negative number, zero or a positive number as the head of
+         * input i is less than, equal to or greater than the head of input j
+         */
+        int compare(int i, int j);
+    }
+
+    private final Inputs inputs;
+    private final int k;
+    // tree[n] for 1 <= n < k is the loser of the match at inner node n; the
+    // leaves are the nodes k to 2k - 1, and node n / 2 is the parent of n
+    private final int[] tree;
+    private int winner;
+
+    /**
+     * Play the tournament over the current heads of k inputs.
+     */
+    public LoserTree(int k, Inputs inputs) {
+        this.k = k;
+        this.inputs = inputs;
+        this.tree = new int[k];
+        this.winner = k == 1 ? 0 : play(1);
+    }
+
+    // play the matches of the subtree of node n, returning its winner
+    private int play(int n) {
+        if (n >= k) {
+            return n - k;
+        }
+        int a = play(2 * n);
+        int b = play(2 * n + 1);
+        if (beats(a, b)) {
+            tree[n] = b;
+            return a;
+        }
+        tree[n] = a;
+        return b;
+    }
+
+    private boolean beats(int i, int j) {
+        if (inputs.exhausted(i)) {
+            return false;
+        }
+        if (inputs.exhausted(j)) {
+            return true;
+        }
+        int c = inputs.compare(i, j);
+        return c < 0 || (c == 0 && i < j);
+    }
+
+    /**
+     * @return the input with the least head, or -1 if all are exhausted
+     */
+    public int winner() {
+        return inputs.exhausted(winner) ? -1 : winner;
+    }
+
+    /**
+     * Replay the matches of the winner, after its head was taken.
+     */
+    public void advance() {
+        int s = winner;
+        for (int n = (s + k) / 2; n > 0; n /= 2) {
+            if (beats(tree[n], s)) {
+                int loser = s;
+                s = tree[n];
+                tree[n] = loser;
+            }
+        }
+        winner = s;
+    }
+}
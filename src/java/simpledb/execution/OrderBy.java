@@ -2,29 +2,61 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
+import simpledb.storage.RowStore;
+import simpledb.storage.RunFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields.
+ * <p>
+ * OrderBy is an external merge sort. When it is opened it reads the tuples
+ * of its child into a RowStore until they reach its memory budget, sorts
+ * them, and writes them as a sorted run to a RunFile, whose pages are in the
+ * HeapPage format. If all the tuples fit, they are returned from memory;
+ * otherwise the runs are merged with a LoserTree, first into longer runs if
+ * there are more of them than the budget has room for a page of each, and
+ * then as they are returned. The sort is stable.
+ * <p>
+ * The tuple interface returns the rows of the batches.
  */
-public class OrderBy extends Operator {
+public class OrderBy extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] asc;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+
+    /** Default bound on the bytes of the tuples a sort holds in memory. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // the tuples, if they all fit in memory, and their sorted order
+    transient private RowStore store;
+    transient private int[] order;
+    transient private int pos;
+    // the sorted runs otherwise, and the merge of them that is returned
+    transient private List<RunFile> runs;
+    transient private Merge merge;
+    transient private int spilledRuns;
+    transient private TupleBatch out;
+    // the batch the tuple interface is returning the rows of
+    transient private TupleBatch rows;
+    transient private int rowPos;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,64 +65,344 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields: tuples are ordered by the first field, those equal
+     * on it by the second one, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need an order for each of one or more fields");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /**
+     * @return the fields the sort is applied to, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each of the fields of {@link #getOrderByFields}, true if
+     * the sort order is ascending
+     */
+    public boolean[] getOrderByAsc() {
+        return asc.clone();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Set the number of bytes the tuples the sort holds in memory may take.
+     * Changes take effect when the sort is next opened.
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs the last open wrote to disk, 0 if
+     * the tuples fit in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort();
         super.open();
     }
 
+    private void sort() throws DbException, TransactionAbortedException {
+        deleteRuns();
+        runs = new ArrayList<>();
+        spilledRuns = 0;
+        store = new RowStore(td, TupleBatch.DEFAULT_SIZE);
+        BatchOpIterator in = BatchOpIterator.of(child);
+        try {
+            TupleBatch b;
+            while ((b = in.nextBatch()) != null) {
+                for (int i = 0; i < b.numRows(); i++) {
+                    store.add(b, i);
+                    // the order and the scratch array of the merge sort
+                    // take 8 bytes a row
+                    if (store.bytes() + 8L * store.size() >= memoryBudget) {
+                        spillRun();
+                    }
+                }
+            }
+            if (runs.isEmpty()) {
+                order = sortedOrder(store);
+                pos = 0;
+                return;
+            }
+            if (store.size() > 0) {
+                spillRun();
+            }
+            store = null;
+            // each run that is merged holds a page, and its rows in a RowStore
+            int fanIn = (int) Math.max(2, Math.min(1 << 16, memoryBudget / (2L * BufferPool.getPageSize())));
+            // each pass merges consecutive runs, which keeps the sort stable
+            while (runs.size() > fanIn) {
+                List<RunFile> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<RunFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                    merged.add(group.size() == 1 ? group.get(0) : mergeRuns(group));
+                }
+                runs = merged;
+            }
+            merge = new Merge(runs);
+        } catch (IOException e) {
+            throw new DbException("could not write sorted run: " + e.getMessage());
+        }
+    }
+
+    private void spillRun() throws IOException {
+        RunFile run = new RunFile(td);
+        for (int row : sortedOrder(store)) {
+            run.add(store, row);
+        }
+        runs.add(run);
+        spilledRuns++;
+        store.clear();
+    }
+
+    private RunFile mergeRuns(List<RunFile> group) throws IOException {
+        RunFile run = new RunFile(td);
+        Merge m = new Merge(group);
+        int w;
+        while ((w = m.winner()) >= 0) {
+            run.add(m.pages[w], m.pos[w]);
+            m.take(w);
+        }
+        m.close();
+        for (RunFile r : group) {
+            r.delete();
+        }
+        return run;
+    }
+
+    private int compare(RowStore a, int rowA, RowStore b, int rowB) {
+        for (int k = 0; k < orderByFields.length; k++) {
+            int c = a.compare(rowA, orderByFields[k], b, rowB);
+            if (c != 0) {
+                return asc[k] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    // the rows of s in sorted order
+    private int[] sortedOrder(RowStore s) {
+        int[] rows = new int[s.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        mergeSort(s, rows, rows.clone(), 0, rows.length);
+        return rows;
+    }
+
+    // stable sort of rows[lo, hi), with tmp holding the same rows on entry
+    private void mergeSort(RowStore s, int[] rows, int[] tmp, int lo, int hi) {
+        if (hi - lo <= 16) {
+            for (int i = lo + 1; i < hi; i++) {
+                int row = rows[i];
+                int j = i;
+                while (j > lo && compare(s, rows[j - 1], s, row) > 0) {
+                    rows[j] = rows[j - 1];
+                    j--;
+                }
+                rows[j] = row;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        // sort both halves in tmp, and merge them into rows
+        mergeSort(s, tmp, rows, lo, mid);
+        mergeSort(s, tmp, rows, mid, hi);
+        int i = lo, j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j == hi || (i < mid && compare(s, tmp[i], s, tmp[j]) <= 0)) {
+                rows[k] = tmp[i++];
+            } else {
+                rows[k] = tmp[j++];
+            }
+        }
+    }
+
+    /** A k-way merge of sorted runs, read a page at a time. */
+    private class Merge implements LoserTree.Inputs {
+        final RunFile.Reader[] readers;
+        final RowStore[] pages;
+        final int[] pos;
+        final LoserTree tree;
+
+        Merge(List<RunFile> runs) throws IOException {
+            readers = new RunFile.Reader[runs.size()];
+            pages = new RowStore[runs.size()];
+            pos = new int[runs.size()];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = runs.get(i).reader();
+                pages[i] = readers[i].nextPage();
+            }
+            tree = new LoserTree(readers.length, this);
+        }
+
+        public boolean exhausted(int i) {
+            return pages[i] == null;
+        }
+
+        public int compare(int i, int j) {
+            return OrderBy.this.compare(pages[i], pos[i], pages[j], pos[j]);
+        }
+
+        /**
+         * @return the run whose current row is next, or -1 if all are done
+         */
+        int winner() {
+            return tree.winner();
+        }
+
+        /**
+         * Move past the current row of run w, which was the winner.
+         */
+        void take(int w) throws IOException {
+            if (++pos[w] == pages[w].size()) {
+                pages[w] = readers[w].nextPage();
+                pos[w] = 0;
+            }
+            tree.advance();
+        }
+
+        void close() {
+            for (RunFile.Reader r : readers) {
+                r.close();
+            }
+        }
+    }
+
+    private void deleteRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (RunFile r : runs) {
+                r.delete();
+            }
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        deleteRuns();
+        store = null;
+        order = null;
+        out = null;
+        rows = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        rows = null;
+        if (merge == null) {
+            pos = 0;
+            return;
+        }
+        merge.close();
+        try {
+            merge = new Merge(runs);
+        } catch (IOException e) {
+            throw new DbException("could not read sorted run: " + e.getMessage());
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        while (rows == null || rowPos == rows.numRows()) {
+            rows = nextBatch();
+            rowPos = 0;
+            if (rows == null) {
+                return null;
+            }
+        }
+        return rows.getTuple(rowPos++);
+    }
+
+    /**
+     * Returns the next batch of tuples in the ordering.
+     */
+    public TupleBatch nextBatch() throws DbException {
+        if (order == null && merge == null) {
             return null;
+        }
+        if (out == null) {
+            out = new TupleBatch(td);
+        }
+        out.clear();
+        if (merge == null) {
+            while (pos < order.length && out.numRows() < TupleBatch.DEFAULT_SIZE) {
+                out.addRow(store, order[pos++]);
+            }
+        } else {
+            try {
+                int w;
+                while (out.numRows() < TupleBatch.DEFAULT_SIZE && (w = merge.winner()) >= 0) {
+                    out.addRow(merge.pages[w], merge.pos[w]);
+                    merge.take(w);
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read sorted run: " + e.getMessage());
+            }
+        }
+        return out.numRows() > 0 ? out : null;
     }
 
     @Override
@@ -106,23 +418,30 @@ public class OrderBy extends Operator {
 }
 
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[]{field}, new boolean[]{asc});
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc[i] ? 1 : -1;
+            else
+                return asc[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
 }
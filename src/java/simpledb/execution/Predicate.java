@@ -1,7 +1,10 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -109,6 +112,100 @@ public class Predicate implements Serializable {
         return  t.getField(field).compare(op,operand);
     }
 
+    /**
+     * Applies the predicate to the rows of a batch, a column at a time.
+     *
+     * @param batch
+     *            The batch to filter
+     * @param rows
+     *            Receives the rows (see {@link TupleBatch#row}) that pass, in
+     *            order. It must have room for batch.numRows() entries, and
+     *            may be the selection vector of the batch.
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] rows) {
+        int n = batch.numRows();
+        int[] sel = batch.getSelection();
+        int[] ints = batch.getIntColumn(field);
+        if (ints == null) {
+            String[] strings = batch.getStringColumn(field);
+            String v = ((StringField) operand).getValue();
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel == null ? i : sel[i];
+                if (compare(strings[r], v)) {
+                    rows[count++] = r;
+                }
+            }
+            return count;
+        }
+
+        // one loop per operator keeps the comparison out of the loop
+        int v = ((IntField) operand).getValue();
+        int count = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] == v) rows[count++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] != v) rows[count++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] > v) rows[count++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] >= v) rows[count++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] < v) rows[count++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel == null ? i : sel[i];
+                    if (ints[r] <= v) rows[count++] = r;
+                }
+                break;
+        }
+        return count;
+    }
+
+    // the same comparisons as StringField.compare
+    private boolean compare(String value, String v) {
+        switch (op) {
+            case EQUALS:
+                return value.equals(v);
+            case NOT_EQUALS:
+                return !value.equals(v);
+            case GREATER_THAN:
+                return value.compareTo(v) > 0;
+            case GREATER_THAN_OR_EQ:
+                return value.compareTo(v) >= 0;
+            case LESS_THAN:
+                return value.compareTo(v) < 0;
+            case LESS_THAN_OR_EQ:
+                return value.compareTo(v) <= 0;
+            case LIKE:
+                return value.contains(v);
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -11,12 +12,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private transient BatchOpIterator batchChild;
+    private transient int[] cols;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -81,6 +84,23 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child with the projected columns. The
+     * batch shares the columns and the selection vector of the child's
+     * batch rather than copying them.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null) {
+            batchChild = BatchOpIterator.of(child);
+            cols = new int[outFieldIds.size()];
+            for (int i = 0; i < cols.length; i++) {
+                cols[i] = outFieldIds.get(i);
+            }
+        }
+        TupleBatch b = batchChild.nextBatch();
+        return b == null ? null : b.project(td, cols);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -90,6 +110,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.batchChild = null;
         }
     }
 
@@ -5,6 +5,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
@@ -114,10 +115,20 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        if (op instanceof BatchOpIterator) {
+            TupleBatch batch;
+            while ((batch = ((BatchOpIterator) op).nextBatch()) != null) {
+                for (int i = 0; i < batch.numRows(); i++) {
+                    System.out.println(batch.getTuple(i));
+                }
+                cnt += batch.numRows();
+            }
+        } else {
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
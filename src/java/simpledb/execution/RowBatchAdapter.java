@@ -0,0 +1,65 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * RowBatchAdapter lets a batch operator read from an operator that returns
+ * a tuple at a time: it collects the tuples of its child into batches.
+ */
+public class RowBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    public RowBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    public OpIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -14,14 +15,19 @@ import java.util.NoSuchElementException;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A batch of the scan has the values of the tuples of the file in columns,
+ * so that the operators above it do not get a Tuple for each row. The file
+ * iterator fills it, from the slots of each page of a HeapFile.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId transactionId ;
     private  int tableId ;
     private  String tableAlias ;
     private  DbFileIterator iterator;
+    private transient TupleBatch batch;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -81,6 +87,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.batch = null;
 
 
     }
@@ -133,9 +140,19 @@ public class SeqScan implements OpIterator {
      return iterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (iterator == null)
+            throw new IllegalStateException("SeqScan not yet open");
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        return iterator.nextBatch(batch) ? batch : null;
+    }
+
     public void close() {
         // some code goes here
         iterator = null;
+        batch = null;
 
     }
 
@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.HashMap;
@@ -50,6 +51,21 @@ public class StringAggregator implements Aggregator {
         StringField stringField = (StringField) tup.getField(afield);
         Field gbfield = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
         String value = stringField.getValue();
+        merge(gbfield);
+    }
+
+    /**
+     * Merge the rows of a batch into the aggregate. Counting them does not
+     * need their aggregate values.
+     */
+    @Override
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.numRows(); i++) {
+            merge(this.gbfield == NO_GROUPING ? null : batch.getField(this.gbfield, batch.row(i)));
+        }
+    }
+
+    private void merge(Field gbfield) {
         if (gbfield != null && gbfield.getType() != gbfieldtype) {
             throw new IllegalStateException("Given type is wrong type");
         }
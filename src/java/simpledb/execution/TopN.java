@@ -0,0 +1,255 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.RowStore;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * TopN is an operator that implements a relational ORDER BY followed by a
+ * LIMIT: it returns the first n tuples of its child in the order OrderBy
+ * would return them, ties included.
+ * <p>
+ * When it is opened it reads its child once, keeping the n best tuples seen
+ * so far in a RowStore and a binary heap of them with the worst on top, and
+ * a tuple that is better than the top replaces it. Tuples that are equal on
+ * the fields are ordered by the order they arrived in, so the heap holds at
+ * most n + 1 tuples and reading m tuples takes O(m log n).
+ * <p>
+ * The tuple interface returns the rows of the batches.
+ */
+public class TopN extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+
+    // the kept tuples, and the number of each in the order they arrived
+    transient private RowStore store;
+    transient private long[] arrival;
+    transient private int[] heap;
+    transient private int heapSize;
+    // the kept tuples in order
+    transient private int[] order;
+    transient private int pos;
+    transient private TupleBatch out;
+    // the batch the tuple interface is returning the rows of
+    transient private TupleBatch rows;
+    transient private int rowPos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need an order for each of one or more fields");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+    }
+
+    /**
+     * @return the fields the sort is applied to, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each of the fields of {@link #getOrderByFields}, true if
+     * the sort order is ascending
+     */
+    public boolean[] getOrderByAsc() {
+        return asc.clone();
+    }
+
+    /**
+     * @return the number of tuples the operator returns at most
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        select();
+        super.open();
+    }
+
+    private void select() throws DbException, TransactionAbortedException {
+        int expected = Math.min(limit, TupleBatch.DEFAULT_SIZE) + 1;
+        store = new RowStore(td, expected);
+        arrival = new long[expected];
+        heap = new int[expected];
+        heapSize = 0;
+        // the row the next tuple is written to once the heap is full
+        int spare = -1;
+        long arrived = 0;
+        BatchOpIterator in = BatchOpIterator.of(child);
+        TupleBatch b;
+        while (limit > 0 && (b = in.nextBatch()) != null) {
+            for (int i = 0; i < b.numRows(); i++, arrived++) {
+                if (heapSize < limit) {
+                    int row = store.add(b, i);
+                    arrived(row, arrived);
+                    heap = grow(heap, heapSize);
+                    heap[heapSize] = row;
+                    siftUp(heapSize++);
+                    continue;
+                }
+                if (spare < 0) {
+                    spare = store.add(b, i);
+                } else {
+                    store.set(spare, b, i);
+                }
+                arrived(spare, arrived);
+                if (compare(spare, heap[0]) < 0) {
+                    int worst = heap[0];
+                    heap[0] = spare;
+                    spare = worst;
+                    siftDown(0);
+                }
+            }
+        }
+        // take the worst off the heap until it is empty
+        order = new int[heapSize];
+        for (int k = heapSize - 1; k >= 0; k--) {
+            order[k] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(0);
+        }
+        pos = 0;
+        heap = null;
+    }
+
+    private void arrived(int row, long arrived) {
+        arrival = row < arrival.length ? arrival : Arrays.copyOf(arrival, arrival.length * 2);
+        arrival[row] = arrived;
+    }
+
+    private static int[] grow(int[] a, int size) {
+        return size < a.length ? a : Arrays.copyOf(a, a.length * 2);
+    }
+
+    private int compare(int rowA, int rowB) {
+        for (int k = 0; k < orderByFields.length; k++) {
+            int c = store.compare(rowA, orderByFields[k], store, rowB);
+            if (c != 0) {
+                return asc[k] ? c : -c;
+            }
+        }
+        return Long.compare(arrival[rowA], arrival[rowB]);
+    }
+
+    private void siftUp(int i) {
+        int row = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (compare(heap[parent], row) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = row;
+    }
+
+    private void siftDown(int i) {
+        int row = heap[i];
+        while (2 * i + 1 < heapSize) {
+            int c = 2 * i + 1;
+            if (c + 1 < heapSize && compare(heap[c + 1], heap[c]) > 0) {
+                c++;
+            }
+            if (compare(heap[c], row) <= 0) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = row;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        store = null;
+        arrival = null;
+        order = null;
+        out = null;
+        rows = null;
+    }
+
+    public void rewind() {
+        rows = null;
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() {
+        while (rows == null || rowPos == rows.numRows()) {
+            rows = nextBatch();
+            rowPos = 0;
+            if (rows == null) {
+                return null;
+            }
+        }
+        return rows.getTuple(rowPos++);
+    }
+
+    /**
+     * Returns the next batch of the first tuples in the ordering.
+     */
+    public TupleBatch nextBatch() {
+        if (order == null) {
+            return null;
+        }
+        if (out == null) {
+            out = new TupleBatch(td);
+        }
+        out.clear();
+        while (pos < order.length && out.numRows() < TupleBatch.DEFAULT_SIZE) {
+            out.addRow(store, order[pos++]);
+        }
+        return out.numRows() > 0 ? out : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -3,6 +3,8 @@ package simpledb.index;
 import java.awt.font.TextMeasurer;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
 
 import simpledb.common.*;
 import simpledb.execution.IndexPredicate;
@@ -17,6 +19,16 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Transactions lock the leaf pages they read or change until they end, but
+ * they normally find those leaves without locking anything above them: the
+ * root pointer and internal pages are read optimistically, and the descent
+ * is thrown away if a structure change (a split, merge or redistribution)
+ * of the file started while it read, or if another transaction may be
+ * changing a page on its way. Structure changes still lock the pages they
+ * change until the transaction ends, and a descent that cannot be done
+ * optimistically locks the internal pages only until it has locked the
+ * next page down.
  *
  * @author Becca Taft
  * @see BTreeLeafPage#BTreeLeafPage
@@ -30,6 +42,15 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final PageChannel channel;
+
+    // number of tries to find a leaf optimistically before locking the way down
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    // write-locked for a moment when a structure change starts and ends, so
+    // that an optimistic descent can tell whether one overlapped it
+    private final StampedLock structureLatch = new StampedLock();
+    private final AtomicInteger structureChanges = new AtomicInteger();
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -44,6 +65,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = new PageChannel(f);
     }
 
     /**
@@ -53,6 +75,23 @@ public class BTreeFile implements DbFile {
         return f;
     }
 
+    /**
+     * Serve page reads of this file from a read-only memory mapping instead
+     * of positional reads.
+     *
+     * @param mapped - true to read pages through a memory mapping
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    /**
+     * Returns true if page reads are served from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
+
     /**
      * Returns an ID uniquely identifying this BTreeFile. Implementation note:
      * you will need to generate this tableid somewhere and ensure that each
@@ -85,34 +124,27 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
+                if (BTreeRootPtrPage.getPageSize() > channel.size()) {
                     throw new IllegalArgumentException("Unable to read "
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
+                channel.read(0, pageBuf);
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                long offset = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+                if (offset >= channel.size()) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BufferPool.getPageSize()) {
+                if (offset + BufferPool.getPageSize() > channel.size()) {
                     throw new IllegalArgumentException("Unable to read "
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
+                channel.read(offset, pageBuf);
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
@@ -125,8 +157,6 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -139,14 +169,10 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(0, data);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize(), data);
         }
     }
 
@@ -167,9 +193,10 @@ public class BTreeFile implements DbFile {
 
     /**
      * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * the left-most page possibly containing the key field f. It locks each internal
+     * node along the path to the leaf node with READ_ONLY permission until the next node
+     * down is locked, and locks the leaf node with permission perm. Nodes that tid had
+     * locked before keep their locks.
      * <p>
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
@@ -178,54 +205,175 @@ public class BTreeFile implements DbFile {
      * @param pid        - the current page being searched
      * @param perm       - the permissions with which to lock the leaf page
      * @param f          - the field to search for
+     * @param parentId   - the page above pid, to unlock once pid is locked, or null
      * @return the left-most leaf page possibly containing the key field f
      */
     private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+                                       Field f, BTreePageId parentId)
             throws DbException, TransactionAbortedException {
         // some code goes here
-        if (pid.pgcateg() == BTreePageId.LEAF) {
-            return (BTreeLeafPage) this.getPage(tid, dirtypages, pid, perm);
+        boolean held = Database.getBufferPool().holdsLock(tid, pid);
+        boolean leaf = pid.pgcateg() == BTreePageId.LEAF;
+        Page page = this.getPage(tid, dirtypages, pid, leaf ? perm : Permissions.READ_ONLY);
+        if (parentId != null) {
+            Database.getBufferPool().unsafeReleasePage(tid, parentId);
+        }
+        if (leaf) {
+            return (BTreeLeafPage) page;
         }
-        BTreeInternalPage bTreePage = (BTreeInternalPage) this.getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-        Iterator<BTreeEntry> entryIterator = bTreePage.iterator();
+        BTreePageId nextPageId = childFor((BTreeInternalPage) page, f);
+        return findLeafPage(tid, dirtypages, nextPageId, perm, f, held ? null : pid);
+    }
+
+    /**
+     * Return the child of an internal page to descend into when looking for the
+     * left-most leaf page possibly containing the key field f, or for the left-most
+     * leaf page if f is null.
+     */
+    private BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+        Iterator<BTreeEntry> entryIterator = page.iterator();
         BTreeEntry bTreeEntry = null;
-        BTreePageId nextPageId = null;
         if (entryIterator.hasNext()) {
             bTreeEntry = entryIterator.next();
         } else {
             throw new DbException("findLeafPage: InternalPage must contain at least one data");
         }
         if (f == null) {
-            nextPageId = bTreeEntry.getLeftChild();
+            return bTreeEntry.getLeftChild();
+        }
+        while (f.compare(Op.GREATER_THAN, bTreeEntry.getKey()) && entryIterator.hasNext()) {
+            bTreeEntry = entryIterator.next();
+        }
+        if (f.compare(Op.LESS_THAN_OR_EQ, bTreeEntry.getKey())) {
+            return bTreeEntry.getLeftChild();
         } else {
-            while (f.compare(Op.GREATER_THAN, bTreeEntry.getKey()) && entryIterator.hasNext()) {
-                bTreeEntry = entryIterator.next();
+            return bTreeEntry.getRightChild();
+        }
+    }
+
+    /**
+     * Find the id of the left-most leaf page possibly containing the key field f without
+     * locking any page. The descent only reads pages no other transaction may be changing,
+     * so what it reads is committed, and it gives up if a structure change of this file is
+     * running or starts while it reads.
+     *
+     * @param tid - the transaction id
+     * @param f   - the field to search for
+     * @return the id of the leaf page, or null if the descent did not succeed or the tree
+     * has no root page yet
+     */
+    private BTreePageId findLeafPageId(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        long stamp = structureLatch.tryOptimisticRead();
+        if (stamp == 0 || structureChanges.get() != 0) {
+            return null;
+        }
+        try {
+            BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+            if (bufferPool.isLockedForUpdate(pid, tid)) {
+                return null;
             }
-            if (f.compare(Op.LESS_THAN_OR_EQ, bTreeEntry.getKey())) {
-                nextPageId = bTreeEntry.getLeftChild();
-            } else {
-                nextPageId = bTreeEntry.getRightChild();
+            pid = ((BTreeRootPtrPage) bufferPool.getPageUnlocked(pid)).getRootId();
+            while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+                if (!structureLatch.validate(stamp) || bufferPool.isLockedForUpdate(pid, tid)) {
+                    return null;
+                }
+                pid = childFor((BTreeInternalPage) bufferPool.getPageUnlocked(pid), f);
             }
+            return structureLatch.validate(stamp) ? pid : null;
+        } catch (RuntimeException | DbException e) {
+            // a page we read was being changed; otherwise the error is real
+            if (structureLatch.validate(stamp)) {
+                throw e;
+            }
+            return null;
         }
-        return findLeafPage(tid, dirtypages, nextPageId, perm, f);
+    }
 
+    /**
+     * Find and lock the left-most leaf page possibly containing the key field f with
+     * permission perm. The leaf is looked up optimistically, locked, and looked up again
+     * to make sure it was not split or merged while we waited for its lock; once it is
+     * locked, the keys that belong on it cannot change. If that does not work out, the
+     * tree is searched again while locking the way down.
+     *
+     * @param tid        - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param perm       - the permissions with which to lock the leaf page
+     * @param f          - the field to search for, or null for the left-most leaf page
+     * @return the locked leaf page, or null if the tree has no root page yet
+     * @see #findLeafPageId(TransactionId, Field)
+     * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field, BTreePageId)
+     */
+    private BTreeLeafPage lockLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        // snapshots take no locks and read old versions, which the pages
+        // in the pool may not match
+        if (!bufferPool.isSnapshot(tid)) {
+            for (int i = 0; i < OPTIMISTIC_ATTEMPTS; i++) {
+                BTreePageId leafId = findLeafPageId(tid, f);
+                if (leafId == null) {
+                    break;
+                }
+                boolean held = bufferPool.holdsLock(tid, leafId);
+                Page leaf = getPage(tid, dirtypages, leafId, perm);
+                if (leafId.equals(findLeafPageId(tid, f))) {
+                    return (BTreeLeafPage) leaf;
+                }
+                if (!held) {
+                    dirtypages.remove(leafId);
+                    bufferPool.unsafeReleasePage(tid, leafId);
+                }
+            }
+        }
+
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        boolean held = bufferPool.holdsLock(tid, rootPtrId);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            return null;
+        }
+        return findLeafPage(tid, dirtypages, rootId, perm, f, held ? null : rootPtrId);
     }
 
     /**
-     * Convenience method to find a leaf page when there is no dirtypages HashMap.
-     * Used by the BTreeFile iterator.
+     * Convenience method to find and read-lock a leaf page when there is no dirtypages
+     * HashMap. Used by the BTreeFile iterator.
      *
      * @param tid - the transaction id
-     * @param pid - the current page being searched
      * @param f   - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+     * @return the left-most leaf page possibly containing the key field f, or null
+     * if the tree is empty
+     * @see #lockLeafPage(TransactionId, Map, Permissions, Field)
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
             throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+        return lockLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f);
+    }
+
+    /**
+     * Note that a structure change of this file starts: from now until the matching
+     * endStructureChange(), optimistic descents give up. Structure changes lock the pages
+     * they change, so several of them may run at once.
+     */
+    private void beginStructureChange() {
+        long stamp = structureLatch.writeLock();
+        structureChanges.incrementAndGet();
+        structureLatch.unlockWrite(stamp);
+    }
+
+    /**
+     * Note that a structure change of this file has ended.
+     *
+     * @see #beginStructureChange()
+     */
+    private void endStructureChange() {
+        long stamp = structureLatch.writeLock();
+        structureChanges.decrementAndGet();
+        structureLatch.unlockWrite(stamp);
     }
 
     /**
@@ -518,22 +666,30 @@ public class BTreeFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         Map<PageId, Page> dirtypages = new HashMap<>();
-
-        // get a read lock on the root pointer page and use it to locate the root page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId rootId = rootPtr.getRootId();
-
-        if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
-        }
-
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+        Field key = t.getField(keyField);
+        createRootPtrPage();
+
+        // find and lock the left-most leaf page corresponding to the key field
+        BTreeLeafPage leafPage = lockLeafPage(tid, dirtypages, Permissions.READ_WRITE, key);
+
+        // set up the root, or split the leaf page if there are no more slots available
+        if (leafPage == null || leafPage.getNumEmptySlots() == 0) {
+            beginStructureChange();
+            try {
+                if (leafPage == null) {
+                    BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+                            BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+                    if (rootPtr.getRootId() == null) { // the root has just been created, so set the root pointer to point to it
+                        rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+                    }
+                    leafPage = findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_WRITE, key, null);
+                }
+                if (leafPage.getNumEmptySlots() == 0) {
+                    leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+                }
+            } finally {
+                endStructureChange();
+            }
         }
 
         // insert the tuple into the leaf page
@@ -1003,7 +1159,12 @@ public class BTreeFile implements DbFile {
         // or merge with one of the siblings
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
         if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+            beginStructureChange();
+            try {
+                handleMinOccupancyPage(tid, dirtypages, page);
+            } finally {
+                endStructureChange();
+            }
         }
 
         return new ArrayList<>(dirtypages.values());
@@ -1021,6 +1182,16 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        createRootPtrPage();
+
+        // get a read lock on the root pointer page
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Create the root pointer page and the root page if the file is empty.
+     */
+    private void createRootPtrPage() throws IOException {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
@@ -1033,9 +1204,6 @@ public class BTreeFile implements DbFile {
                 bw.close();
             }
         }
-
-        // get a read lock on the root pointer page
-        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
     }
 
     /**
@@ -1118,10 +1286,8 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize(),
+                BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1215,6 +1381,17 @@ public class BTreeFile implements DbFile {
         headerPage.markSlotUsed(emptySlot, false);
     }
 
+    /**
+     * Create the read-ahead used by iterators that walk the leaf pages of this
+     * file from left to right.
+     *
+     * @return a read-ahead that follows the right sibling pointers of leaf pages
+     */
+    ReadAhead leafReadAhead() {
+        return new ReadAhead(Database.getBufferPool(), null, (pid, page) ->
+                page instanceof BTreeLeafPage ? ((BTreeLeafPage) page).getRightSiblingId() : null);
+    }
+
     /**
      * get the specified tuples from the file based on its IndexPredicate value on
      * behalf of the specified transaction. This method will acquire a read lock on
@@ -1250,6 +1427,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    ReadAhead readAhead = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1269,11 +1447,13 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = f.findLeafPage(tid, null);
+        if (curp == null) {
+            return;
+        }
         it = curp.iterator();
+        readAhead = f.leafReadAhead();
+        readAhead.access(curp.getId(), curp);
     }
 
     /**
@@ -1294,6 +1474,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead.access(nextp, curp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1320,6 +1501,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
         curp = null;
+        readAhead = null;
     }
 }
 
@@ -1331,6 +1513,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    ReadAhead readAhead = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1354,16 +1537,22 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            curp = f.findLeafPage(tid, ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            curp = f.findLeafPage(tid, null);
+        }
+        if (curp == null) {
+            return;
         }
         it = curp.iterator();
+        // scans with an upper bound stop somewhere in the leaf chain, and
+        // reading ahead would fetch pages past the end of the range
+        if (ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+            readAhead = f.leafReadAhead();
+            readAhead.access(curp.getId(), curp);
+        }
     }
 
     /**
@@ -1400,6 +1589,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                if (readAhead != null) {
+                    readAhead.access(nextp, curp);
+                }
                 it = curp.iterator();
             }
         }
@@ -1421,5 +1613,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        readAhead = null;
     }
 }
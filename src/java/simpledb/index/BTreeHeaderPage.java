@@ -4,6 +4,7 @@ import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.LogFile;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Page;
@@ -23,6 +24,7 @@ import java.util.Arrays;
 public class BTreeHeaderPage implements Page {
 	private volatile boolean dirty = false;
 	private volatile TransactionId dirtier = null;
+	private volatile long lsn = LogFile.NO_LSN;
 	
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -273,6 +275,20 @@ public class BTreeHeaderPage implements Page {
 			return null;
 	}
 
+	/**
+	 * Returns the LSN of the last log record describing a change to this page
+	 */
+	public long getLSN() {
+		return lsn;
+	}
+
+	/**
+	 * Sets the LSN of the last log record describing a change to this page
+	 */
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
@@ -19,7 +19,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlottedPage {
 	private final byte[] header;
 	private final Tuple[] tuples;
 	private final int numSlots;
@@ -455,6 +455,38 @@ public class BTreeLeafPage extends BTreePage {
 		return cnt;
 	}
 
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public byte[] getSlotData(int i) {
+		if (!isSlotUsed(i))
+			return null;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				tuples[i].getField(j).serialize(dos);
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	public void setSlotData(int i, byte[] data) {
+		markSlotUsed(i, data != null);
+		tuples[i] = data == null ? null : readNextTuple(new DataInputStream(new ByteArrayInputStream(data)), i);
+	}
+
+	public boolean differsOnlyInSlots(SlottedPage other) {
+		if (!(other instanceof BTreeLeafPage) || !pid.equals(other.getId()))
+			return false;
+		BTreeLeafPage o = (BTreeLeafPage) other;
+		return parent == o.parent && leftSibling == o.leftSibling && rightSibling == o.rightSibling
+				&& keyField == o.keyField;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
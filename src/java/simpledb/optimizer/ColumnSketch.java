@@ -0,0 +1,274 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.util.Arrays;
+
+/**
+ * ColumnSketch summarizes the values of a column in one pass over them:
+ * their number, their minimum and maximum, a HyperLogLog of the distinct
+ * values, and their distribution, from which the compressed histograms of
+ * the column are built. The distribution is the exact count of each value while there
+ * are at most {@link #EXACT_VALUES} of them, and a KllSketch after that.
+ * Strings are summarized by the integers StringHistogram maps them to,
+ * except for the distinct count, which hashes the whole string.
+ * <p>
+ * Sketches of disjoint parts of a column can be collected separately, on
+ * different threads, and merged.
+ */
+public class ColumnSketch {
+
+    /** Number of distinct values that are counted exactly. */
+    public static final int EXACT_VALUES = 1024;
+
+    private final Type type;
+    private long count;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private final HyperLogLog distinct = new HyperLogLog();
+    // one of the two is null
+    private ValueCounts exact = new ValueCounts();
+    private KllSketch quantiles;
+
+    public ColumnSketch(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** Add a value of the column. */
+    public void add(Field f) {
+        if (type == Type.INT_TYPE) {
+            add(((IntField) f).getValue());
+        } else {
+            add(((StringField) f).getValue());
+        }
+    }
+
+    /** Add a value of an int column. */
+    public void add(int v) {
+        count++;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        distinct.add(v);
+        addMapped(v, 1);
+    }
+
+    /** Add a value of a string column. */
+    public void add(String s) {
+        int v = StringHistogram.stringToInt(s);
+        count++;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        distinct.add(s);
+        addMapped(v, 1);
+    }
+
+    private void addMapped(int v, long c) {
+        if (exact != null && exact.add(v, c)) {
+            return;
+        }
+        spill();
+        quantiles.update(v, c);
+    }
+
+    // give up counting values exactly
+    private void spill() {
+        if (exact != null) {
+            quantiles = new KllSketch();
+            exact.visit(quantiles::update);
+            exact = null;
+        }
+    }
+
+    /**
+     * Add the values of a sketch of another part of the column.
+     */
+    public void merge(ColumnSketch other) {
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        distinct.merge(other.distinct);
+        if (other.exact != null) {
+            other.exact.visit(this::addMapped);
+        } else {
+            spill();
+            quantiles.merge(other.quantiles);
+        }
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest value added, mapped to an int for strings
+     */
+    public int getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest value added, mapped to an int for strings
+     */
+    public int getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return the HyperLogLog of the values added
+     */
+    public HyperLogLog getDistinctSketch() {
+        return distinct;
+    }
+
+    /**
+     * @return the number of distinct values added: exact for an int column
+     * with few of them, estimated otherwise
+     */
+    public long distinctValues() {
+        if (count == 0) {
+            return 0;
+        }
+        if (type == Type.INT_TYPE && exact != null) {
+            return exact.size();
+        }
+        return Math.max(1, Math.min(count, distinct.estimate()));
+    }
+
+    /**
+     * @return the number of values of an int column added once, or -1 if
+     * that is not known because there are too many distinct values
+     */
+    public long singletons() {
+        if (type != Type.INT_TYPE || exact == null) {
+            return -1;
+        }
+        long[] singletons = new long[1];
+        exact.visit((v, c) -> {
+            if (c == 1) {
+                singletons[0]++;
+            }
+        });
+        return singletons[0];
+    }
+
+    /**
+     * Visit the values added and their counts; the values of the
+     * KllSketch with their weights once they are no longer counted exactly.
+     */
+    public void visit(KllSketch.ItemVisitor visitor) {
+        if (exact != null) {
+            exact.visit(visitor);
+        } else {
+            quantiles.visit(visitor);
+        }
+    }
+
+    /**
+     * @param distinct the number of distinct values of the column, which may
+     *                 be more than were added to a sketch of a sample
+     * @return a compressed histogram of the values of an int column
+     */
+    public IntHistogram intHistogram(int buckets, long distinct) {
+        int[] values;
+        long[] counts;
+        if (exact != null) {
+            values = new int[exact.size()];
+            counts = new long[exact.size()];
+        } else {
+            values = new int[quantiles.numRetained()];
+            counts = new long[quantiles.numRetained()];
+        }
+        int[] n = new int[1];
+        visit((v, weight) -> {
+            values[n[0]] = v;
+            counts[n[0]++] = weight;
+        });
+        // sort by value, adding up the weights of each value of the sketch
+        long[] items = new long[n[0]];
+        for (int i = 0; i < n[0]; i++) {
+            items[i] = ((long) values[i] << 32) | i;
+        }
+        Arrays.sort(items);
+        int distinctSeen = 0;
+        long[] sortedCounts = new long[n[0]];
+        int[] sortedValues = new int[n[0]];
+        for (long item : items) {
+            int v = (int) (item >> 32);
+            long c = counts[(int) item];
+            if (distinctSeen > 0 && sortedValues[distinctSeen - 1] == v) {
+                sortedCounts[distinctSeen - 1] += c;
+            } else {
+                sortedValues[distinctSeen] = v;
+                sortedCounts[distinctSeen++] = c;
+            }
+        }
+        return IntHistogram.compressed(Arrays.copyOf(sortedValues, distinctSeen),
+                Arrays.copyOf(sortedCounts, distinctSeen), buckets, distinct);
+    }
+
+    /**
+     * @param distinct the number of distinct values of the column
+     * @return a compressed histogram of the values of a string column
+     */
+    public StringHistogram stringHistogram(int buckets, long distinct) {
+        return new StringHistogram(intHistogram(buckets, distinct));
+    }
+
+    /**
+     * An open-addressing table of the counts of up to EXACT_VALUES values.
+     */
+    private static class ValueCounts {
+        private static final int SLOTS = Integer.highestOneBit(EXACT_VALUES) * 4;
+
+        private final int[] values = new int[SLOTS];
+        // 0 is a free slot
+        private final long[] counts = new long[SLOTS];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Add c to the count of v.
+         *
+         * @return false, changing nothing, if v is not in the table and the
+         * table is full
+         */
+        boolean add(int v, long c) {
+            int slot = (int) HyperLogLog.mix(v) & (SLOTS - 1);
+            while (counts[slot] != 0) {
+                if (values[slot] == v) {
+                    counts[slot] += c;
+                    return true;
+                }
+                slot = (slot + 1) & (SLOTS - 1);
+            }
+            if (size == EXACT_VALUES) {
+                return false;
+            }
+            values[slot] = v;
+            counts[slot] = c;
+            size++;
+            return true;
+        }
+
+        void visit(KllSketch.ItemVisitor visitor) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (counts[slot] != 0) {
+                    visitor.visit(values[slot], counts[slot]);
+                }
+            }
+        }
+    }
+}
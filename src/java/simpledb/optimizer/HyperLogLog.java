@@ -0,0 +1,117 @@
+package simpledb.optimizer;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in a fixed
+ * amount of memory: each value is hashed to 64 bits, the first
+ * {@link #PRECISION} bits pick one of 2^PRECISION registers and the register
+ * keeps the largest number of leading zeros (plus one) seen in the rest of
+ * the hash. The standard error of the estimate is about
+ * 1.04 / sqrt(2^PRECISION), 1.6%. Two sketches are merged by taking the
+ * larger of each pair of registers, which gives the sketch of the union of
+ * their values, so that parts of a table can be counted separately.
+ */
+public class HyperLogLog {
+
+    /** Number of hash bits that pick a register. */
+    public static final int PRECISION = 12;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        registers = new byte[REGISTERS];
+    }
+
+    /**
+     * Create a sketch with the given registers, as returned by
+     * {@link #getRegisters}.
+     */
+    public HyperLogLog(byte[] registers) {
+        if (registers.length != REGISTERS) {
+            throw new IllegalArgumentException("expected " + REGISTERS + " registers");
+        }
+        this.registers = registers.clone();
+    }
+
+    /**
+     * @return a copy of the registers of the sketch
+     */
+    public byte[] getRegisters() {
+        return registers.clone();
+    }
+
+    // the finalizer of SplitMix64, which spreads nearby values over all bits
+    static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /** Add an int value. */
+    public void add(int v) {
+        addHash(mix(v));
+    }
+
+    /** Add a String value. */
+    public void add(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    private void addHash(long h) {
+        int register = (int) (h >>> (64 - PRECISION));
+        // the sentinel bit bounds the rank at 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // linear counting is more accurate while many registers are empty
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HyperLogLog && Arrays.equals(registers, ((HyperLogLog) o).registers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(registers);
+    }
+}
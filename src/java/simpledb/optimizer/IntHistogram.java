@@ -2,21 +2,51 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * A class to represent a fixed-width histogram over a single integer-based field.
+ * A class to represent a histogram over a single integer-based field.
+ * <p>
+ * A histogram created with the public constructor has fixed-width buckets
+ * that values are added to one at a time. A compressed histogram, created
+ * by {@link #compressed} from the counts of the values of a column, keeps
+ * the most common values with their counts and splits the other values
+ * into equi-depth buckets, which hold about as many tuples each, so that
+ * skewed columns get exact estimates for their frequent values and narrow
+ * buckets where values are dense. Each of its buckets has the number of
+ * distinct values in it, for equality estimates, and the histogram has the
+ * number of distinct values of the column, for join estimates.
  */
 public class IntHistogram {
+
+    /** Most common values a compressed histogram keeps at most. */
+    public static final int MAX_MCVS = 64;
+
     private int min;
     private int max;
     private int ntups;
     private int[] bucketList;
     private final double width;
 
+    // compressed histograms only: the most common values in increasing
+    // order with their counts, and for each bucket of the other values, in
+    // increasing order, its lowest and highest value, number of tuples and
+    // of distinct values
+    private int[] mcvValues;
+    private long[] mcvCounts;
+    private int[] lows;
+    private int[] highs;
+    private long[] counts;
+    private long[] distincts;
+    private long distinct;
+
     /**
      * Create a new IntHistogram.
      * <p>
@@ -44,6 +74,118 @@ public class IntHistogram {
 
     }
 
+    private IntHistogram(int min, int max, long distinct) {
+        this.min = min;
+        this.max = max;
+        this.width = 0;
+        this.distinct = distinct;
+    }
+
+    /**
+     * Create a compressed histogram from the counts of the values of a
+     * column, or of a sample or summary of them. The values at least as
+     * common as the tuples of a bucket are kept, up to MAX_MCVS of them, as
+     * are all of them if there are at most MAX_MCVS; the other values are
+     * split into buckets of about the same number of tuples, with no value
+     * in two of them.
+     *
+     * @param values   the distinct values, in increasing order
+     * @param counts   the number of tuples of each value
+     * @param buckets  the number of buckets to split the other values into
+     * @param distinct the number of distinct values of the column, which is
+     *                 larger than values.length if they are a sample or a
+     *                 summary
+     */
+    public static IntHistogram compressed(int[] values, long[] counts, int buckets, long distinct) {
+        int n = values.length;
+        distinct = Math.max(distinct, n);
+        IntHistogram hist = new IntHistogram(n == 0 ? 0 : values[0], n == 0 ? 0 : values[n - 1], distinct);
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        hist.ntups = (int) total;
+
+        // the most common values, by decreasing count
+        Integer[] byCount = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byCount[i] = i;
+        }
+        Arrays.sort(byCount, (x, y) -> Long.compare(counts[y], counts[x]));
+        boolean all = distinct == n && n <= MAX_MCVS;
+        int mcvs = 0;
+        while (mcvs < Math.min(n, MAX_MCVS)
+                && (all || counts[byCount[mcvs]] > 1 && counts[byCount[mcvs]] * buckets >= total)) {
+            mcvs++;
+        }
+        boolean[] common = new boolean[n];
+        for (int i = 0; i < mcvs; i++) {
+            common[byCount[i]] = true;
+        }
+        hist.mcvValues = new int[mcvs];
+        hist.mcvCounts = new long[mcvs];
+        long rest = total;
+        for (int i = 0, m = 0; i < n; i++) {
+            if (common[i]) {
+                hist.mcvValues[m] = values[i];
+                hist.mcvCounts[m++] = counts[i];
+                rest -= counts[i];
+            }
+        }
+
+        // equi-depth buckets of the others
+        int[] lows = new int[buckets];
+        int[] highs = new int[buckets];
+        long[] depths = new long[buckets];
+        long[] distincts = new long[buckets];
+        int b = 0;
+        long seen = 0;
+        for (int i = 0; i < n; i++) {
+            if (common[i]) {
+                continue;
+            }
+            if (distincts[b] == 0) {
+                lows[b] = values[i];
+            }
+            highs[b] = values[i];
+            depths[b] += counts[i];
+            distincts[b]++;
+            seen += counts[i];
+            if (b < buckets - 1 && seen * buckets >= rest * (b + 1)) {
+                b++;
+            }
+        }
+        int used = b < buckets && distincts[b] > 0 ? b + 1 : b;
+        hist.lows = Arrays.copyOf(lows, used);
+        hist.highs = Arrays.copyOf(highs, used);
+        hist.counts = Arrays.copyOf(depths, used);
+        hist.distincts = Arrays.copyOf(distincts, used);
+        if (distinct > n && rest > 0) {
+            // the values are a sample: spread the distinct values not seen
+            // over the buckets by their number of tuples
+            for (int i = 0; i < used; i++) {
+                long scaled = Math.round((double) (distinct - mcvs) * hist.counts[i] / rest);
+                long range = (long) hist.highs[i] - hist.lows[i] + 1;
+                hist.distincts[i] = Math.min(range, Math.max(hist.distincts[i], scaled));
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * @return whether this is a compressed histogram
+     */
+    public boolean isCompressed() {
+        return mcvValues != null;
+    }
+
+    /**
+     * @return the number of distinct values of a compressed histogram
+     */
+    public long distinctValues() {
+        return distinct;
+    }
+
     /**
      * Add a value to the set of values that you are keeping a histogram of.
      *
@@ -51,6 +193,7 @@ public class IntHistogram {
      */
     public void addValue(int v) {
         // some code goes here
+        checkFixedWidth();
         if (v >= min && v <= max) {
             bucketList[getIndex(v)]++;
             ntups++;
@@ -58,6 +201,21 @@ public class IntHistogram {
 
     }
 
+    /**
+     * Add count copies of a value to the histogram, as count calls to
+     * addValue(v) would.
+     *
+     * @param v     Value to add to the histogram
+     * @param count Number of times to add it
+     */
+    public void addValue(int v, int count) {
+        checkFixedWidth();
+        if (v >= min && v <= max) {
+            bucketList[getIndex(v)] += count;
+            ntups += count;
+        }
+    }
+
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
@@ -70,6 +228,9 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        if (isCompressed()) {
+            return estimateCompressed(op, v);
+        }
         if (op == Predicate.Op.LESS_THAN) {
             if (v <= min) {
                 return 0.0;
@@ -104,6 +265,124 @@ public class IntHistogram {
         }
     }
 
+    private void checkFixedWidth() {
+        if (isCompressed()) {
+            throw new IllegalStateException("a compressed histogram cannot be added to");
+        }
+    }
+
+    private double estimateCompressed(Predicate.Op op, int v) {
+        if (ntups == 0) {
+            return 0.0;
+        }
+        double selectivity;
+        switch (op) {
+            case EQUALS:
+                selectivity = equal(v);
+                break;
+            case NOT_EQUALS:
+                selectivity = 1 - equal(v);
+                break;
+            case LESS_THAN:
+                selectivity = lessThan(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                selectivity = lessThan(v) + equal(v);
+                break;
+            case GREATER_THAN:
+                selectivity = 1 - lessThan(v) - equal(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                selectivity = 1 - lessThan(v);
+                break;
+            default:
+                throw new UnsupportedOperationException();
+        }
+        return Math.min(1.0, Math.max(0.0, selectivity));
+    }
+
+    // fraction of the tuples that are v
+    private double equal(int v) {
+        int m = Arrays.binarySearch(mcvValues, v);
+        if (m >= 0) {
+            return (double) mcvCounts[m] / ntups;
+        }
+        int b = bucketOf(v);
+        if (b < 0) {
+            return 0.0;
+        }
+        return (double) counts[b] / distincts[b] / ntups;
+    }
+
+    // fraction of the tuples that are smaller than v, taking the values of
+    // the bucket v is in as spread evenly between its lowest and highest
+    private double lessThan(int v) {
+        double below = 0;
+        for (int m = 0; m < mcvValues.length && mcvValues[m] < v; m++) {
+            below += mcvCounts[m];
+        }
+        for (int b = 0; b < lows.length && lows[b] < v; b++) {
+            if (highs[b] < v) {
+                below += counts[b];
+            } else {
+                below += counts[b] * (double) ((long) v - lows[b]) / ((long) highs[b] - lows[b] + 1);
+            }
+        }
+        return below / ntups;
+    }
+
+    // the bucket whose values range over v, or -1
+    private int bucketOf(int v) {
+        int b = Arrays.binarySearch(highs, v);
+        if (b < 0) {
+            b = -b - 1;
+        }
+        return b < lows.length && lows[b] <= v ? b : -1;
+    }
+
+    /**
+     * Estimate the selectivity of an equality join of the column of this
+     * compressed histogram with that of another: the fraction of the pairs
+     * of their tuples that are equal. The most common values of both are
+     * matched exactly; a common value of one that is not common in the
+     * other is taken to be one of the other's remaining values, and the
+     * remaining values of both to be as likely to match as their numbers
+     * of distinct values allow, as in PostgreSQL's eqjoinsel.
+     */
+    public double equiJoinSelectivity(IntHistogram other) {
+        if (ntups == 0 || other.ntups == 0 || max < other.min || other.max < min) {
+            return 0.0;
+        }
+        double matched = 0;
+        double matched1 = 0;
+        double matched2 = 0;
+        double common1 = 0;
+        double common2 = 0;
+        for (int i = 0; i < mcvValues.length; i++) {
+            double f1 = (double) mcvCounts[i] / ntups;
+            common1 += f1;
+            int j = Arrays.binarySearch(other.mcvValues, mcvValues[i]);
+            if (j >= 0) {
+                double f2 = (double) other.mcvCounts[j] / other.ntups;
+                matched += f1 * f2;
+                matched1 += f1;
+                matched2 += f2;
+            }
+        }
+        for (long c : other.mcvCounts) {
+            common2 += (double) c / other.ntups;
+        }
+        double rest1 = Math.max(0, 1 - common1);
+        double rest2 = Math.max(0, 1 - common2);
+        long restDistinct1 = Math.max(1, distinct - mcvValues.length);
+        long restDistinct2 = Math.max(1, other.distinct - other.mcvValues.length);
+        double selectivity = matched
+                + (common1 - matched1) * rest2 / restDistinct2
+                + (common2 - matched2) * rest1 / restDistinct1
+                + rest1 * rest2 / Math.max(restDistinct1, restDistinct2);
+        return Math.min(1.0, Math.max(0.0, selectivity));
+    }
+
     /**
      * @return the average selectivity of this histogram.
      * <p>
@@ -113,6 +392,9 @@ public class IntHistogram {
      */
     public double avgSelectivity() {
         // some code goes here
+        if (isCompressed()) {
+            return ntups == 0 ? 0.0 : 1.0;
+        }
         int cnt = 0;
         for (int bucket : bucketList) {
             cnt += bucket;
@@ -127,11 +409,84 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
+        if (isCompressed()) {
+            return String.format("IntHistgram(mcvs=%d, buckets=%d, min=%d, max=%d, distinct=%d)",
+                    mcvValues.length, lows.length, min, max, distinct);
+        }
         return String.format("IntHistgram(buckets=%d, min=%d, max=%d",
                 bucketList.length, min, max);
 
     }
 
+    /**
+     * Write the histogram to out, to be read back by {@link #read}.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeBoolean(isCompressed());
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeInt(ntups);
+        if (isCompressed()) {
+            out.writeLong(distinct);
+            out.writeInt(mcvValues.length);
+            for (int m = 0; m < mcvValues.length; m++) {
+                out.writeInt(mcvValues[m]);
+                out.writeLong(mcvCounts[m]);
+            }
+            out.writeInt(lows.length);
+            for (int b = 0; b < lows.length; b++) {
+                out.writeInt(lows[b]);
+                out.writeInt(highs[b]);
+                out.writeLong(counts[b]);
+                out.writeLong(distincts[b]);
+            }
+            return;
+        }
+        out.writeInt(bucketList.length);
+        for (int bucket : bucketList) {
+            out.writeInt(bucket);
+        }
+    }
+
+    /**
+     * @return a histogram written by {@link #write}
+     */
+    static IntHistogram read(DataInput in) throws IOException {
+        boolean compressed = in.readBoolean();
+        int min = in.readInt();
+        int max = in.readInt();
+        int ntups = in.readInt();
+        IntHistogram hist;
+        if (compressed) {
+            hist = new IntHistogram(min, max, in.readLong());
+            int mcvs = in.readInt();
+            hist.mcvValues = new int[mcvs];
+            hist.mcvCounts = new long[mcvs];
+            for (int m = 0; m < mcvs; m++) {
+                hist.mcvValues[m] = in.readInt();
+                hist.mcvCounts[m] = in.readLong();
+            }
+            int buckets = in.readInt();
+            hist.lows = new int[buckets];
+            hist.highs = new int[buckets];
+            hist.counts = new long[buckets];
+            hist.distincts = new long[buckets];
+            for (int b = 0; b < buckets; b++) {
+                hist.lows[b] = in.readInt();
+                hist.highs[b] = in.readInt();
+                hist.counts[b] = in.readLong();
+                hist.distincts[b] = in.readLong();
+            }
+        } else {
+            hist = new IntHistogram(in.readInt(), min, max);
+            for (int i = 0; i < hist.bucketList.length; i++) {
+                hist.bucketList[i] = in.readInt();
+            }
+        }
+        hist.ntups = ntups;
+        return hist;
+    }
+
     private int getIndex(int v) {
         if (v < min || v > max)
             throw new IllegalStateException("value out of range");
@@ -156,7 +156,10 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * Estimate the join cardinality of two tables. An equality join on a
+     * primary key has as many tuples as the other table; any other equality
+     * join is estimated from the most common values and distinct counts of
+     * the two fields in their TableStats, if they have them.
      */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -166,10 +169,14 @@ public class JoinOptimizer {
         int card = 1;
         // some code goes here
         if (joinOp == Predicate.Op.EQUALS) {
+            double selectivity;
             if (t1pkey) {
                 card = card2;
             } else if (t2pkey) {
                 card = card1;
+            } else if ((selectivity = equiJoinSelectivity(table1Alias, table2Alias, field1PureName,
+                    field2PureName, stats, tableAliasToId)) >= 0) {
+                card = (int) Math.min(Integer.MAX_VALUE, Math.round(selectivity * card1 * card2));
             } else {
                 card = Math.max(card1, card2);
             }
@@ -182,6 +189,33 @@ public class JoinOptimizer {
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the selectivity of an equality join of two base table fields
+     * from their TableStats, or -1 if a table has none
+     */
+    private static double equiJoinSelectivity(String table1Alias, String table2Alias,
+                                              String field1PureName, String field2PureName,
+                                              Map<String, TableStats> stats,
+                                              Map<String, Integer> tableAliasToId) {
+        Integer table1 = tableAliasToId.get(table1Alias);
+        Integer table2 = tableAliasToId.get(table2Alias);
+        if (table1 == null || table2 == null) {
+            return -1;
+        }
+        try {
+            TableStats stats1 = stats.get(Database.getCatalog().getTableName(table1));
+            TableStats stats2 = stats.get(Database.getCatalog().getTableName(table2));
+            if (stats1 == null || stats2 == null) {
+                return -1;
+            }
+            int field1 = Database.getCatalog().getTupleDesc(table1).fieldNameToIndex(field1PureName);
+            int field2 = Database.getCatalog().getTupleDesc(table2).fieldNameToIndex(field2PureName);
+            return stats1.equiJoinSelectivity(field1, stats2, field2);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
@@ -284,7 +318,8 @@ public class JoinOptimizer {
 
             }
         }
-        List<LogicalJoinNode> res = null;
+        // a query over a single table has no joins to order
+        List<LogicalJoinNode> res = new ArrayList<>();
         for (Set<LogicalJoinNode> nodeSet : nodeSets) {
             res = planCache.getOrder(nodeSet);
         }
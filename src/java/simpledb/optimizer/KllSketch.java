@@ -0,0 +1,265 @@
+package simpledb.optimizer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * KllSketch is a mergeable quantile sketch of int values (Karnin, Lang and
+ * Liberty, "Optimal Quantile Approximation in Streams"). It keeps levels of
+ * values; a value on level h stands for 2^h of the values added. When the
+ * sketch holds more values than its capacity, a full level is compacted:
+ * its values are sorted and every other one, starting at random at the
+ * first or the second, is moved up a level with twice the weight. The
+ * weights of the values retained always add up to the number of values
+ * added, so the retained values and their weights are a summary of the
+ * distribution that histograms can be built from directly.
+ * <p>
+ * The capacity of a level shrinks by 2/3 for each level below the top one,
+ * so a sketch holds about 3k values whatever the number of values added,
+ * and the error of a rank is about 1.7 / k of the number of values with
+ * high probability. Sketches of parts of a table are merged by adding the
+ * levels of one to the other and compacting.
+ */
+public class KllSketch {
+
+    /** Capacity of the top level, which sets the accuracy of the sketch. */
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * Receives the values retained by a sketch with their weights.
+     */
+    public interface ItemVisitor {
+        void visit(int value, long weight);
+    }
+
+    private final int k;
+    private final Random random;
+    // levels[h][0, sizes[h]) are the values of weight 2^h
+    private int[][] levels = new int[1][];
+    private int[] sizes = new int[1];
+    private long n;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        this(k, new Random());
+    }
+
+    /**
+     * @param random the choices of the compactions, seeded to make a sketch
+     *               reproducible
+     */
+    public KllSketch(int k, Random random) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        }
+        this.k = k;
+        this.random = random;
+        levels[0] = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getN() {
+        return n;
+    }
+
+    /**
+     * @return the smallest value added, or Integer.MAX_VALUE if none were
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value added, or Integer.MIN_VALUE if none were
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of values the sketch holds
+     */
+    public int numRetained() {
+        int retained = 0;
+        for (int h = 0; h < levels.length; h++) {
+            retained += sizes[h];
+        }
+        return retained;
+    }
+
+    /** Add a value. */
+    public void update(int v) {
+        update(v, 1);
+    }
+
+    /**
+     * Add count copies of a value, as at most one value on each level whose
+     * weight is a bit of count.
+     */
+    public void update(int v, long count) {
+        if (count <= 0) {
+            return;
+        }
+        n += count;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+        for (int h = 0; count != 0; h++, count >>>= 1) {
+            if ((count & 1) != 0) {
+                append(h, v);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(KllSketch other) {
+        if (other.n == 0) {
+            return;
+        }
+        n += other.n;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        compress();
+    }
+
+    private void append(int h, int v) {
+        if (h >= levels.length) {
+            levels = Arrays.copyOf(levels, h + 1);
+            sizes = Arrays.copyOf(sizes, h + 1);
+        }
+        if (levels[h] == null) {
+            levels[h] = new int[MIN_CAPACITY];
+        } else if (sizes[h] == levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+        }
+        levels[h][sizes[h]++] = v;
+    }
+
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3, depth)));
+    }
+
+    private void compress() {
+        while (true) {
+            int retained = 0;
+            int capacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                retained += sizes[h];
+                capacity += capacity(h);
+            }
+            if (retained <= capacity) {
+                return;
+            }
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compact(int h) {
+        int[] level = levels[h];
+        int size = sizes[h];
+        Arrays.sort(level, 0, size);
+        // an odd value out stays on its level
+        int pairs = size / 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = 0; i < pairs; i++) {
+            append(h + 1, level[2 * i + offset]);
+        }
+        // append may have grown levels, but not replaced level h
+        if (size % 2 != 0) {
+            level[0] = level[size - 1];
+            sizes[h] = 1;
+        } else {
+            sizes[h] = 0;
+        }
+    }
+
+    /**
+     * Visit the values the sketch holds with their weights, which add up to
+     * {@link #getN}, in no particular order.
+     */
+    public void visit(ItemVisitor visitor) {
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                visitor.visit(levels[h][i], 1L << h);
+            }
+        }
+    }
+
+    /**
+     * @return the estimated fraction of the values added that are smaller
+     * than v
+     */
+    public double rank(int v) {
+        if (n == 0) {
+            return 0.0;
+        }
+        long below = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                if (levels[h][i] < v) {
+                    below += 1L << h;
+                }
+            }
+        }
+        return (double) below / n;
+    }
+
+    /**
+     * @param q a fraction between 0 and 1
+     * @return an estimate of the value q of the way through the values
+     * added in sorted order: the minimum for 0 and the maximum for 1
+     */
+    public int quantile(double q) {
+        if (n == 0) {
+            throw new IllegalStateException("empty sketch");
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        int retained = numRetained();
+        long[] items = new long[retained];
+        int j = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                // value in the high half, level in the low half, so that
+                // they sort by value
+                items[j++] = ((long) levels[h][i] << 32) | h;
+            }
+        }
+        Arrays.sort(items);
+        long target = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (long item : items) {
+            seen += 1L << (int) item;
+            if (seen >= target) {
+                return (int) (item >> 32);
+            }
+        }
+        return max;
+    }
+}
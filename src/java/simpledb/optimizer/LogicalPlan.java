@@ -36,8 +36,10 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private int limit = NO_LIMIT;
     private String query;
 //    private Query owner;
 
@@ -206,19 +208,38 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calls for several
+        fields order by them in the order of the calls, the first one being the most significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Value of {@link #getLimit} for a plan without a LIMIT. */
+    public static final int NO_LIMIT = -1;
+
+    /** Add a LIMIT on the number of tuples the plan returns.  If the plan has an ORDER BY, they are
+        the first tuples in its order.
+        @param n the number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
+    /** @return the number of tuples the plan returns at most, or {@link #NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -304,7 +325,13 @@ public class LogicalPlan {
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            TableStats.refreshIfStale(baseTableName);
+            TableStats stats = baseTableStats.get(baseTableName);
+            if (stats == null) {
+                // not computed yet, or saved in the stats file
+                stats = TableStats.getTableStats(baseTableName);
+            }
+            statsMap.put(baseTableName, stats);
             filterSelectivities.put(table.alias, 1.0);
 
         }
@@ -472,7 +499,20 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                asc[i] = oByAsc.get(i);
+            }
+            // only the first tuples are needed: keep them in a bounded heap
+            // rather than sorting them all
+            if (limit == NO_LIMIT)
+                node = new OrderBy(fields, asc, node);
+            else
+                node = new TopN(fields, asc, limit, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -18,6 +18,7 @@ public class QueryPlanVisualizer {
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -221,11 +222,16 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                StringBuilder fields = new StringBuilder();
+                for (int field : o.getOrderByFields()) {
+                    if (fields.length() > 0)
+                        fields.append(",");
+                    fields.append(children[0].getTupleDesc().getFieldName(field));
+                }
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        fields,o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +246,40 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String symbol;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    StringBuilder fields = new StringBuilder();
+                    for (int field : o.getOrderByFields()) {
+                        if (fields.length() > 0)
+                            fields.append(",");
+                        fields.append(children[0].getTupleDesc().getFieldName(field));
+                    }
+                    symbol = ORDERBY;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),%3$s:%4$d,card:%5$d",
+                            ORDERBY, fields, LIMIT, o.getLimit(), o.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    symbol = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, l.getLimit(), l.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - symbol.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
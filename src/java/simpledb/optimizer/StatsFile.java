@@ -0,0 +1,176 @@
+package simpledb.optimizer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * StatsFile keeps the statistics of tables, as TableStats serializes them,
+ * in a file next to the catalog, so that they need not be computed again
+ * every time the database starts. The file starts with the name of each
+ * table, the length of its statistics and the number of tuples inserted
+ * into or deleted from the table since they were computed, followed by the
+ * statistics of the tables in the same order; only that list is read when
+ * the file is opened, and the statistics of a table are read when they are
+ * asked for.
+ * <p>
+ * The file is saved whole, to a temporary file that then replaces it, so a
+ * crash leaves either the old or the new file; TableStats saves it when
+ * the statistics of all tables are computed and when the JVM exits, not
+ * each time those of a table are. A file that cannot be read is taken to
+ * have no statistics, which are then computed again.
+ *
+ * @Threadsafe
+ */
+public class StatsFile {
+
+    private static final int MAGIC = 0x53444253;
+    private static final int VERSION = 3;
+
+    private final File file;
+    // table name -> offset and length of its statistics in the file, and
+    // the modifications of the table since they were computed
+    private final Map<String, long[]> index = new LinkedHashMap<>();
+    // table name -> modifications when the file was opened
+    private final Map<String, Long> modificationsAtOpen = new HashMap<>();
+
+    public StatsFile(File file) {
+        this.file = file;
+        try {
+            readIndex();
+        } catch (IOException e) {
+            index.clear();
+        }
+        for (Map.Entry<String, long[]> table : index.entrySet()) {
+            modificationsAtOpen.put(table.getKey(), table.getValue()[2]);
+        }
+    }
+
+    /**
+     * @return the file the statistics of the tables of a catalog file are
+     * kept in
+     */
+    public static File fileFor(String catalogFile) {
+        return new File(catalogFile + ".stats");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void readIndex() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a statistics file: " + file);
+            }
+            int tables = in.readInt();
+            String[] names = new String[tables];
+            int[] lengths = new int[tables];
+            long[] modifications = new long[tables];
+            for (int t = 0; t < tables; t++) {
+                names[t] = in.readUTF();
+                lengths[t] = in.readInt();
+                modifications[t] = in.readLong();
+            }
+            long offset = in.getFilePointer();
+            for (int t = 0; t < tables; t++) {
+                index.put(names[t], new long[]{offset, lengths[t], modifications[t]});
+                offset += lengths[t];
+            }
+            if (offset != in.length()) {
+                throw new IOException("truncated statistics file: " + file);
+            }
+        }
+    }
+
+    /**
+     * @return whether the file has statistics of a table
+     */
+    public synchronized boolean contains(String table) {
+        return index.containsKey(table);
+    }
+
+    /**
+     * @return the names of the tables the file has statistics of
+     */
+    public synchronized Set<String> tables() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from a table
+     * between when its statistics were computed and when the file was
+     * opened, 0 if the file has none
+     */
+    public synchronized long getModifications(String table) {
+        return modificationsAtOpen.getOrDefault(table, 0L);
+    }
+
+    /**
+     * @return the saved statistics of a table, or null if there are none
+     */
+    public synchronized byte[] read(String table) throws IOException {
+        long[] entry = index.get(table);
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = new byte[(int) entry[1]];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(entry[0]);
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    /**
+     * Save the statistics of some tables, replacing any saved before for
+     * them, and keeping those of the other tables.
+     *
+     * @param changed       table name -> statistics
+     * @param modifications table name -> tuples inserted or deleted since
+     *                      its statistics were computed, for every table
+     *                      whose count has changed
+     */
+    public synchronized void save(Map<String, byte[]> changed, Map<String, Long> modifications)
+            throws IOException {
+        Map<String, byte[]> tables = new LinkedHashMap<>();
+        for (String table : index.keySet()) {
+            tables.put(table, changed.containsKey(table) ? changed.get(table) : read(table));
+        }
+        tables.putAll(changed);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tables.size());
+            for (Map.Entry<String, byte[]> table : tables.entrySet()) {
+                out.writeUTF(table.getKey());
+                out.writeInt(table.getValue().length);
+                long[] entry = index.get(table.getKey());
+                out.writeLong(modifications.getOrDefault(table.getKey(), entry == null ? 0 : entry[2]));
+            }
+            for (byte[] data : tables.values()) {
+                out.write(data);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index.clear();
+        readIndex();
+    }
+}
@@ -2,6 +2,10 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
@@ -22,11 +26,33 @@ public class StringHistogram {
         hist = new IntHistogram(buckets, minVal(), maxVal());
     }
 
+    /**
+     * Create a StringHistogram over a histogram of the integers strings map
+     * to, such as a compressed one.
+     */
+    StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Write the histogram to out, to be read back by {@link #read}.
+     */
+    void write(DataOutput out) throws IOException {
+        hist.write(out);
+    }
+
+    /**
+     * @return a histogram written by {@link #write}
+     */
+    static StringHistogram read(DataInput in) throws IOException {
+        return new StringHistogram(IntHistogram.read(in));
+    }
+
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
      */
-    private int stringToInt(String s) {
+    static int stringToInt(String s) {
         int i;
         int v = 0;
         for (i = 3; i >= 0; i--) {
@@ -52,12 +78,12 @@ public class StringHistogram {
     }
 
     /** @return the maximum value indexed by the histogram */
-    int maxVal() {
+    static int maxVal() {
         return stringToInt("zzzz");
     }
 
     /** @return the minimum value indexed by the histogram */
-    int minVal() {
+    static int minVal() {
         return stringToInt("");
     }
 
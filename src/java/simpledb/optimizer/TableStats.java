@@ -2,18 +2,35 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -31,12 +48,130 @@ public class TableStats {
     private int ioCostPerPage;
     private int numTuples;
     private int numFields;
+    private long[] distinctValues;
+    private double sampleFraction;
+    private int sampledPages;
+    private long modificationsAtAnalyze;
+    // modifications since the statistics were computed, before they were
+    // saved and loaded again
+    private long savedModifications;
+    private boolean complete;
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
     static final int IOCOSTPERPAGE = 1000;
 
+    // where statistics are saved to and loaded from, if anywhere
+    private static volatile StatsFile statsFile;
+    // table name -> lock held while its statistics are loaded, so that they
+    // are loaded once without holding up lookups of other tables
+    private static final ConcurrentMap<String, Object> loading = new ConcurrentHashMap<>();
+    // tables whose statistics were computed since the stats file was saved
+    private static final Set<String> unsaved = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(TableStats::saveStatistics, "simpledb-save-stats"));
+    }
+
+    /**
+     * Look up the statistics of a table. If there are none and a stats file
+     * is set, they are read from it, or computed if it does not have them or
+     * the table has changed since; computed statistics are saved with the
+     * others, by {@link #saveStatistics}.
+     */
     public static TableStats getTableStats(String tablename) {
-        return statsMap.get(tablename);
+        TableStats stats = statsMap.get(tablename);
+        if (stats == null && statsFile != null) {
+            return loadStatistics(tablename);
+        }
+        refreshIfStale(tablename);
+        return stats;
+    }
+
+    /**
+     * Keep the statistics of tables in a file, such as the one
+     * {@link StatsFile#fileFor} returns for the catalog file, or in none if
+     * file is null. Only the list of tables is read now; the statistics of a
+     * table are read the first time they are looked up.
+     */
+    public static void setStatsFile(File file) {
+        statsFile = file == null ? null : new StatsFile(file);
+        unsaved.clear();
+    }
+
+    /**
+     * Save the statistics computed since the stats file was last saved,
+     * and how many tuples of each table have been inserted or deleted since
+     * its statistics were computed, to the stats file, if one is set. This
+     * is done when the statistics of all tables are computed and when the
+     * JVM exits, rewriting the file once rather than after each table.
+     */
+    public static synchronized void saveStatistics() {
+        StatsFile file = statsFile;
+        if (file == null) {
+            return;
+        }
+        Map<String, Long> modifications = new HashMap<>();
+        for (String table : file.tables()) {
+            // not looked up since the file was opened
+            try {
+                int tableid = Database.getCatalog().getTableId(table);
+                modifications.put(table,
+                        file.getModifications(table) + Database.getBufferPool().getModificationCount(tableid));
+            } catch (NoSuchElementException e) {
+                // the table is gone; its count is kept
+            }
+        }
+        for (Map.Entry<String, TableStats> table : statsMap.entrySet()) {
+            modifications.put(table.getKey(), table.getValue().modificationsSinceAnalyze());
+        }
+        Set<String> saving = new HashSet<>(unsaved);
+        try {
+            Map<String, byte[]> data = new HashMap<>();
+            for (String table : saving) {
+                TableStats stats = statsMap.get(table);
+                if (stats != null) {
+                    data.put(table, stats.serialize());
+                }
+            }
+            file.save(data, modifications);
+            unsaved.removeAll(saving);
+        } catch (IOException e) {
+            // saved the next time, or computed again after a restart
+        }
+    }
+
+    private static TableStats loadStatistics(String tablename) {
+        synchronized (loading.computeIfAbsent(tablename, t -> new Object())) {
+            return loadStatisticsLocked(tablename);
+        }
+    }
+
+    private static TableStats loadStatisticsLocked(String tablename) {
+        TableStats stats = statsMap.get(tablename);
+        StatsFile file = statsFile;
+        if (stats != null || file == null) {
+            return stats;
+        }
+        int tableid;
+        try {
+            tableid = Database.getCatalog().getTableId(tablename);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        try {
+            byte[] saved = file.read(tablename);
+            if (saved != null) {
+                stats = new TableStats(tableid, saved, file.getModifications(tablename));
+            }
+        } catch (IOException e) {
+            // missing, unreadable or out of date: computed again below
+        }
+        if (stats == null) {
+            stats = new TableStats(tableid, IOCOSTPERPAGE);
+            unsaved.add(tablename);
+        }
+        statsMap.put(tablename, stats);
+        return stats;
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
@@ -65,8 +200,11 @@ public class TableStats {
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
             TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String tablename = Database.getCatalog().getTableName(tableid);
+            setTableStats(tablename, s);
+            unsaved.add(tablename);
         }
+        saveStatistics();
         System.out.println("Done.");
     }
 
@@ -77,107 +215,380 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of threads that collect the statistics of a table.
+     */
+    static final int ANALYZE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Fewest pages of a table worth a thread of their own.
+     */
+    static final int MIN_PAGES_PER_THREAD = 64;
+
+    private static final ExecutorService analyzer = Executors.newFixedThreadPool(ANALYZE_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-analyze");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Fraction of the pages of a table that are read to compute its
+     * statistics by default.
+     */
+    public static final double DEFAULT_SAMPLE_FRACTION = 0.1;
+
+    /**
+     * Fewest pages of a table that are read to compute its statistics: a
+     * table of up to this many pages is read whole.
+     */
+    public static final int MIN_SAMPLE_PAGES = 256;
+
+    /**
+     * Fraction of the tuples of a table that have to be inserted or deleted
+     * after its statistics were computed for them to be computed again.
+     */
+    public static final double REFRESH_FRACTION = 0.2;
+
+    /**
+     * Fewest tuples of a table that have to be inserted or deleted after its
+     * statistics were computed for them to be computed again.
+     */
+    public static final int REFRESH_MIN_MODIFICATIONS = 500;
+
+    private static volatile double defaultSampleFraction = DEFAULT_SAMPLE_FRACTION;
+
+    // tables whose statistics are being computed again, by the one thread
+    // that does that
+    private static final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-analyze-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Set the fraction of the pages of a table that are read to compute its
+     * statistics when no fraction is given.
+     */
+    public static void setSampleFraction(double fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("sample fraction must be in (0, 1]");
+        }
+        defaultSampleFraction = fraction;
+    }
+
+    /**
+     * @return the fraction of the pages of a table that are read to compute
+     * its statistics when no fraction is given
+     */
+    public static double getSampleFraction() {
+        return defaultSampleFraction;
+    }
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
-     * column of a table
+     * column of a table, from the configured fraction of its pages.
      *
      * @param tableid       The table over which to compute statistics
      * @param ioCostPerPage The cost per page of IO. This doesn't differentiate between
      *                      sequential-scan IO and disk seeks.
+     * @see #setSampleFraction(double)
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, defaultSampleFraction);
+    }
+
+    /**
+     * Create a new TableStats object, that keeps track of statistics on each
+     * column of a table
+     * <p>
+     * The statistics are computed from a sample of the pages of the table,
+     * sampleFraction of them but at least MIN_SAMPLE_PAGES, picked at random
+     * and read once: they are split into ranges that are scanned in
+     * parallel, each into a ColumnSketch per column, and the sketches of the
+     * ranges are merged into the histograms and distinct counts of the
+     * columns. The number of tuples and of distinct values of a sampled
+     * table are scaled up to the whole table.
+     *
+     * @param tableid        The table over which to compute statistics
+     * @param ioCostPerPage  The cost per page of IO. This doesn't differentiate between
+     *                       sequential-scan IO and disk seeks.
+     * @param sampleFraction The fraction of the pages to read, 1 for all
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleFraction) {
+        if (sampleFraction <= 0 || sampleFraction > 1) {
+            throw new IllegalArgumentException("sample fraction must be in (0, 1]");
+        }
         dbFile = Database.getCatalog().getDatabaseFile(tableid);
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
+        this.sampleFraction = sampleFraction;
         integerIntHistogramMap = new HashMap<>();
         stringStringHistogramMap = new HashMap<>();
         this.tupleDesc = dbFile.getTupleDesc();
+        // changes made while the table is read count against the statistics
+        this.modificationsAtAnalyze = Database.getBufferPool().getModificationCount(tableid);
         this.numPages = ((HeapFile) dbFile).numPages();
-        this.numTuples = 0;
         this.numFields = tupleDesc.numFields();
-        Type[] types = getTypes(tupleDesc);
-        int[] mins = new int[numFields];
-        int[] maxs = new int[numFields];
-        TransactionId transactionId = new TransactionId();
-        SeqScan seqScan = new SeqScan(transactionId, tableid, "");
+
+        int[] pages = samplePages(numPages, sampleFraction);
+        sampledPages = pages.length;
+        ColumnSketch[] sketches = newSketches();
+        int ranges = Math.max(1, Math.min(ANALYZE_THREADS, pages.length / MIN_PAGES_PER_THREAD));
+        List<Future<ColumnSketch[]>> parts = new ArrayList<>();
+        for (int r = 0; r < ranges; r++) {
+            int first = (int) ((long) pages.length * r / ranges);
+            int end = (int) ((long) pages.length * (r + 1) / ranges);
+            parts.add(analyzer.submit(() -> scanPages(pages, first, end)));
+        }
+        boolean read = true;
         try {
-            seqScan.open();
-            for (int i = 0; i < numFields; i++) {
-                if (types[i] == Type.STRING_TYPE)
-                    continue;
-                int max = Integer.MIN_VALUE;
-                int min = Integer.MAX_VALUE;
-                while (seqScan.hasNext()) {
-                    if (i == 0)
-                        numTuples++;
-                    Tuple tuple = seqScan.next();
-                    IntField intField = (IntField) tuple.getField(i);
-                    int temp = intField.getValue();
-                    max = Math.max(max, temp);
-                    min = Math.min(min, temp);
+            for (Future<ColumnSketch[]> part : parts) {
+                ColumnSketch[] partSketches = part.get();
+                for (int i = 0; i < numFields; i++) {
+                    sketches[i].merge(partSketches[i]);
                 }
-                seqScan.rewind();
-                mins[i] = min;
-                maxs[i] = max;
             }
-
-        } catch (Exception e) {
+        } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
-        } finally {
-            seqScan.close();
+            read = false;
+        }
+        complete = read;
+
+        long sampledTuples = sketches[0].getCount();
+        numTuples = sampledPages == numPages ? (int) sampledTuples
+                : (int) Math.round((double) sampledTuples * numPages / sampledPages);
+        distinctValues = new long[numFields];
+        for (int i = 0; i < numFields; i++) {
+            distinctValues[i] = scaleDistinct(sketches[i], numTuples);
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                integerIntHistogramMap.put(i, sketches[i].intHistogram(NUM_HIST_BINS, distinctValues[i]));
+            } else {
+                stringStringHistogramMap.put(i, sketches[i].stringHistogram(NUM_HIST_BINS, distinctValues[i]));
+            }
+        }
+    }
+
+    /**
+     * @return the page numbers of a sample of a fraction of the pages of a
+     * table of numPages pages, but at least MIN_SAMPLE_PAGES, in order
+     */
+    static int[] samplePages(int numPages, double fraction) {
+        int sample = (int) Math.min(numPages, Math.max(MIN_SAMPLE_PAGES, Math.ceil(fraction * numPages)));
+        if (sample == numPages) {
+            int[] pages = new int[numPages];
+            for (int p = 0; p < numPages; p++) {
+                pages[p] = p;
+            }
+            return pages;
+        }
+        // Floyd's algorithm: sample distinct pages without a permutation
+        // of all of them
+        Random random = new Random();
+        BitSet picked = new BitSet(numPages);
+        for (int j = numPages - sample; j < numPages; j++) {
+            int p = random.nextInt(j + 1);
+            picked.set(picked.get(p) ? j : p);
+        }
+        return picked.stream().toArray();
+    }
+
+    /**
+     * The number of distinct values of a column of a table of numTuples
+     * tuples, from a sketch of a sample of them. With the number of values
+     * seen once in the sample, it is the Duj1 estimator of Haas et al.;
+     * without it, a column that is mostly distinct in the sample is taken to
+     * be so in the table, and any other to have all of its values in the
+     * sample.
+     */
+    private static long scaleDistinct(ColumnSketch sketch, long numTuples) {
+        long d = sketch.distinctValues();
+        long r = sketch.getCount();
+        if (r == 0 || r >= numTuples) {
+            return d;
+        }
+        long f1 = sketch.singletons();
+        double estimate;
+        if (f1 >= 0) {
+            estimate = (double) numTuples * d / (numTuples - f1 + (double) f1 * numTuples / r);
+        } else {
+            estimate = 2 * d > r ? (double) d * numTuples / r : d;
+        }
+        return Math.max(d, Math.min(numTuples, Math.round(estimate)));
+    }
+
+    /**
+     * @return whether enough tuples were inserted into or deleted from the
+     * table since its statistics were computed that they should be
+     * computed again
+     */
+    public boolean isStale() {
+        return isStale(modificationsSinceAnalyze(), numTuples);
+    }
+
+    private static boolean isStale(long modified, int numTuples) {
+        return modified >= Math.max(REFRESH_MIN_MODIFICATIONS, REFRESH_FRACTION * numTuples);
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from the table
+     * since its statistics were computed, in this run and, if they were
+     * saved, the runs before
+     */
+    long modificationsSinceAnalyze() {
+        long modified = Database.getBufferPool().getModificationCount(tableid) - modificationsAtAnalyze;
+        if (modified < 0) {
+            // a new buffer pool, which counts from zero
+            modified += modificationsAtAnalyze;
+        }
+        return savedModifications + modified;
+    }
+
+    /**
+     * Compute the statistics of a table again, in the background, if they
+     * are stale. The statistics it has are used until that is done.
+     */
+    public static void refreshIfStale(String tablename) {
+        TableStats stale = statsMap.get(tablename);
+        if (stale == null || !stale.isStale() || !refreshing.add(tablename)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                TableStats fresh = new TableStats(stale.tableid, stale.ioCostPerPage, stale.sampleFraction);
+                if (fresh.complete && statsMap.replace(tablename, stale, fresh)) {
+                    unsaved.add(tablename);
+                }
+            } catch (NoSuchElementException e) {
+                // the table is gone
+            } finally {
+                refreshing.remove(tablename);
+            }
+        });
+    }
+
+    /**
+     * @return the number of pages the statistics were computed from
+     */
+    public int getSampledPages() {
+        return sampledPages;
+    }
+
+    /**
+     * Read statistics saved by {@link #serialize} for a table.
+     *
+     * @param modifications the number of tuples inserted into or deleted
+     *                      from the table since they were computed
+     * @throws IOException if they cannot be read, are of a table with other
+     *                     fields, or the table has changed since as much as
+     *                     {@link #isStale} allows, or its number of pages by
+     *                     REFRESH_FRACTION or more
+     */
+    private TableStats(int tableid, byte[] saved, long modifications) throws IOException {
+        dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        this.tableid = tableid;
+        integerIntHistogramMap = new HashMap<>();
+        stringStringHistogramMap = new HashMap<>();
+        this.tupleDesc = dbFile.getTupleDesc();
+        this.modificationsAtAnalyze = Database.getBufferPool().getModificationCount(tableid);
+        this.numFields = tupleDesc.numFields();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(saved));
+        if (in.readInt() != numFields) {
+            throw new IOException("the fields of the table have changed");
+        }
+        for (int i = 0; i < numFields; i++) {
+            if (in.readInt() != tupleDesc.getFieldType(i).ordinal()) {
+                throw new IOException("the fields of the table have changed");
+            }
+        }
+        numPages = in.readInt();
+        int pages = ((HeapFile) dbFile).numPages();
+        if (pages != numPages && Math.abs(pages - numPages) >= REFRESH_FRACTION * numPages) {
+            throw new IOException("the table has changed");
         }
+        numTuples = in.readInt();
+        if (isStale(modifications, numTuples)) {
+            throw new IOException("the table has changed");
+        }
+        savedModifications = modifications;
+        ioCostPerPage = in.readInt();
+        sampleFraction = in.readDouble();
+        sampledPages = in.readInt();
+        distinctValues = new long[numFields];
         for (int i = 0; i < numFields; i++) {
-            if (types[i] == Type.INT_TYPE) {
-                IntHistogram intHistogram = new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
-                integerIntHistogramMap.put(i, intHistogram);
+            distinctValues[i] = in.readLong();
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                integerIntHistogramMap.put(i, IntHistogram.read(in));
             } else {
-                StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
-                stringStringHistogramMap.put(i, stringHistogram);
+                stringStringHistogramMap.put(i, StringHistogram.read(in));
             }
         }
-        addValueToHist();
+        complete = true;
+    }
 
+    /**
+     * @return the statistics as bytes, to be read back when the table is
+     * next looked up
+     */
+    byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(numFields);
+        for (int i = 0; i < numFields; i++) {
+            out.writeInt(tupleDesc.getFieldType(i).ordinal());
+        }
+        out.writeInt(numPages);
+        out.writeInt(numTuples);
+        out.writeInt(ioCostPerPage);
+        out.writeDouble(sampleFraction);
+        out.writeInt(sampledPages);
+        for (int i = 0; i < numFields; i++) {
+            out.writeLong(distinctValues[i]);
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+                integerIntHistogramMap.get(i).write(out);
+            } else {
+                stringStringHistogramMap.get(i).write(out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
     }
 
-    private Type[] getTypes(TupleDesc tupleDesc) {
-        int numFields = tupleDesc.numFields();
-        Type[] types = new Type[numFields];
+    private ColumnSketch[] newSketches() {
+        ColumnSketch[] sketches = new ColumnSketch[numFields];
         for (int i = 0; i < numFields; i++) {
-            types[i] = tupleDesc.getFieldType(i);
+            sketches[i] = new ColumnSketch(tupleDesc.getFieldType(i));
         }
-        return types;
+        return sketches;
     }
 
-    private void addValueToHist() {
-        TransactionId transactionId = new TransactionId();
-        SeqScan seqScan = new SeqScan(transactionId,tableid,"");
+    // sketch the columns of pages[first, end). They are read through a
+    // snapshot, which takes no locks: a transaction that changed the table
+    // and looks its statistics up while planning a query would otherwise
+    // wait for itself, through a thread the deadlock detector cannot see
+    private ColumnSketch[] scanPages(int[] pages, int first, int end)
+            throws DbException, TransactionAbortedException {
+        ColumnSketch[] sketches = newSketches();
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        pool.beginSnapshot(tid);
         try {
-            seqScan.open();
-            while (seqScan.hasNext()) {
-                Tuple tuple = seqScan.next();
-                for (int i = 0; i < numFields; i++) {
-                    Field field = tuple.getField(i);
-                    if (field.getType() == Type.INT_TYPE) {
-                        integerIntHistogramMap.get(i).addValue(((IntField)field).getValue());
-                    } else {
-                        stringStringHistogramMap.get(i).addValue(((StringField)field).getValue());
+            for (int p = first; p < end; p++) {
+                HeapPageId pid = new HeapPageId(tableid, pages[p]);
+                HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple tuple = it.next();
+                    for (int i = 0; i < numFields; i++) {
+                        sketches[i].add(tuple.getField(i));
                     }
                 }
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
-            seqScan.close();
+            pool.transactionComplete(tid);
         }
+        return sketches;
     }
 
     /**
@@ -247,6 +658,40 @@ public class TableStats {
         return selectivity;
     }
 
+    /**
+     * @param field the index of the field
+     * @return the number of distinct values of the field, estimated with a
+     * HyperLogLog unless the field is an int with few of them
+     */
+    public long distinctValues(int field) {
+        return distinctValues[field];
+    }
+
+    /**
+     * Estimate the selectivity of the equality join of a field of this table
+     * with a field of another: the fraction of the pairs of their tuples
+     * that are equal on them, from the most common values and distinct
+     * counts of both int fields. String fields are only summarized by the
+     * integers StringHistogram maps their prefixes to, which many distinct
+     * strings share, so their join is estimated from their distinct counts
+     * alone.
+     *
+     * @param field      the index of the field of this table
+     * @param other      the statistics of the other table
+     * @param otherField the index of the field of the other table
+     */
+    public double equiJoinSelectivity(int field, TableStats other, int otherField) {
+        if (tupleDesc.getFieldType(field) == Type.INT_TYPE
+                && other.tupleDesc.getFieldType(otherField) == Type.INT_TYPE) {
+            IntHistogram hist = integerIntHistogramMap.get(field);
+            IntHistogram otherHist = other.integerIntHistogramMap.get(otherField);
+            if (hist.isCompressed() && otherHist.isCompressed()) {
+                return hist.equiJoinSelectivity(otherHist);
+            }
+        }
+        return 1.0 / Math.max(1, Math.max(distinctValues[field], other.distinctValues[otherField]));
+    }
+
     /**
      * return the total number of tuples in this table
      */
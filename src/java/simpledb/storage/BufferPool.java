@@ -14,6 +14,9 @@ import java.io.IOException;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -23,207 +26,21 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Read-only transactions that started a
+ * snapshot ({@link #beginSnapshot}) take no locks; they are given the
+ * committed version of each page as of the start of their snapshot.
+ * <p>
+ * Locks are hierarchical: every page lock comes with an intention lock on
+ * its table. With row-level locking (the default), insertTuple and
+ * deleteTuple on heap files lock the page only in intention mode and the
+ * changed tuples exclusively, so transactions changing different tuples of
+ * the same page do not wait for each other. Such a page holds uncommitted
+ * changes of several transactions at once: the pool remembers which
+ * transaction changed which slot, logs each transaction's slots under its
+ * own id, and on commit or abort only publishes or rolls back those slots.
  *
  * @Threadsafe, all fields are final
  */
-
-class LockManager {
-    enum LockType {
-        SLock, XLock
-    }
-
-    class ObjLock {
-        // boolean blocked;
-        LockType type;
-        PageId obj;
-        ArrayList<TransactionId> holders;
-
-        public ObjLock(LockType t, PageId obj, ArrayList<TransactionId> holders) {
-            // this.blocked = false;
-            this.type = t;
-            this.obj = obj;
-            this.holders = holders;
-        }
-
-        public void setType(LockType type) {
-            this.type = type;
-        }
-
-        public LockType getType() {
-            return type;
-        }
-
-        public PageId getObj() {
-            return obj;
-        }
-
-        public ArrayList<TransactionId> getHolders() {
-            return holders;
-        }
-
-        public boolean tryUpgradeLock(TransactionId tid) {
-            if (type == LockType.SLock && holders.size() == 1 && holders.get(0).equals(tid)) {
-                type = LockType.XLock;
-                return true;
-            }
-            return false;
-        }
-
-        public TransactionId addHolder(TransactionId tid) {
-            if (type == LockType.SLock) {
-                if (!holders.contains(tid)) {
-                    holders.add(tid);
-                }
-                return tid;
-            }
-            return null;
-        }
-    }
-
-    private ConcurrentHashMap<PageId, ObjLock> lockTable;
-    private ConcurrentHashMap<TransactionId, ArrayList<PageId>> transactionTable;
-
-    public LockManager(int lockTabCap, int transTabCap) {
-        this.lockTable = new ConcurrentHashMap<>(lockTabCap);
-        this.transactionTable = new ConcurrentHashMap<>(transTabCap);
-    }
-
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        ArrayList<PageId> lockList = getLockList(tid);
-        return lockList != null && lockList.contains(pid);
-    }
-
-    private synchronized void block(PageId what, long start, long timeout)
-            throws TransactionAbortedException {
-
-
-        if (System.currentTimeMillis() - start > timeout) {
-
-            throw new TransactionAbortedException();
-        }
-
-        try {
-            wait(timeout);
-            if (System.currentTimeMillis() - start > timeout) {
-
-                throw new TransactionAbortedException();
-            }
-        } catch (InterruptedException e) {
-            /* do nothing */
-            e.printStackTrace();
-        }
-    }
-
-    private synchronized void updateTransactionTable(TransactionId tid, PageId pid) {
-        if (transactionTable.containsKey(tid)) {
-            if (!transactionTable.get(tid).contains(pid)) {
-                transactionTable.get(tid).add(pid);
-            }
-        } else {
-            // no entry tid
-            ArrayList<PageId> lockList = new ArrayList<PageId>();
-            lockList.add(pid);
-            transactionTable.put(tid, lockList);
-        }
-    }
-
-    public synchronized void acquireLock(TransactionId tid, PageId pid, LockType reqLock, int maxTimeout)
-            throws TransactionAbortedException {
-        // boolean isAcquired = false;
-        long start = System.currentTimeMillis();
-        Random rand = new Random();
-        long randomTimeout = rand.nextInt((maxTimeout - 0) + 1) + 0;
-        while (true) {
-            if (lockTable.containsKey(pid)) {
-                // page is locked by some transaction
-                if (lockTable.get(pid).getType() == LockType.SLock) {
-                    if (reqLock == LockType.SLock) {
-                        updateTransactionTable(tid, pid);
-                        assert lockTable.get(pid).addHolder(tid) != null;
-                        // isAcquired = true;
-                        return;
-                    } else {
-                        // request XLock
-                        if (transactionTable.containsKey(tid) && transactionTable.get(tid).contains(pid)
-                                && lockTable.get(pid).getHolders().size() == 1) {
-                            // sanity check
-                            assert lockTable.get(pid).getHolders().get(0) == tid;
-                            // this is a combined case when lock on pid hold only by one trans (which is exactly tid)
-                            lockTable.get(pid).tryUpgradeLock(tid);
-                            // isAcquired = true;
-                            return;
-                        } else {
-                            // all need to do is just blocking
-                            block(pid, start, randomTimeout);
-                        }
-                    }
-                } else {
-                    // already get a Xlock on pid
-                    if (lockTable.get(pid).getHolders().get(0) == tid) {
-                        // Xlock means only one holder
-                        // request xlock or slock on the pid with that tid
-                        // sanity check
-                        assert lockTable.get(pid).getHolders().size() == 1;
-                        // isAcquired = true;
-                        return;
-                    } else {
-                        // otherwise block
-                        block(pid, start, randomTimeout);
-                    }
-                }
-            } else {
-                ArrayList<TransactionId> initialHolders = new ArrayList<>();
-                initialHolders.add(tid);
-                lockTable.put(pid, new ObjLock(reqLock, pid, initialHolders));
-                updateTransactionTable(tid, pid);
-                // isAcquired = true;
-                return;
-            }
-        }
-    }
-
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-
-        // remove from trans table
-        if (transactionTable.containsKey(tid)) {
-            transactionTable.get(tid).remove(pid);
-            if (transactionTable.get(tid).size() == 0) {
-                transactionTable.remove(tid);
-            }
-        }
-
-        // remove from locktable
-        if (lockTable.containsKey(pid)) {
-            lockTable.get(pid).getHolders().remove(tid);
-            if (lockTable.get(pid).getHolders().size() == 0) {
-                // no more threads are waiting here
-                lockTable.remove(pid);
-            } else {
-                // ObjLock lock = lockTable.get(pid);
-                // synchronized (lock) {
-                notifyAll();
-                //}
-            }
-        }
-    }
-
-    public synchronized void releaseLocksOnTransaction(TransactionId tid) {
-        if (transactionTable.containsKey(tid)) {
-            PageId[] pidArr = new PageId[transactionTable.get(tid).size()];
-            PageId[] toRelease = transactionTable.get(tid).toArray(pidArr);
-            for (PageId pid : toRelease) {
-                releaseLock(tid, pid);
-            }
-
-        }
-    }
-
-    public synchronized ArrayList<PageId> getLockList(TransactionId tid) {
-        return transactionTable.getOrDefault(tid, null);
-    }
-}
-
 public class BufferPool {
     /**
      * Bytes per page, including header.
@@ -242,22 +59,73 @@ public class BufferPool {
     // page buffer; PageId -> page
     private ConcurrentHashMap<PageId, Page> pgBufferPool;
     private int capacity;
+    private final ReplacementPolicy replacementPolicy;
+
+    // hit / miss / eviction counters, for comparing replacement policies
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    // bumped whenever page contents on disk may have changed, so a
+    // background read that raced with a write is thrown away
+    private final AtomicLong diskVersion = new AtomicLong();
+    // pages being read ahead outside the pool monitor
+    private final ConcurrentHashMap<PageId, CountDownLatch> prefetching = new ConcurrentHashMap<>();
+    // dirty page table: recLSN of every page dirtied through insertTuple or
+    // deleteTuple since it was last written
+    private final ConcurrentHashMap<PageId, Long> recLSNs = new ConcurrentHashMap<>();
+    // held by a transaction while it changes pages, and by the page cleaner
+    // while it writes that transaction's pages
+    private final ConcurrentHashMap<TransactionId, ReentrantLock> updateLocks = new ConcurrentHashMap<>();
+    // STEAL: whether eviction may write a dirty page of a running
+    // transaction when no clean page is left
+    private volatile boolean steal = true;
+    private final AtomicLong steals = new AtomicLong();
+    // the running background writer, woken up when eviction had to steal
+    private volatile PageCleaner cleaner;
+    // committed page versions for read-only transactions
+    private final VersionStore versions = new VersionStore();
+    // row-level locking of heap file tuples instead of page locks
+    private volatile boolean rowLocking = true;
+    // heap page -> slot -> transaction with an uncommitted change to it,
+    // for pages changed under row-level locking
+    private final ConcurrentHashMap<PageId, Map<Integer, TransactionId>> rowWriters = new ConcurrentHashMap<>();
+    // set while insertTuple or deleteTuple changes a heap file with
+    // row-level locking
+    private final ThreadLocal<TransactionId> rowUpdate = new ThreadLocal<>();
+    // table id -> tuples inserted or deleted through the pool, for telling
+    // when the statistics of a table are out of date
+    private final ConcurrentHashMap<Integer, AtomicLong> modifications = new ConcurrentHashMap<>();
 
     private LockManager lockMgr;
     private static int TRANSATION_FACTOR = 2;
-    // timeout 1s for deadlock detection
-    private static int DEFAUT_MAXTIMEOUT = 5000;
     // int size;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * LRU-2.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LRUKReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to pick pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the page replacement policy
+     * @see ClockReplacementPolicy
+     * @see LRUKReplacementPolicy
+     * @see TwoQReplacementPolicy
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
         this.capacity = numPages;
         this.pgBufferPool = new ConcurrentHashMap<PageId, Page>();
+        this.replacementPolicy = policy;
         this.lockMgr = new LockManager(numPages, TRANSATION_FACTOR * numPages);
     }
 
@@ -292,32 +160,386 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading
+     * it into a frame of the given ring on a miss instead of taking a frame
+     * from the shared replacement policy. Pages already resident are
+     * returned as usual.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the caller's private buffer ring, or null to use the
+     *             shared pool
+     * @see BufferRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
         // some code goes here
 
+        Long snapshot = versions.getSnapshot(tid);
+        if (snapshot != null) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("read-only transaction " + tid.getId() + " cannot write " + pid);
+            }
+            return getSnapshotPage(pid, snapshot);
+        }
+
         LockManager.LockType lockType;
         if (perm == Permissions.READ_ONLY) {
-            lockType = LockManager.LockType.SLock;
+            lockType = LockManager.LockType.S;
+        } else if (pid instanceof HeapPageId && tid.equals(rowUpdate.get())) {
+            // the tuples it changes are locked one by one
+            lockType = LockManager.LockType.IX;
         } else {
-            lockType = LockManager.LockType.XLock;
+            lockType = LockManager.LockType.X;
         }
         Debug.log(pid.toString() + ": before acquire lock\n");
-        lockMgr.acquireLock(tid, pid, lockType, DEFAUT_MAXTIMEOUT);
+        lockMgr.acquireLock(tid, pid, lockType);
         Debug.log(pid.toString() + ": acquired the lock\n");
+        return fetchPage(pid, ring);
+    }
 
-        Page pg;
-        if (pgBufferPool.containsKey(pid)) {
+    /**
+     * Retrieve the specified page without locking it. This is for callers
+     * that read index structure for a moment and validate what they read
+     * on their own, such as the optimistic descent of a B+ tree; other
+     * transactions may change the page at any time, and the caller must
+     * not change it.
+     *
+     * @param pid the ID of the requested page
+     * @see simpledb.index.BTreeFile
+     */
+    public Page getPageUnlocked(PageId pid) throws TransactionAbortedException, DbException {
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Look the page up in the pool, reading it in on a miss.
+     */
+    private Page fetchPage(PageId pid, BufferRing ring) throws TransactionAbortedException, DbException {
+        Page pg = pgBufferPool.get(pid);
+        if (pg != null) {
+            hits.incrementAndGet();
+            replacementPolicy.recordAccess(pid);
+            return pg;
+        }
+        while (true) {
+            CountDownLatch reading;
+            synchronized (this) {
+                // another thread may have read the page while we waited
+                pg = pgBufferPool.get(pid);
+                reading = prefetching.get(pid);
+                if (pg != null) {
+                    hits.incrementAndGet();
+                } else if (reading == null) {
+                    misses.incrementAndGet();
+                    if (ring != null) {
+                        recycleRingFrame(ring.claim(pid));
+                    }
+                    if (pgBufferPool.size() >= capacity) {
+                        evictPage();
+                    }
+                    pg = Database
+                            .getCatalog()
+                            .getDatabaseFile(pid.getTableId())
+                            .readPage(pid);
+                    pgBufferPool.put(pid, pg);
+                }
+                if (pg != null) {
+                    replacementPolicy.recordAccess(pid);
+                    return pg;
+                }
+            }
+            // the page is being read ahead; wait for it instead of reading
+            // it a second time
+            try {
+                reading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+        }
+    }
+
+    /**
+     * Return the version of a page a snapshot sees, without locking it.
+     * Pages are returned as copies (or shared old versions) that the
+     * caller must not change.
+     */
+    private Page getSnapshotPage(PageId pid, long snapshot) {
+        while (true) {
+            long changes;
+            synchronized (versions) {
+                Page version = versions.getVersion(pid, snapshot);
+                if (version != null) {
+                    hits.incrementAndGet();
+                    return version;
+                }
+                // nobody is changing the page, so the pool or the disk has
+                // the version we want
+                Page pg = pgBufferPool.get(pid);
+                if (pg != null) {
+                    hits.incrementAndGet();
+                    replacementPolicy.recordAccess(pid);
+                    return pg.getBeforeImage();
+                }
+                changes = versions.getChangeCount(pid);
+            }
+            misses.incrementAndGet();
+            Page loaded = prefetchPage(pid, null);
+            if (loaded == null) {
+                loaded = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+            synchronized (versions) {
+                // a writer may have changed the page while we read it
+                if (versions.getChangeCount(pid) == changes) {
+                    return loaded.getBeforeImage();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a snapshot for a read-only transaction: from now on its getPage
+     * calls take no locks and see the database as of the last commit, and
+     * it may not change any page. The snapshot ends with the transaction.
+     *
+     * @param tid the read-only transaction
+     * @see simpledb.transaction.Transaction#Transaction(boolean)
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /**
+     * @return the number of old page versions kept for running snapshots
+     */
+    public int getVersionCount() {
+        return versions.getVersionCount();
+    }
+
+    /**
+     * Read the specified page into the pool ahead of its use, without
+     * acquiring any lock; the transaction that later reads the page still
+     * locks it through getPage. A page that is already resident is simply
+     * returned. The read itself happens outside the pool monitor, and its
+     * result is dropped if a page may have been written in the meantime or
+     * if making room would require evicting a dirty page.
+     *
+     * @param pid  the ID of the page to read
+     * @param ring the buffer ring of the scan the page is read for, or null
+     *             to use the shared pool
+     * @return the resident page, or null if it could not be read in
+     * @see ReadAhead
+     */
+    public Page prefetchPage(PageId pid, BufferRing ring) {
+        Page pg = pgBufferPool.get(pid);
+        if (pg != null) {
+            return pg;
+        }
+        CountDownLatch reading = new CountDownLatch(1);
+        long version;
+        synchronized (this) {
             pg = pgBufferPool.get(pid);
-        } else {
-            if (pgBufferPool.size() >= capacity) {
-                evictPage();
+            if (pg != null || prefetching.putIfAbsent(pid, reading) != null) {
+                return pg;
+            }
+            version = diskVersion.get();
+        }
+        try {
+            Page loaded;
+            try {
+                loaded = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } catch (RuntimeException e) {
+                // the table is gone or shrank; nothing to read ahead
+                return null;
+            }
+            synchronized (this) {
+                if (diskVersion.get() != version) {
+                    return null;
+                }
+                if (ring != null) {
+                    recycleRingFrame(ring.claim(pid));
+                }
+                if (pgBufferPool.size() >= capacity && !tryEvictPage()) {
+                    return null;
+                }
+                pgBufferPool.put(pid, loaded);
+                replacementPolicy.recordAccess(pid);
+                prefetches.incrementAndGet();
+                return loaded;
             }
-            pg = Database
-                    .getCatalog()
-                    .getDatabaseFile(pid.getTableId())
-                    .readPage(pid);
-            pgBufferPool.put(pid, pg);
+        } finally {
+            synchronized (this) {
+                prefetching.remove(pid);
+            }
+            reading.countDown();
         }
-        return pg;
+    }
+
+    /**
+     * Give up the page that occupied a ring frame, unless it has been
+     * dirtied since it was read (it then belongs to the shared pool).
+     */
+    private synchronized void recycleRingFrame(PageId previous) {
+        if (previous == null) {
+            return;
+        }
+        Page p = pgBufferPool.get(previous);
+        if (p != null && removeIfClean(previous)) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of getPage calls satisfied from the pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read from disk
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of pages evicted to make room for other pages
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of pages read into the pool by
+     * {@link #prefetchPage(PageId, BufferRing)}
+     */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /**
+     * @return the number of dirty pages eviction wrote itself because no
+     * clean page was left
+     */
+    public long getStealCount() {
+        return steals.get();
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from a table
+     * through {@link #insertTuple} and {@link #deleteTuple}, aborted or not,
+     * since the pool was created
+     */
+    public long getModificationCount(int tableId) {
+        AtomicLong count = modifications.get(tableId);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Reset the hit, miss, eviction, prefetch and steal counters to zero.
+     */
+    public void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        prefetches.set(0);
+        steals.set(0);
+    }
+
+    /**
+     * Set whether the pool may evict dirty pages of running transactions
+     * (STEAL, the default) or only clean pages (NO STEAL). Under STEAL a
+     * dirty page is logged and written before it leaves the pool, and an
+     * abort undoes it through the log; under NO STEAL getPage fails once
+     * every page is dirty.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /**
+     * @return true if eviction may write dirty pages of running transactions
+     */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Set whether insertTuple and deleteTuple on heap files lock single
+     * tuples (the default) or whole pages. Only takes effect for
+     * transactions that have not changed anything yet.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        this.rowLocking = rowLocking;
+    }
+
+    /**
+     * @return true if heap file tuples are locked one by one
+     */
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
+    /**
+     * Set the number of tuple locks a transaction may hold on one table
+     * before they are escalated to a single table lock.
+     */
+    public void setLockEscalationThreshold(int threshold) {
+        lockMgr.setEscalationThreshold(threshold);
+    }
+
+    /**
+     * @return the number of tuple locks a transaction may hold on one table
+     * before they are escalated to a table lock
+     */
+    public int getLockEscalationThreshold() {
+        return lockMgr.getEscalationThreshold();
+    }
+
+    /**
+     * @return the number of times tuple locks were escalated to a table lock
+     */
+    public long getLockEscalationCount() {
+        return lockMgr.getEscalationCount();
+    }
+
+    /**
+     * Register the background writer to wake up when eviction runs out of
+     * clean pages, or null for none.
+     */
+    void setPageCleaner(PageCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Set how the transaction to abort is chosen when a deadlock is found.
+     * The default is {@link DeadlockVictimPolicy#YOUNGEST}.
+     *
+     * @param policy the victim selection policy
+     */
+    public void setDeadlockVictimPolicy(DeadlockVictimPolicy policy) {
+        lockMgr.setVictimPolicy(policy);
+    }
+
+    /**
+     * @return the current deadlock victim selection policy
+     */
+    public DeadlockVictimPolicy getDeadlockVictimPolicy() {
+        return lockMgr.getVictimPolicy();
     }
 
     /**
@@ -340,7 +562,7 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      */
-    public void transactionComplete(TransactionId tid) throws IOException {
+    public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
         transactionComplete(tid, true);
@@ -355,6 +577,58 @@ public class BufferPool {
         return lockMgr.holdsLock(tid, p);
     }
 
+    /**
+     * Return true if a transaction other than tid holds a lock on the
+     * specified page that allows it to change the page, so that the page
+     * may hold changes that are not committed yet
+     */
+    public boolean isLockedForUpdate(PageId pid, TransactionId tid) {
+        return lockMgr.isLockedForUpdate(pid, tid);
+    }
+
+    /**
+     * Return true if tid is a read-only transaction reading a snapshot
+     *
+     * @see #beginSnapshot(TransactionId)
+     */
+    public boolean isSnapshot(TransactionId tid) {
+        return versions.getSnapshot(tid) != null;
+    }
+
+    /**
+     * Lock a single tuple: shared for READ_ONLY, exclusive for READ_WRITE,
+     * with intention locks on its page and table. Nothing is locked if a
+     * page or table lock tid holds already covers the tuple. May block if
+     * the lock cannot be acquired.
+     *
+     * @param tid  the transaction locking the tuple
+     * @param rid  the tuple to lock
+     * @param perm the requested permissions on the tuple
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (versions.getSnapshot(tid) != null) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("read-only transaction " + tid.getId() + " cannot write " + rid);
+            }
+            // a snapshot needs no locks
+            return;
+        }
+        lockMgr.acquireRecordLock(tid, rid,
+                perm == Permissions.READ_ONLY ? LockManager.LockType.S : LockManager.LockType.X);
+    }
+
+    /**
+     * @return true if tid holds a table lock that covers every tuple of the
+     * table for the specified permissions, such as after lock escalation
+     */
+    public boolean holdsTableLock(TransactionId tid, int tableId, Permissions perm) {
+        LockManager.LockType held = lockMgr.getTableLock(tid, tableId);
+        LockManager.LockType implied = held == null ? null : held.implicit();
+        return implied != null
+                && implied.covers(perm == Permissions.READ_ONLY ? LockManager.LockType.S : LockManager.LockType.X);
+    }
+
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -370,24 +644,70 @@ public class BufferPool {
         // just invalidate all the pages in tid
         // invalidateCache(tid);
 
+        if (versions.endSnapshot(tid)) {
+            // a read-only transaction holds no locks and changed nothing
+            return;
+        }
+
         List<PageId> lockList = lockMgr.getLockList(tid);
         if (lockList != null) {
-            for (PageId pid : lockList) {
-                Page pg = pgBufferPool.getOrDefault(pid, null);
-                if (pg != null) {
-                    if (commit) {
-                        flushPage(pg.getId());
-                        pg.setBeforeImage();
-                        //TODO commit log ?????
-                    } else if (pg.isDirty() != null) {
+            if (commit) {
+                try {
+                    flushPages(lockList);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                // snapshots see the new commit and the new before images
+                // at once
+                synchronized (versions) {
+                    Map<PageId, Page> stillChanging = new HashMap<>();
+                    for (PageId pid : lockList) {
+                        if (hasOtherRowWriters(tid, pid)) {
+                            Page committed = committedVersion(tid, pid);
+                            if (committed != null) {
+                                stillChanging.put(pid, committed);
+                            }
+                        }
+                    }
+                    versions.commit(tid, stillChanging);
+                    for (PageId pid : lockList) {
+                        Page pg = pgBufferPool.getOrDefault(pid, null);
+                        if (pg == null) {
+                            continue;
+                        }
+                        if (hasOtherRowWriters(tid, pid)) {
+                            // the other slots are still uncommitted
+                            ((HeapPage) pg).setBeforeImage(rowsOf(tid, pid));
+                        } else {
+                            pg.setBeforeImage();
+                        }
+                    }
+                }
+            } else {
+                for (PageId pid : lockList) {
+                    Page pg = pgBufferPool.getOrDefault(pid, null);
+                    if (pg != null && rowWriters.containsKey(pid)
+                            && lockMgr.getPageLock(tid, pid) != LockManager.LockType.X) {
+                        rollBackRows(tid, (HeapPage) pg);
+                    } else if (pg != null && pg.isDirty() != null) {
                         // all dirty pages are flushed and not dirty page are still in cache
                         // discard
                         discardPage(pid);
                     }
                 }
             }
+            for (PageId pid : lockList) {
+                rowWriters.computeIfPresent(pid, (k, slots) -> {
+                    slots.values().removeIf(tid::equals);
+                    return slots.isEmpty() ? null : slots;
+                });
+            }
+        }
+        if (!commit) {
+            versions.abort(tid);
         }
 
+        updateLocks.remove(tid);
         // release locks finally
         lockMgr.releaseLocksOnTransaction(tid);
     }
@@ -411,12 +731,22 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkWritable(tid);
         DbFile tableFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> affected = tableFile.insertTuple(tid, t);
-        for (Page newPg : affected) {
-            newPg.markDirty(true, tid);
-            pgBufferPool.remove(newPg.getId());
-            pgBufferPool.put(newPg.getId(), newPg);
+        boolean rows = rowLocking && tableFile instanceof HeapFile;
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        if (rows) {
+            // the file claims a free slot through claimSlot()
+            rowUpdate.set(tid);
+        }
+        try {
+            List<Page> affected = tableFile.insertTuple(tid, t);
+            markDirty(tid, affected);
+            modifications.computeIfAbsent(tableId, id -> new AtomicLong()).incrementAndGet();
+        } finally {
+            rowUpdate.remove();
+            updateLock.unlock();
         }
     }
 
@@ -438,14 +768,348 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
 
+        checkWritable(tid);
         DbFile tableFile = Database
                 .getCatalog()
                 .getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        List<Page> affected = tableFile.deleteTuple(tid, t);
+        boolean rows = rowLocking && tableFile instanceof HeapFile;
+        if (rows) {
+            lockMgr.acquireRecordLock(tid, t.getRecordId(), LockManager.LockType.X);
+            addRowWriter(tid, t.getRecordId());
+        }
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        if (rows) {
+            rowUpdate.set(tid);
+        }
+        try {
+            List<Page> affected = tableFile.deleteTuple(tid, t);
+            markDirty(tid, affected);
+            modifications.computeIfAbsent(tableFile.getId(), id -> new AtomicLong()).incrementAndGet();
+        } finally {
+            rowUpdate.remove();
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Undo the uncommitted changes of an aborting transaction to the slots
+     * it changed under row-level locking, keeping the changes of other
+     * transactions to the page. Slots the log rolled back already have
+     * their committed contents in the before image too.
+     */
+    private void rollBackRows(TransactionId tid, HeapPage pg) {
+        int[] mine = rowsOf(tid, pg.getId());
+        synchronized (pg) {
+            pg.restoreBeforeImage(mine);
+            if (tid.equals(pg.isDirty())) {
+                // still dirty if other transactions changed it, clean
+                // otherwise: the log rolled back what reached the disk
+                TransactionId other = null;
+                for (TransactionId writer : rowWriters.get(pg.getId()).values()) {
+                    if (!writer.equals(tid)) {
+                        other = writer;
+                    }
+                }
+                pg.markDirty(other != null, other);
+            }
+        }
+    }
+
+    /**
+     * @return the slots of a page tid changed under row-level locking
+     */
+    private int[] rowsOf(TransactionId tid, PageId pid) {
+        Map<Integer, TransactionId> slots = rowWriters.get(pid);
+        if (slots == null) {
+            return new int[0];
+        }
+        return slots.entrySet().stream()
+                .filter(e -> e.getValue().equals(tid))
+                .mapToInt(Map.Entry::getKey)
+                .toArray();
+    }
+
+    private boolean hasOtherRowWriters(TransactionId tid, PageId pid) {
+        Map<Integer, TransactionId> slots = rowWriters.get(pid);
+        if (slots == null) {
+            return false;
+        }
+        for (TransactionId writer : slots.values()) {
+            if (!writer.equals(tid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the version of a page that is committed once tid commits while
+     * other transactions still have uncommitted changes to it: the
+     * committed version snapshots see now, with tid's slots replaced. Must
+     * be called with the monitor of versions held.
+     *
+     * @return the page as a page whose before image is that version, or
+     * null if no snapshot can be reading the page
+     */
+    private Page committedVersion(TransactionId tid, PageId pid) {
+        HeapPage committed = (HeapPage) versions.getCommitted(pid);
+        if (committed == null) {
+            return null;
+        }
+        Page current = pgBufferPool.get(pid);
+        if (current == null) {
+            // stolen: the disk has tid's changes
+            current = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        for (int slot : rowsOf(tid, pid)) {
+            committed.setSlotData(slot, ((HeapPage) current).getSlotData(slot));
+        }
+        committed.setBeforeImage();
+        return committed;
+    }
+
+    private void checkWritable(TransactionId tid) throws DbException {
+        if (versions.getSnapshot(tid) != null) {
+            throw new DbException("read-only transaction " + tid.getId() + " cannot write");
+        }
+    }
+
+    /**
+     * Let a heap file insert a tuple into the specified empty slot, unless
+     * the slot is locked by another transaction: it then holds a delete
+     * that may still be rolled back. Does not wait. Under row-level locking
+     * tid locks the slot and is recorded as its writer.
+     *
+     * @return true if tid may use the slot
+     */
+    boolean claimSlot(TransactionId tid, RecordId rid) {
+        if (!tid.equals(rowUpdate.get())) {
+            // tid holds an exclusive lock on the page
+            return true;
+        }
+        if (!lockMgr.tryRecordLock(tid, rid, LockManager.LockType.X)) {
+            return false;
+        }
+        addRowWriter(tid, rid);
+        return true;
+    }
+
+    private void addRowWriter(TransactionId tid, RecordId rid) {
+        rowWriters.compute(rid.getPageId(), (pid, slots) -> {
+            if (slots == null) {
+                slots = new ConcurrentHashMap<>();
+            }
+            slots.put(rid.getTupleNumber(), tid);
+            return slots;
+        });
+    }
+
+    /**
+     * Note that a heap file changed a page on behalf of tid. Called with the
+     * page latched, so that the page is never seen changed but clean, or
+     * changed before its writer is known to the snapshots.
+     */
+    void rowChanged(TransactionId tid, HeapPage page) {
+        versions.recordChange(tid, page);
+        page.markDirty(true, tid);
+    }
+
+    /**
+     * @return true if p is the page the pool holds for its id. A page
+     * changed under row-level locking must be: otherwise it was evicted
+     * after the caller got it, and another transaction may be changing a
+     * newer copy.
+     */
+    boolean isResident(Page p) {
+        return pgBufferPool.get(p.getId()) == p;
+    }
+
+    /**
+     * Put the contents a rollback restored on disk back into the slots of
+     * the page in the pool. A page changed under row-level locking stays in
+     * the pool, since other transactions may have changes in it; any other
+     * page is dropped. Called with the pool monitor held.
+     */
+    void restoreSlots(PageId pid, int[] slots, byte[][] contents) {
+        Page pg = pgBufferPool.get(pid);
+        if (!(pg instanceof HeapPage) || !rowWriters.containsKey(pid)) {
+            discardPage(pid);
+            return;
+        }
+        HeapPage hp = (HeapPage) pg;
+        synchronized (hp) {
+            for (int i = 0; i < slots.length; i++) {
+                hp.setSlotData(slots[i], contents[i]);
+            }
+            hp.setBeforeImage(slots);
+        }
+        diskVersion.incrementAndGet();
+    }
+
+    private ReentrantLock updateLock(TransactionId tid) {
+        return updateLocks.computeIfAbsent(tid, k -> new ReentrantLock());
+    }
+
+    /**
+     * Mark the pages changed by an insert or delete dirty, put them in the
+     * pool and enter the ones that were clean in the dirty page table.
+     */
+    private void markDirty(TransactionId tid, List<Page> affected) {
+        long nextLSN = LogFile.NO_LSN;
         for (Page newPg : affected) {
-            newPg.markDirty(true, tid);
-            pgBufferPool.remove(newPg.getId());
-            pgBufferPool.put(newPg.getId(), newPg);
+            if (rowWriters.containsKey(newPg.getId())) {
+                // changed and dirtied under the page latch while resident;
+                // if it has been stolen since, the disk has the change
+                if (!isResident(newPg)) {
+                    continue;
+                }
+            } else {
+                versions.recordChange(tid, newPg);
+                newPg.markDirty(true, tid);
+                pgBufferPool.put(newPg.getId(), newPg);
+            }
+            replacementPolicy.recordAccess(newPg.getId());
+            if (!recLSNs.containsKey(newPg.getId())) {
+                if (nextLSN == LogFile.NO_LSN) {
+                    nextLSN = Database.getLogFile().getNextLSN();
+                }
+                recLSNs.putIfAbsent(newPg.getId(), nextLSN);
+            }
+        }
+    }
+
+    /**
+     * Return the dirty page table: every dirty page in the pool with its
+     * recLSN, the LSN from which the log may hold changes of the page that
+     * are not on disk yet. Pages dirtied without going through insertTuple
+     * or deleteTuple get the next LSN of the log. Does not block, so the
+     * log can call it while a checkpoint holds the log.
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        Map<PageId, Long> dpt = new HashMap<>();
+        long nextLSN = Database.getLogFile().getNextLSN();
+        for (Page p : pgBufferPool.values()) {
+            if (p.isDirty() != null) {
+                dpt.put(p.getId(), recLSNs.getOrDefault(p.getId(), nextLSN));
+            }
+        }
+        return dpt;
+    }
+
+    /**
+     * Write up to maxPages dirty pages to disk, oldest recLSN first, so that
+     * recovery has less log to redo and commits have less to flush. The
+     * pages stay in the pool. A page is skipped while its transaction is in
+     * the middle of changing pages, or if the transaction cannot be rolled
+     * back through the log.
+     *
+     * @param maxPages the maximum number of pages to write
+     * @return the number of pages written
+     * @see PageCleaner
+     */
+    public int cleanPages(int maxPages) throws IOException {
+        List<Map.Entry<PageId, Long>> candidates = new ArrayList<>(getDirtyPageTable().entrySet());
+        candidates.sort(Map.Entry.comparingByValue());
+
+        Map<TransactionId, ReentrantLock> held = new HashMap<>();
+        List<PageId> pids = new ArrayList<>();
+        try {
+            for (Map.Entry<PageId, Long> e : candidates) {
+                if (pids.size() >= maxPages) {
+                    break;
+                }
+                Page p = pgBufferPool.get(e.getKey());
+                TransactionId dirtier = p == null ? null : p.isDirty();
+                if (dirtier != null && mayWrite(dirtier, held)) {
+                    pids.add(e.getKey());
+                }
+            }
+            return flushPages(pids);
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Write dirty pages in the order the replacement policy would evict
+     * them, until at least reserve pages can be evicted without a write.
+     * The pages stay in the pool, clean, so that getPage finds a victim
+     * without writing anything itself. The same pages as for
+     * {@link #cleanPages(int)} are skipped.
+     *
+     * @param maxPages the maximum number of pages to write
+     * @param reserve  the number of free or clean frames to keep
+     * @return the number of pages written
+     * @see PageCleaner
+     */
+    public int cleanForEviction(int maxPages, int reserve) throws IOException {
+        Map<TransactionId, ReentrantLock> held = new HashMap<>();
+        List<PageId> pids = new ArrayList<>();
+        try {
+            synchronized (this) {
+                int evictable = capacity - pgBufferPool.size();
+                for (Page p : pgBufferPool.values()) {
+                    if (p.isDirty() == null) {
+                        evictable++;
+                    }
+                }
+                int wanted = Math.min(maxPages, reserve - evictable);
+                if (wanted <= 0) {
+                    return 0;
+                }
+                List<PageId> victims = replacementPolicy.chooseVictims(wanted, pid -> {
+                    Page p = pgBufferPool.get(pid);
+                    return p != null && p.isDirty() != null && mayBeWritable(p.isDirty());
+                });
+                for (PageId pid : victims) {
+                    Page p = pgBufferPool.get(pid);
+                    if (p != null && p.isDirty() != null && mayWrite(p.isDirty(), held)) {
+                        pids.add(pid);
+                    }
+                }
+            }
+            return flushPages(pids);
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Whether a dirty page of the specified transaction may be written
+     * before the transaction ends: the log must be able to roll the
+     * transaction back, and it must not be in the middle of changing pages
+     * in another thread. On success the transaction's update lock is held
+     * until the caller releases held.
+     */
+    private boolean mayWrite(TransactionId dirtier, Map<TransactionId, ReentrantLock> held) {
+        if (held.containsKey(dirtier)) {
+            return true;
+        }
+        if (!Database.getLogFile().isActive(dirtier)) {
+            return false;
+        }
+        ReentrantLock updateLock = updateLock(dirtier);
+        if (!updateLock.tryLock()) {
+            return false;
+        }
+        held.put(dirtier, updateLock);
+        return true;
+    }
+
+    /**
+     * Quick check, without taking any lock, whether {@link #mayWrite} is
+     * likely to succeed; replacement policies may call this on every page.
+     */
+    private boolean mayBeWritable(TransactionId dirtier) {
+        ReentrantLock updateLock = updateLocks.get(dirtier);
+        return (updateLock == null || !updateLock.isLocked() || updateLock.isHeldByCurrentThread())
+                && Database.getLogFile().isActive(dirtier);
+    }
+
+    private static void release(Map<TransactionId, ReentrantLock> held) {
+        for (ReentrantLock updateLock : held.values()) {
+            updateLock.unlock();
         }
     }
 
@@ -453,14 +1117,31 @@ public class BufferPool {
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
+     * The free space maps of heap files are flushed after the pages.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        Enumeration<PageId> it = pgBufferPool.keys();
-        while (it.hasMoreElements()) {
-            flushPage(it.nextElement());
+        // log every dirty page before writing any of them, so that the
+        // first write forces the log once for all of them
+        List<Page> logged = new ArrayList<>();
+        List<Integer> stamps = new ArrayList<>();
+        for (Page p : pgBufferPool.values()) {
+            if (p.isDirty() != null) {
+                synchronized (p) {
+                    logPage(p);
+                    stamps.add(changeCount(p));
+                }
+                logged.add(p);
+            }
+        }
+        for (int i = 0; i < logged.size(); i++) {
+            writeLoggedPage(logged.get(i), stamps.get(i));
+        }
+        if (!logged.isEmpty()) {
+            diskVersion.incrementAndGet();
         }
+        FreeSpaceMap.flushAll();
     }
 
     /**
@@ -475,7 +1156,18 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        // callers discard pages whose contents on disk they have changed
+        diskVersion.incrementAndGet();
+        removePage(pid);
+    }
+
+    /**
+     * Drop a clean page from the pool.
+     */
+    private synchronized void removePage(PageId pid) {
         pgBufferPool.remove(pid);
+        recLSNs.remove(pid);
+        replacementPolicy.remove(pid);
     }
 
     /**
@@ -488,20 +1180,19 @@ public class BufferPool {
         // not necessary for lab1
         if (pgBufferPool.containsKey(pid)) {
             Page p = pgBufferPool.get(pid);
-            TransactionId dirtier = p.isDirty();
-            if (dirtier != null) {
+            if (p.isDirty() != null) {
                 /*
                     append an update record to the log, with
                     a before-image and after-image.
                 */
                 try {
-                    Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-                    Database.getLogFile().force();
+                    synchronized (p) {
+                        logPage(p);
 
-                    // then write back
-                    DbFile tb = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
-                    p.markDirty(false, null);
-                    tb.writePage(p);
+                        // then write back
+                        writePage(p);
+                    }
+                    diskVersion.incrementAndGet();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -513,36 +1204,219 @@ public class BufferPool {
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
         List<PageId> page2flush = lockMgr.getLockList(tid);
         if (page2flush != null) {
-            for (PageId p : page2flush) {
-                flushPage(p);
+            flushPages(page2flush);
+        }
+    }
+
+    /**
+     * Write the dirty pages among pids to disk. All update records are
+     * appended first and the log is forced once for the whole set, outside
+     * the pool monitor so that concurrent committers share the fsync.
+     */
+    private int flushPages(List<PageId> pids) throws IOException {
+        List<Page> logged = new ArrayList<>();
+        List<Integer> stamps = new ArrayList<>();
+        long maxLSN = LogFile.NO_LSN;
+        synchronized (this) {
+            for (PageId pid : pids) {
+                Page p = pgBufferPool.get(pid);
+                if (p != null && p.isDirty() != null) {
+                    synchronized (p) {
+                        logPage(p);
+                        stamps.add(changeCount(p));
+                    }
+                    logged.add(p);
+                    maxLSN = Math.max(maxLSN, p.getLSN());
+                }
+            }
+        }
+        if (logged.isEmpty()) {
+            return 0;
+        }
+        Database.getLogFile().force(maxLSN);
+        synchronized (this) {
+            for (int i = 0; i < logged.size(); i++) {
+                writeLoggedPage(logged.get(i), stamps.get(i));
             }
+            diskVersion.incrementAndGet();
         }
+        return logged.size();
+    }
+
+    /**
+     * Append an update record for a dirty page to the log and stamp the page
+     * with the record's LSN. A page several transactions changed under
+     * row-level locking gets one record per transaction, covering the slots
+     * that transaction changed, so that each of them can be rolled back on
+     * its own. The caller must hold the page latch.
+     */
+    private void logPage(Page p) throws IOException {
+        Map<Integer, TransactionId> slots = rowWriters.get(p.getId());
+        Set<TransactionId> writers = slots == null ? Collections.emptySet() : new HashSet<>(slots.values());
+        if (writers.size() <= 1) {
+            TransactionId tid = writers.isEmpty() ? p.isDirty() : writers.iterator().next();
+            if (tid != null) {
+                p.setLSN(Database.getLogFile().logWrite(tid, p.getBeforeImage(), p));
+            }
+            return;
+        }
+        HeapPage page = (HeapPage) p;
+        HeapPage before = page.getBeforeImage();
+        Map<TransactionId, HeapPage> afters = new HashMap<>();
+        for (Map.Entry<Integer, TransactionId> e : slots.entrySet()) {
+            byte[] data = page.getSlotData(e.getKey());
+            if (!Arrays.equals(data, before.getSlotData(e.getKey()))) {
+                afters.computeIfAbsent(e.getValue(), k -> page.getBeforeImage()).setSlotData(e.getKey(), data);
+            }
+        }
+        for (Map.Entry<TransactionId, HeapPage> e : afters.entrySet()) {
+            p.setLSN(Database.getLogFile().logWrite(e.getKey(), before, e.getValue()));
+        }
+    }
+
+    /**
+     * Write a page that was logged when its change count was stamp, logging
+     * it again first if a transaction changed rows of it since.
+     */
+    private synchronized void writeLoggedPage(Page p, int stamp) throws IOException {
+        synchronized (p) {
+            if (changeCount(p) != stamp) {
+                logPage(p);
+            }
+            writePage(p);
+        }
+    }
+
+    private static int changeCount(Page p) {
+        return p instanceof HeapPage ? ((HeapPage) p).getChangeCount() : 0;
+    }
+
+    /**
+     * Write a page back to its file and mark it clean. Write-ahead logging:
+     * the log is forced first, but only if it is not yet on disk up to the
+     * page's LSN.
+     */
+    private synchronized void writePage(Page p) throws IOException {
+        LogFile log = Database.getLogFile();
+        if (p.getLSN() != LogFile.NO_LSN && log.getFlushedLSN() < p.getLSN()) {
+            log.force(p.getLSN());
+        }
+        DbFile tb = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+        p.markDirty(false, null);
+        recLSNs.remove(p.getId());
+        tb.writePage(p);
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * A clean page is evicted if there is one; otherwise, under STEAL, a
+     * dirty page is written first and the background writer, if any, is
+     * woken up since it has fallen behind.
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        // randomly discard a page
-        for (Map.Entry<PageId, Page> entry : pgBufferPool.entrySet()) {
-            PageId pid = entry.getKey();
-            Page p = entry.getValue();
-            if (p.isDirty() == null) {
-                // dont need to flushpage since all page evicted are not dirty
-                // flushPage(pid);
-                discardPage(pid);
-                return;
+        if (tryEvictPage()) {
+            return;
+        }
+        if (steal && stealPage()) {
+            PageCleaner c = cleaner;
+            if (c != null) {
+                c.wakeUp();
             }
+            return;
         }
         throw new DbException("BufferPool: evictPage: all pages are marked as dirty");
     }
 
+    /**
+     * Evict a dirty page chosen by the replacement policy. Its update record
+     * goes to the log before the page goes to disk, so that an abort or
+     * recovery can undo it.
+     *
+     * @return false if no dirty page may be written now
+     * @see #mayWrite
+     */
+    private synchronized boolean stealPage() throws DbException {
+        Map<TransactionId, ReentrantLock> held = new HashMap<>();
+        try {
+            PageId victim = replacementPolicy.chooseVictim(pid -> {
+                Page p = pgBufferPool.get(pid);
+                return p == null || p.isDirty() == null || mayBeWritable(p.isDirty());
+            });
+            if (victim == null) {
+                return false;
+            }
+            Page p = pgBufferPool.get(victim);
+            if (p != null && p.isDirty() != null) {
+                if (!mayWrite(p.isDirty(), held)) {
+                    // its transaction started changing pages meanwhile
+                    return false;
+                }
+                synchronized (p) {
+                    logPage(p);
+                    writePage(p);
+                    // under the latch, so that a row writer holding the
+                    // page sees it is gone
+                    removePage(victim);
+                }
+                diskVersion.incrementAndGet();
+            } else if (!removeIfClean(victim)) {
+                return false;
+            }
+            evictions.incrementAndGet();
+            steals.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            throw new DbException("BufferPool: evictPage: could not write page: " + e.getMessage());
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Evict the clean page chosen by the replacement policy.
+     *
+     * @return false if every page in the pool is dirty
+     */
+    private synchronized boolean tryEvictPage() {
+        // clean pages leave the pool without a write; dirty ones are only
+        // taken by stealPage
+        PageId victim = replacementPolicy.chooseVictim(pid -> {
+            Page p = pgBufferPool.get(pid);
+            return p == null || p.isDirty() == null;
+        });
+        if (victim == null || !removeIfClean(victim)) {
+            return false;
+        }
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Drop a page from the pool if it is still clean. The check is made
+     * under the page latch, since a row writer may dirty a page without
+     * the pool monitor.
+     */
+    private synchronized boolean removeIfClean(PageId pid) {
+        Page p = pgBufferPool.get(pid);
+        if (p == null) {
+            removePage(pid);
+            return true;
+        }
+        synchronized (p) {
+            if (p.isDirty() != null) {
+                return false;
+            }
+            removePage(pid);
+            return true;
+        }
+    }
+
 }
\ No newline at end of file
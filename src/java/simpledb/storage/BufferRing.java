@@ -0,0 +1,77 @@
+package simpledb.storage;
+
+/**
+ * BufferRing is a small private set of buffer frames that a bulk reader
+ * (such as a sequential scan over a large table) can ask the BufferPool to
+ * use instead of the shared replacement policy, in the spirit of
+ * PostgreSQL's bulk-read buffer access strategy.
+ * <p>
+ * Pages read through a ring still live in the shared pool, so other
+ * transactions can find them, but once the ring is full each new page
+ * recycles the frame of the page read {@code size} pages earlier. A full
+ * table scan therefore occupies at most {@code size} frames and leaves the
+ * rest of the pool's hot set alone.
+ *
+ * @see BufferPool#getPage(simpledb.transaction.TransactionId, PageId, simpledb.common.Permissions, BufferRing)
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /**
+     * Default number of frames in a ring.
+     */
+    public static final int DEFAULT_SIZE = 16;
+
+    private final PageId[] frames;
+    private int next;
+
+    /**
+     * Creates a ring with the given number of frames.
+     *
+     * @param size the number of frames in the ring
+     */
+    public BufferRing(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("a buffer ring needs at least one frame");
+        }
+        this.frames = new PageId[size];
+        this.next = 0;
+    }
+
+    /**
+     * Returns a ring sized for bulk reads through the given buffer pool, or
+     * null if a table of numPages pages is small enough to go through the
+     * shared pool. Tables larger than a quarter of the pool use a ring.
+     *
+     * @param pool     the buffer pool the reader will use
+     * @param numPages the number of pages the reader is going to read
+     */
+    public static BufferRing forBulkRead(BufferPool pool, int numPages) {
+        int capacity = pool.getNumPages();
+        if (numPages <= capacity / 4) {
+            return null;
+        }
+        return new BufferRing(Math.max(1, Math.min(DEFAULT_SIZE, capacity / 4)));
+    }
+
+    /**
+     * @return the number of frames in this ring
+     */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * Claim the next frame of the ring for the specified page.
+     *
+     * @param pid the page that is about to be read into the ring
+     * @return the page that previously occupied the frame and should be
+     * given up, or null if the frame was empty
+     */
+    synchronized PageId claim(PageId pid) {
+        PageId previous = frames[next];
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+        return previous;
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on access. The clock hand
+ * sweeps the frames, clearing reference bits, and evicts the first evictable
+ * page whose bit is already clear.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final List<PageId> frames;
+    private final List<Boolean> referenced;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * @param capacity the expected number of resident pages; the clock grows
+     *                 past it if the pool is temporarily over-full
+     */
+    public ClockReplacementPolicy(int capacity) {
+        this.frames = new ArrayList<>(capacity);
+        this.referenced = new ArrayList<>(capacity);
+        this.frameOf = new HashMap<>(capacity);
+        this.freeFrames = new ArrayDeque<>();
+        this.hand = 0;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, true);
+            return;
+        }
+        if (freeFrames.isEmpty()) {
+            frames.add(pid);
+            referenced.add(true);
+            frameOf.put(pid, frames.size() - 1);
+        } else {
+            frame = freeFrames.pop();
+            frames.set(frame, pid);
+            referenced.set(frame, true);
+            frameOf.put(pid, frame);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames.set(frame, null);
+            referenced.set(frame, false);
+            freeFrames.push(frame);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+            } else if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -30,6 +30,21 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Adds the next tuples to a batch, until it is full or there are no
+     * more, as next() would return them.
+     *
+     * @param batch an empty batch with the TupleDesc of the file
+     * @return false if there were no more tuples to add
+     */
+    default boolean nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext()) {
+            batch.addTuple(next());
+        }
+        return batch.numRows() > 0;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
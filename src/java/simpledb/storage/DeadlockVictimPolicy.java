@@ -0,0 +1,25 @@
+package simpledb.storage;
+
+/**
+ * Decides which transaction on a waits-for cycle is aborted to break a
+ * deadlock. Ties are broken in favour of aborting the youngest transaction.
+ *
+ * @see BufferPool#setDeadlockVictimPolicy(DeadlockVictimPolicy)
+ */
+public enum DeadlockVictimPolicy {
+    /**
+     * Abort the transaction that started last.
+     */
+    YOUNGEST,
+
+    /**
+     * Abort the transaction holding the fewest locks.
+     */
+    FEWEST_LOCKS,
+
+    /**
+     * Abort the transaction that has done the least work, measured by the
+     * number of exclusive (write) locks it holds.
+     */
+    LEAST_WORK
+}
@@ -0,0 +1,323 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * FreeSpaceMap keeps, for each page of a HeapFile, a bucket of how many of
+ * its slots are free, so that an insert finds a page with room without
+ * reading the pages before it. Bucket 0 is a full page and bucket
+ * BUCKETS - 1 one with the most free slots; the pages of each bucket are
+ * kept in an array, with the position of each page in it, so that moving a
+ * page between buckets and picking a page are O(1). A page is picked at
+ * random from the bucket with the most free space that has pages, which
+ * spreads concurrent inserters over different pages.
+ * <p>
+ * The map is a hint: a page may have less room than its bucket says, after
+ * an abort, and callers check the page they are given. It is updated when
+ * tuples are inserted into or deleted from a page and when a page is read
+ * or written, and the bucket of each page written is saved, a byte per
+ * page, to a file next to the HeapFile, from which it is loaded when the
+ * table is opened again. Pages the map has no bucket for are taken to have
+ * a few free slots until they are looked at.
+ * <p>
+ * The file starts with the length and modification time of the HeapFile
+ * as of the last {@link #flush}, which {@link #flushAll} does for every map
+ * when the buffer pool flushes its pages and when the JVM exits; the first
+ * page saved after it marks the header out of date. A map that was not
+ * flushed after its last page, or whose HeapFile has changed since, such as
+ * one left by a table that was created again at the same path, is thrown
+ * away rather than loaded.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Number of buckets of free space. */
+    public static final int BUCKETS = 4;
+
+    private static final int MAGIC = 0x46534d31;
+    // magic, length and modification time of the HeapFile
+    private static final int HEADER_SIZE = 20;
+
+    // the maps of open HeapFiles, flushed together
+    private static final Set<FreeSpaceMap> maps =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flushAll();
+            } catch (IOException e) {
+                // the maps not flushed are thrown away when next loaded
+                e.printStackTrace();
+            }
+        }, "simpledb-flush-free-space"));
+    }
+
+    private final int slotsPerPage;
+    private final PageChannel channel;
+    private final File file;
+    private final File dataFile;
+    // whether the file of the map can be written, so that it is saved
+    private boolean persistent;
+    // whether pages were saved since the header was last written
+    private boolean dirty;
+    // bucket of each page; pages[b][0, counts[b]) are the pages of bucket b
+    // and position[p] is the index of page p there
+    private byte[] bucket = new byte[0];
+    private int[] position = new int[0];
+    private final int[][] pages = new int[BUCKETS][];
+    private final int[] counts = new int[BUCKETS];
+    private int numPages;
+    private boolean loaded;
+
+    /**
+     * @param dataFile     the file of the HeapFile; the map is saved in the
+     *                     file {@link #fileFor} returns for it
+     * @param slotsPerPage the number of slots of a page of the HeapFile
+     */
+    public FreeSpaceMap(File dataFile, int slotsPerPage) {
+        this.dataFile = dataFile;
+        this.file = fileFor(dataFile);
+        this.slotsPerPage = slotsPerPage;
+        this.channel = new PageChannel(file);
+        for (int b = 0; b < BUCKETS; b++) {
+            pages[b] = new int[16];
+        }
+        boolean created;
+        try {
+            file.createNewFile();
+            created = true;
+        } catch (IOException e) {
+            // a directory we cannot write to; the map is kept in memory
+            created = false;
+        }
+        this.persistent = created;
+        maps.add(this);
+    }
+
+    /**
+     * @return the file of a HeapFile backed by f keeps its map in
+     */
+    public static File fileFor(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * @return the bucket of a page with freeSlots free slots
+     */
+    public int bucketOf(int freeSlots) {
+        if (freeSlots <= 0) {
+            return 0;
+        }
+        return 1 + (int) ((long) Math.min(freeSlots - 1, slotsPerPage - 1) * (BUCKETS - 1) / slotsPerPage);
+    }
+
+    // read the saved buckets of the pages that exist, the first time
+    private void load(int filePages) {
+        loaded = true;
+        if (!persistent || file.length() == 0) {
+            return;
+        }
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            channel.read(0, header);
+            if (!Arrays.equals(header, header())) {
+                // the map of another table, or one that was not flushed
+                // after the last page written; drop it so that none of its
+                // pages are trusted once it is flushed again
+                discard();
+                return;
+            }
+            byte[] saved = new byte[(int) Math.min(file.length() - HEADER_SIZE, filePages)];
+            channel.read(HEADER_SIZE, saved);
+            grow(saved.length);
+            for (int p = 0; p < saved.length; p++) {
+                // 0 is a page the map had no bucket for
+                put(p, saved[p] == 0 ? 1 : saved[p] - 1);
+            }
+            numPages = saved.length;
+        } catch (IOException e) {
+            // start over without it; it is only a hint
+            numPages = 0;
+            Arrays.fill(counts, 0);
+            discard();
+        }
+    }
+
+    // empty the file of the map
+    private void discard() {
+        channel.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+        } catch (IOException e) {
+            // its pages would be trusted again once flushed; keep the map
+            // in memory instead
+            persistent = false;
+        }
+    }
+
+    private void grow(int n) {
+        if (n > bucket.length) {
+            int capacity = Math.max(n, bucket.length * 2);
+            bucket = Arrays.copyOf(bucket, capacity);
+            position = Arrays.copyOf(position, capacity);
+        }
+    }
+
+    // make sure the map has the pages of a file of filePages pages
+    private void cover(int filePages) {
+        if (!loaded) {
+            load(filePages);
+        }
+        if (filePages > numPages) {
+            grow(filePages);
+            for (int p = numPages; p < filePages; p++) {
+                put(p, 1);
+            }
+            numPages = filePages;
+        }
+    }
+
+    private void put(int page, int b) {
+        if (counts[b] == pages[b].length) {
+            pages[b] = Arrays.copyOf(pages[b], pages[b].length * 2);
+        }
+        bucket[page] = (byte) b;
+        position[page] = counts[b];
+        pages[b][counts[b]++] = page;
+    }
+
+    private void remove(int page) {
+        int b = bucket[page];
+        int last = pages[b][--counts[b]];
+        pages[b][position[page]] = last;
+        position[last] = position[page];
+    }
+
+    /**
+     * Record the number of free slots of a page.
+     *
+     * @param filePages the number of pages of the file, at least page + 1
+     */
+    public synchronized void update(int page, int freeSlots, int filePages) {
+        cover(Math.max(filePages, page + 1));
+        int b = bucketOf(freeSlots);
+        if (bucket[page] != b) {
+            remove(page);
+            put(page, b);
+        }
+    }
+
+    /**
+     * @return a page that has free slots, as far as the map knows, or -1 if
+     * all pages of the file are full
+     */
+    public synchronized int pickPage(int filePages) {
+        return pickPage(filePages, Collections.emptySet());
+    }
+
+    /**
+     * @param skip pages not to pick, whatever the map knows about them
+     * @return a page that has free slots, as far as the map knows, and is
+     * not in skip, or -1 if there is none
+     */
+    public synchronized int pickPage(int filePages, Set<Integer> skip) {
+        cover(filePages);
+        for (int b = BUCKETS - 1; b > 0; b--) {
+            if (counts[b] == 0) {
+                continue;
+            }
+            // from a random page of the bucket on, the first not skipped
+            int start = ThreadLocalRandom.current().nextInt(counts[b]);
+            for (int i = 0; i < counts[b]; i++) {
+                int page = pages[b][(start + i) % counts[b]];
+                if (!skip.contains(page)) {
+                    return page;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // the header of a map flushed now
+    private byte[] header() {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putLong(dataFile.length())
+                .putLong(dataFile.lastModified())
+                .array();
+    }
+
+    /**
+     * Save the bucket of a page, which has just been written to the
+     * HeapFile, to the file of the map. The first page saved since the map
+     * was flushed marks its header out of date, so that the map is not
+     * loaded unless it is flushed again.
+     *
+     * @throws IOException if the file of the map cannot be written
+     */
+    public synchronized void save(int page) throws IOException {
+        if (!persistent) {
+            return;
+        }
+        if (!dirty) {
+            channel.write(0, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(-1).array());
+            dirty = true;
+        }
+        channel.write(HEADER_SIZE + page, new byte[]{(byte) (bucket[page] + 1)});
+    }
+
+    /**
+     * Write the header of the map, with the length and modification time
+     * of the HeapFile now, if pages were saved since it was last written.
+     * Pages written to the HeapFile after it are saved, which marks the
+     * header out of date again.
+     *
+     * @throws IOException if the file of the map cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (dirty && dataFile.exists()) {
+            channel.write(0, header());
+        }
+        dirty = false;
+    }
+
+    /**
+     * Flush the map of every HeapFile that is open.
+     *
+     * @throws IOException the first error flushing a map, after trying the
+     * others
+     */
+    public static void flushAll() throws IOException {
+        List<FreeSpaceMap> open;
+        synchronized (maps) {
+            open = new ArrayList<>(maps);
+        }
+        IOException error = null;
+        for (FreeSpaceMap map : open) {
+            try {
+                map.flush();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -40,11 +40,16 @@ public class HeapFile implements DbFile {
     private File f;
     private TupleDesc td;
     private PageId pageOffSet;
+    private final PageChannel channel;
+    // where inserts look for pages with free slots
+    private final FreeSpaceMap freeSpace;
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.channel = new PageChannel(f);
+        this.freeSpace = new FreeSpaceMap(f, HeapPage.slotsPerPage(td));
     }
 
     /**
@@ -57,6 +62,23 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * Serve page reads of this file from a read-only memory mapping instead
+     * of positional reads. Worth turning on for large, mostly read tables.
+     *
+     * @param mapped true to read pages through a memory mapping
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    /**
+     * @return true if page reads are served from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -102,30 +124,19 @@ public class HeapFile implements DbFile {
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
 
-        RandomAccessFile file = null;
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        if (offset + BufferPool.getPageSize() > channel.size()) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
+        }
         try {
-            file = new RandomAccessFile(this.f, "r");
-            if ((pgNo + 1) * BufferPool.getPageSize() > file.length()) {
-                file.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
-            }
             byte[] bytes = new byte[BufferPool.getPageSize()];
-            file.seek(pgNo * BufferPool.getPageSize());
-            // big end
-            int read = file.read(bytes, 0, BufferPool.getPageSize());
-            if (read != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes", tableId, pgNo, read));
-            }
+            channel.read(offset, bytes);
             HeapPageId id = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-            return new HeapPage(id, bytes);
+            HeapPage page = new HeapPage(id, bytes);
+            freeSpace.update(pgNo, page.getNumEmptySlots(), numPages());
+            return page;
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            try {
-                file.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
         }
         throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
 
@@ -140,11 +151,9 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException("page is invalid");
         }
         int pgSize = BufferPool.getPageSize();
-        RandomAccessFile randomAccessFile = new RandomAccessFile(f,"rw");
-        randomAccessFile.seek(pgNo*pgSize);
-        byte[] data = page.getPageData();
-        randomAccessFile.write(data);
-        randomAccessFile.close();
+        channel.write((long) pgNo * pgSize, page.getPageData());
+        freeSpace.update(pgNo, ((HeapPage) page).getNumEmptySlots(), numPages());
+        freeSpace.save(pgNo);
 
     }
 
@@ -158,40 +167,80 @@ public class HeapFile implements DbFile {
 
     }
 
+    /**
+     * @return the map of the pages of this file with free slots
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         List<Page> pageList = new ArrayList<>();
-        HeapPage heapPage = null;
-        for (int i = 0; i < numPages(); i++) {
-            HeapPageId heapPageId = new HeapPageId(this.getId(),i);
-            heapPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            if (heapPage.getNumEmptySlots() != 0) {
-                break;
-            } else {
-                Database.getBufferPool().unsafeReleasePage(tid,heapPageId);
+        BufferPool bufferPool = Database.getBufferPool();
+        // pages whose free slots other transactions hold
+        Set<Integer> skipped = new HashSet<>();
+        while (true) {
+            int numPages = numPages();
+            int pageNo = freeSpace.pickPage(numPages, skipped);
+            if (pageNo >= 0) {
+                HeapPageId heapPageId = new HeapPageId(this.getId(), pageNo);
+                boolean locked = bufferPool.holdsLock(tid, heapPageId);
+                HeapPage heapPage = insertInto(tid, heapPageId, t);
+                if (heapPage != null) {
+                    pageList.add(heapPage);
+                    return pageList;
+                }
+                // none of its free slots, if it had any, could be used;
+                // insertInto has told the map whether it has any
+                skipped.add(pageNo);
+                if (!locked) {
+                    bufferPool.unsafeReleasePage(tid, heapPageId);
+                }
+                continue;
+            }
+            // no new page
+            synchronized (this) {
+                // under row-level locking another transaction may have
+                // added a page meanwhile
+                if (numPages() == numPages) {
+                    HeapPageId heapPageId = new HeapPageId(this.getId(), numPages);
+                    writePage(new HeapPage(heapPageId, HeapPage.createEmptyPageData()));
+                }
             }
-
         }
-        if (heapPage == null || heapPage.getNumEmptySlots() == 0) {
-//            BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f,true));
-            byte[] emptyData = HeapPage.createEmptyPageData();
-//            bw.write(emptyData);
-//            bw.close();
-            HeapPageId heapPageId = new HeapPageId(this.getId(),numPages());
-            HeapPage newPage = new HeapPage(heapPageId,emptyData);
-            writePage(newPage);
-//            heapPage = (HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(this.getId(),numPages()-1),Permissions.READ_WRITE);
-            heapPage = (HeapPage) Database.getBufferPool().getPage(tid,heapPageId,Permissions.READ_WRITE);
-//            heapPage.insertTuple(t);
-//            pageList.add(heapPage);
-//            return pageList;
+    }
+
+    /**
+     * Put a tuple into a free slot of the specified page, if it has one the
+     * buffer pool lets tid use.
+     *
+     * @return the page, or null if it has no such slot
+     */
+    private HeapPage insertInto(TransactionId tid, HeapPageId pid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        while (true) {
+            HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            synchronized (heapPage) {
+                if (!bufferPool.isResident(heapPage)) {
+                    // evicted since we got it; read it again
+                    continue;
+                }
+                for (int slot = 0; slot < heapPage.getNumSlots(); slot++) {
+                    if (!heapPage.isSlotUsed(slot) && bufferPool.claimSlot(tid, new RecordId(pid, slot))) {
+                        heapPage.insertTuple(t, slot);
+                        bufferPool.rowChanged(tid, heapPage);
+                        freeSpace.update(pid.getPageNumber(), heapPage.getNumEmptySlots(), numPages());
+                        return heapPage;
+                    }
+                }
+                freeSpace.update(pid.getPageNumber(), heapPage.getNumEmptySlots(), numPages());
+                return null;
+            }
         }
-        heapPage.insertTuple(t);
-        pageList.add(heapPage);
-        return pageList;
-        // no new page
     }
 
     // see DbFile.java for javadocs
@@ -199,10 +248,21 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         // some code goes here
         ArrayList<Page> pageList = new ArrayList<>();
-        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        heapPage.deleteTuple(t);
-        pageList.add(heapPage);
-        return pageList;
+        BufferPool bufferPool = Database.getBufferPool();
+        while (true) {
+            HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+            synchronized (heapPage) {
+                if (!bufferPool.isResident(heapPage)) {
+                    // evicted since we got it; read it again
+                    continue;
+                }
+                heapPage.deleteTuple(t);
+                bufferPool.rowChanged(tid, heapPage);
+                freeSpace.update(heapPage.getId().getPageNumber(), heapPage.getNumEmptySlots(), numPages());
+            }
+            pageList.add(heapPage);
+            return pageList;
+        }
         // not necessary for lab1
     }
 
@@ -215,9 +275,14 @@ public class HeapFile implements DbFile {
 
     private static final class HeapFileIterator implements DbFileIterator {
         private HeapFile heapFile;
-        private Iterator<Tuple> iterator;
+        // the page being read and the next of its slots to look at
+        private HeapPage page;
+        private int slot;
         private int whichPage;
         private TransactionId transactionId;
+        // private frames for scans of tables that would flood the pool
+        private BufferRing ring;
+        private ReadAhead readAhead;
 
         public HeapFileIterator(HeapFile heapFile, TransactionId transactionid) {
             this.heapFile = heapFile;
@@ -226,41 +291,60 @@ public class HeapFile implements DbFile {
 
         public void open() throws DbException, TransactionAbortedException {
             whichPage = 0;
-            iterator = getPageTuples(whichPage);
+            ring = BufferRing.forBulkRead(Database.getBufferPool(), heapFile.numPages());
+            int numPages = heapFile.numPages();
+            readAhead = new ReadAhead(Database.getBufferPool(), ring, (pid, page) ->
+                    pid.getPageNumber() + 1 < numPages ? new HeapPageId(pid.getTableId(), pid.getPageNumber() + 1) : null);
+            page = getPage(whichPage);
+            slot = 0;
         }
 
-        private Iterator<Tuple> getPageTuples(int pageNumber) throws TransactionAbortedException, DbException {
+        private HeapPage getPage(int pageNumber) throws TransactionAbortedException, DbException {
             if (pageNumber >= 0 && pageNumber < heapFile.numPages()) {
                 HeapPageId headPageId = new HeapPageId(heapFile.getId(), pageNumber);
-                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(transactionId, headPageId, Permissions.READ_ONLY);
-                return heapPage.iterator();
+                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(transactionId, headPageId, Permissions.READ_ONLY, ring);
+                readAhead.access(headPageId, heapPage);
+                return heapPage;
             } else {
                 throw new DbException(String.format("heapfile %d does not contain page %d!", pageNumber, heapFile.getId()));
             }
         }
 
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (iterator == null)
+            if (page == null)
                 return false;
-            if (!iterator.hasNext()) {
-                if (whichPage < (heapFile.numPages() - 1)) {
-                    whichPage++;
-                    iterator = getPageTuples(whichPage);
-//                    return iterator.hasNext();
-                    return hasNext();
-                } else {
+            while (true) {
+                for (; slot < page.getNumSlots(); slot++) {
+                    if (page.isSlotUsed(slot)) {
+                        return true;
+                    }
+                }
+                if (whichPage >= heapFile.numPages() - 1) {
                     return false;
                 }
-            } else {
-                return true;
+                whichPage++;
+                page = getPage(whichPage);
+                slot = 0;
             }
         }
 
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (iterator == null || !iterator.hasNext()) {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return iterator.next();
+            return page.tuples[slot++];
+        }
+
+        /**
+         * Copies the tuples of the slots of each page into the batch, without
+         * going through next() for each of them.
+         */
+        @Override
+        public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            while (!batch.isFull() && hasNext()) {
+                slot = page.addTuples(slot, batch);
+            }
+            return batch.numRows() > 0;
         }
 
         public void rewind() throws DbException, TransactionAbortedException {
@@ -269,7 +353,9 @@ public class HeapFile implements DbFile {
         }
 
         public void close() {
-            iterator = null;
+            page = null;
+            ring = null;
+            readAhead = null;
         }
     }
 }
@@ -108,6 +108,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the free space map of a table that was at this path before
+    FreeSpaceMap.fileFor(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
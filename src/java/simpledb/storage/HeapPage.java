@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -14,11 +15,16 @@ import java.util.NoSuchElementException;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Under row-level locking several transactions may change different slots
+ * of the same page at once, so the monitor of the page object serves as its
+ * latch: code that changes a page shared that way, or that needs a
+ * consistent view of it (to log it or write it out), synchronizes on it.
  *
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlottedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
@@ -27,9 +33,12 @@ public class HeapPage implements Page {
     final int numSlots;
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
     private boolean dirty;
     private TransactionId dirtyId;
+    private long lsn = LogFile.NO_LSN;
+    // bumped by every change to a slot
+    private int changes;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -79,10 +88,18 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8 + 1));
+        return slotsPerPage(td);
 
     }
 
+    /**
+     * @return the number of tuple slots of a page of a table with the
+     * specified TupleDesc
+     */
+    public static int slotsPerPage(TupleDesc td) {
+        return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8 + 1));
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      *
@@ -120,6 +137,52 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Make the current contents of the specified slots part of the before
+     * image, leaving the other slots of the before image alone.
+     */
+    public void setBeforeImage(int[] slots) {
+        byte[][] contents = new byte[slots.length][];
+        for (int i = 0; i < slots.length; i++) {
+            contents[i] = getSlotData(slots[i]);
+        }
+        synchronized (oldDataLock) {
+            // copy on write: getBeforeImage() parses the array outside the lock
+            byte[] data = oldData.clone();
+            for (int i = 0; i < slots.length; i++) {
+                int slot = slots[i];
+                int offset = header.length + slot * td.getSize();
+                if (contents[i] == null) {
+                    data[slot / 8] &= (byte) ~(1 << (slot % 8));
+                    Arrays.fill(data, offset, offset + td.getSize(), (byte) 0);
+                } else {
+                    data[slot / 8] |= (byte) (1 << (slot % 8));
+                    System.arraycopy(contents[i], 0, data, offset, td.getSize());
+                }
+            }
+            oldData = data;
+        }
+    }
+
+    /**
+     * Put the before image of the specified slots back into the page,
+     * leaving the other slots alone.
+     */
+    public void restoreBeforeImage(int[] slots) {
+        byte[] data;
+        synchronized (oldDataLock) {
+            data = oldData;
+        }
+        for (int slot : slots) {
+            if ((data[slot / 8] >> (slot % 8) & 1) == 0) {
+                setSlotData(slot, null);
+            } else {
+                int offset = header.length + slot * td.getSize();
+                setSlotData(slot, Arrays.copyOfRange(data, offset, offset + td.getSize()));
+            }
+        }
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -272,6 +335,7 @@ public class HeapPage implements Page {
         } else {
             markSlotUsed(index,false);
             tuples[index] = null;
+            changes++;
         }
 
     }
@@ -292,14 +356,30 @@ public class HeapPage implements Page {
         }
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
-                markSlotUsed(i,true);
-                t.setRecordId(new RecordId(pid,i));
-                tuples[i] = t;
+                insertTuple(t, i);
                 break;
             }
         }
     }
 
+    /**
+     * Adds the specified tuple to the specified empty slot of the page; the
+     * tuple is updated to reflect that it is now stored there.
+     *
+     * @param t    The tuple to add.
+     * @param slot The slot to put it in.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t, int slot) throws DbException {
+        if (isSlotUsed(slot) || !t.getTupleDesc().equals(td)) {
+            throw new DbException("slot " + slot + " is in use or tuple descriptor does not match");
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        changes++;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -320,6 +400,59 @@ public class HeapPage implements Page {
         return dirty ? dirtyId:null;
     }
 
+    /**
+     * Returns the LSN of the last log record describing a change to this page
+     */
+    public long getLSN() {
+        return lsn;
+    }
+
+    /**
+     * Sets the LSN of the last log record describing a change to this page
+     */
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public byte[] getSlotData(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                tuples[i].getField(j).serialize(dos);
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public void setSlotData(int i, byte[] data) {
+        markSlotUsed(i, data != null);
+        tuples[i] = data == null ? null : readNextTuple(new DataInputStream(new ByteArrayInputStream(data)), i);
+        changes++;
+    }
+
+    /**
+     * @return a number that changes whenever a slot of this page changes
+     */
+    int getChangeCount() {
+        return changes;
+    }
+
+    public boolean differsOnlyInSlots(SlottedPage other) {
+        // the header only records which slots are in use
+        return other instanceof HeapPage && pid.equals(other.getId());
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -393,6 +526,22 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Add the tuples of the used slots of this page, from the specified slot
+     * on, to a batch until it is full.
+     *
+     * @return the slot after the last one looked at, getNumSlots() once the
+     * page has no more tuples for the batch
+     */
+    public int addTuples(int slot, TupleBatch batch) {
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (isSlotUsed(slot)) {
+                batch.addTuple(tuples[slot]);
+            }
+        }
+        return slot;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
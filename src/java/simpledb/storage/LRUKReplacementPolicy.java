@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each page keeps the logical
+ * times of its last K references; the victim is the page whose K-th most
+ * recent reference lies furthest in the past. Pages referenced fewer than K
+ * times have an infinite backward K-distance and go first, oldest last
+ * reference first, so one-off scan pages are evicted before pages that are
+ * touched repeatedly (such as B+ tree roots and internal nodes).
+ * <p>
+ * Reference history of recently evicted pages is retained for a while so a
+ * page that comes straight back is not treated as a stranger.
+ *
+ * @Threadsafe
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * Default number of references tracked per page (LRU-2).
+     */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final Map<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retained;
+    private final int retainedCapacity;
+    private long clock;
+
+    /**
+     * Creates an LRU-2 policy.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public LRUKReplacementPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * @param capacity the number of pages in the buffer pool; also bounds the
+     *                 history retained for evicted pages
+     * @param k        the number of references tracked per page
+     */
+    public LRUKReplacementPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        }
+        this.k = k;
+        this.resident = new HashMap<>(capacity);
+        this.retained = new LinkedHashMap<>();
+        this.retainedCapacity = capacity;
+        this.clock = 0;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = retained.remove(pid);
+            if (history == null) {
+                // history[0] is the most recent reference, 0 means "never"
+                history = new long[k];
+            }
+            resident.put(pid, history);
+        }
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    public synchronized void remove(PageId pid) {
+        long[] history = resident.remove(pid);
+        if (history != null) {
+            retained.put(pid, history);
+            if (retained.size() > retainedCapacity) {
+                PageId oldest = retained.keySet().iterator().next();
+                retained.remove(oldest);
+            }
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> entry : resident.entrySet()) {
+            long[] history = entry.getValue();
+            long kth = history[k - 1];
+            long last = history[0];
+            // smaller K-th reference time == larger backward K-distance;
+            // break ties (including "infinite" distance) by least recent use
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (evictable.test(entry.getKey())) {
+                    victim = entry.getKey();
+                    victimKth = kth;
+                    victimLast = last;
+                }
+            }
+        }
+        return victim;
+    }
+}
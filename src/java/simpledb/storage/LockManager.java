@@ -0,0 +1,755 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the locks used for strict two-phase locking by the
+ * BufferPool. Locks form a hierarchy of tables, pages and records (tuple
+ * slots): a transaction locks a page or a record only after it holds the
+ * matching intention lock (IS or IX) on its parent, and a shared or
+ * exclusive lock on a table or page implicitly covers everything below it.
+ * Tables and pages may be locked in any of the IS / IX / S / SIX / X modes,
+ * records in S or X.
+ * <p>
+ * Once a transaction holds more than a threshold of record locks on a
+ * table, the lock manager tries to escalate them to a single S or X lock on
+ * the table. Escalation never waits: if the table lock cannot be granted
+ * right away, the transaction keeps locking records and tries again later.
+ * <p>
+ * Every locked resource has its own lock head with a private latch, the
+ * current holders and a FIFO queue of waiting requests, so lock traffic on
+ * different resources never contends on a common mutex. Each waiting
+ * request parks on its own condition and is signalled only when it is
+ * granted. Lock heads are created on demand and retired as soon as nobody
+ * holds or waits for them.
+ * <p>
+ * Waiting requests never time out. Every wait queue keeps its edges in a
+ * {@link WaitsForGraph} up to date, and a transaction that has to wait looks
+ * for a cycle through itself before it parks; if there is one, a victim
+ * chosen by the configured {@link DeadlockVictimPolicy} has all of its
+ * pending requests aborted with a TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+    /**
+     * Lock modes, from weakest to strongest: intention shared, intention
+     * exclusive, shared, shared with intention exclusive, exclusive.
+     */
+    enum LockType {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+                //         IS     IX     S      SIX    X
+                /* IS  */ {true, true, true, true, false},
+                /* IX  */ {true, true, false, false, false},
+                /* S   */ {true, false, true, false, false},
+                /* SIX */ {true, false, false, false, false},
+                /* X   */ {false, false, false, false, false},
+        };
+
+        /**
+         * @return true if one transaction may hold this mode while another
+         * holds other on the same resource
+         */
+        boolean compatibleWith(LockType other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return the weakest mode that grants both this mode and other
+         */
+        LockType join(LockType other) {
+            if (this == other || other == IS) {
+                return this;
+            }
+            if (this == IS) {
+                return other;
+            }
+            if (this == X || other == X) {
+                return X;
+            }
+            // any two of IX, S and SIX
+            return SIX;
+        }
+
+        /**
+         * @return true if holding this mode grants everything other grants
+         */
+        boolean covers(LockType other) {
+            return join(other) == this;
+        }
+
+        /**
+         * @return the mode to hold on the parent of a resource locked in
+         * this mode
+         */
+        LockType intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+
+        /**
+         * @return the mode this lock implicitly grants on every resource
+         * below the locked one, or null if it grants none
+         */
+        LockType implicit() {
+            switch (this) {
+                case S:
+                case SIX:
+                    return S;
+                case X:
+                    return X;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Record locks a transaction may hold on a table before the lock
+     * manager tries to escalate them to a table lock.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /**
+     * The lockable resource standing for a whole table.
+     */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * A lock request parked in the wait queue of a lock head.
+     */
+    private static class LockRequest {
+        final TransactionId tid;
+        final LockType type;
+        final LockHead head;
+        final Condition granted;
+        boolean isGranted;
+        boolean aborted;
+
+        LockRequest(TransactionId tid, LockType type, LockHead head) {
+            this.tid = tid;
+            this.type = type;
+            this.head = head;
+            this.granted = head.latch.newCondition();
+            this.isGranted = false;
+            this.aborted = false;
+        }
+
+        /**
+         * @return true if this request has to wait until other is done
+         */
+        boolean conflictsWith(TransactionId other, LockType otherType) {
+            return !tid.equals(other) && !type.compatibleWith(otherType);
+        }
+    }
+
+    /**
+     * The lock state of a single resource; all fields are protected by
+     * latch.
+     */
+    private static class LockHead {
+        final Object resource;
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<TransactionId, LockType> holders = new HashMap<>();
+        final Deque<LockRequest> waiters = new ArrayDeque<>();
+        boolean retired = false;
+
+        LockHead(Object resource) {
+            this.resource = resource;
+        }
+
+        /**
+         * @return true if tid could be granted type right now, ignoring
+         * requests queued before it
+         */
+        boolean compatible(TransactionId tid, LockType type) {
+            for (Map.Entry<TransactionId, LockType> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(tid) && !type.compatibleWith(holder.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, LockHead> lockTable;
+    // transaction -> resource -> mode held
+    private final ConcurrentHashMap<TransactionId, Map<Object, LockType>> transactionTable;
+    // resources held in a mode that allows changing them
+    private final ConcurrentHashMap<TransactionId, Set<Object>> exclusiveTable;
+    // transaction -> table -> number of record locks held
+    private final ConcurrentHashMap<TransactionId, Map<Integer, Integer>> recordCounts;
+    private final ConcurrentHashMap<TransactionId, Set<LockRequest>> pendingTable;
+    private final WaitsForGraph waitsFor;
+    private volatile DeadlockVictimPolicy victimPolicy;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private final AtomicLong escalations = new AtomicLong();
+
+    public LockManager(int lockTabCap, int transTabCap) {
+        this.lockTable = new ConcurrentHashMap<>(lockTabCap);
+        this.transactionTable = new ConcurrentHashMap<>(transTabCap);
+        this.exclusiveTable = new ConcurrentHashMap<>(transTabCap);
+        this.recordCounts = new ConcurrentHashMap<>(transTabCap);
+        this.pendingTable = new ConcurrentHashMap<>(transTabCap);
+        this.waitsFor = new WaitsForGraph();
+        this.victimPolicy = DeadlockVictimPolicy.YOUNGEST;
+    }
+
+    public void setVictimPolicy(DeadlockVictimPolicy policy) {
+        this.victimPolicy = Objects.requireNonNull(policy);
+    }
+
+    public DeadlockVictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /**
+     * Set the number of record locks a transaction may hold on one table
+     * before they are escalated to a table lock.
+     */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        }
+        this.escalationThreshold = threshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * @return the number of times record locks were escalated to a table
+     * lock
+     */
+    public long getEscalationCount() {
+        return escalations.get();
+    }
+
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return heldMode(tid, pid) != null;
+    }
+
+    /**
+     * @return the mode tid holds on the specified table, or null
+     */
+    public LockType getTableLock(TransactionId tid, int tableId) {
+        return heldMode(tid, new TableResource(tableId));
+    }
+
+    /**
+     * @return the mode tid holds on the specified page, or null
+     */
+    public LockType getPageLock(TransactionId tid, PageId pid) {
+        return heldMode(tid, pid);
+    }
+
+    /**
+     * @return true if a transaction other than tid holds a lock on the
+     * specified page that allows it to change the page
+     */
+    public boolean isLockedForUpdate(PageId pid, TransactionId tid) {
+        LockHead head = lockTable.get(pid);
+        if (head == null) {
+            return false;
+        }
+        head.latch.lock();
+        try {
+            for (Map.Entry<TransactionId, LockType> holder : head.holders.entrySet()) {
+                LockType type = holder.getValue();
+                if (!holder.getKey().equals(tid) && type != LockType.IS && type != LockType.S) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            head.latch.unlock();
+        }
+    }
+
+    private LockType heldMode(TransactionId tid, Object resource) {
+        Map<Object, LockType> held = transactionTable.get(tid);
+        return held == null ? null : held.get(resource);
+    }
+
+    /**
+     * @return true if a lock tid holds on a table or page above resource
+     * already grants type on it
+     */
+    private boolean coveredByParent(TransactionId tid, Object resource, LockType type) {
+        for (Object parent = parentOf(resource); parent != null; parent = parentOf(parent)) {
+            LockType held = heldMode(tid, parent);
+            LockType implied = held == null ? null : held.implicit();
+            if (implied != null && implied.covers(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object parentOf(Object resource) {
+        if (resource instanceof RecordId) {
+            return ((RecordId) resource).getPageId();
+        } else if (resource instanceof PageId) {
+            return new TableResource(((PageId) resource).getTableId());
+        }
+        return null;
+    }
+
+    /**
+     * Lock a table in the specified mode.
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, LockType type)
+            throws TransactionAbortedException {
+        lock(tid, new TableResource(tableId), type);
+    }
+
+    /**
+     * Lock a page in the specified mode, after taking the matching
+     * intention lock on its table. The page itself is locked even if a
+     * table lock covers it, so that the pages a transaction touched are
+     * always the ones in its lock list.
+     */
+    public void acquireLock(TransactionId tid, PageId pid, LockType type)
+            throws TransactionAbortedException {
+        LockType held = heldMode(tid, pid);
+        if (held != null && held.covers(type)) {
+            return;
+        }
+        lock(tid, parentOf(pid), type.intention());
+        lock(tid, pid, type);
+    }
+
+    /**
+     * Lock a record (tuple slot) in S or X mode, after taking the matching
+     * intention locks on its table and page. Nothing is locked below a
+     * table or page lock that already covers the record. May escalate the
+     * record locks tid holds on the table to a table lock.
+     */
+    public void acquireRecordLock(TransactionId tid, RecordId rid, LockType type)
+            throws TransactionAbortedException {
+        checkRecordMode(type);
+        LockType held = heldMode(tid, rid);
+        if ((held != null && held.covers(type)) || coveredByParent(tid, rid, type)) {
+            return;
+        }
+        PageId pid = rid.getPageId();
+        lock(tid, parentOf(pid), type.intention());
+        if (coveredByParent(tid, rid, type)) {
+            return;
+        }
+        lock(tid, pid, type.intention());
+        if (coveredByParent(tid, rid, type)) {
+            return;
+        }
+        lock(tid, rid, type);
+        maybeEscalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Like {@link #acquireRecordLock}, but give up instead of waiting.
+     *
+     * @return true if tid holds the lock now
+     */
+    public boolean tryRecordLock(TransactionId tid, RecordId rid, LockType type) {
+        checkRecordMode(type);
+        LockType held = heldMode(tid, rid);
+        if ((held != null && held.covers(type)) || coveredByParent(tid, rid, type)) {
+            return true;
+        }
+        PageId pid = rid.getPageId();
+        if (!tryLock(tid, parentOf(pid), type.intention())
+                || !tryLock(tid, pid, type.intention())) {
+            return false;
+        }
+        if (coveredByParent(tid, rid, type)) {
+            return true;
+        }
+        if (!tryLock(tid, rid, type)) {
+            return false;
+        }
+        maybeEscalate(tid, pid.getTableId());
+        return true;
+    }
+
+    private static void checkRecordMode(LockType type) {
+        if (type != LockType.S && type != LockType.X) {
+            throw new IllegalArgumentException("records are only locked in S or X mode, not " + type);
+        }
+    }
+
+    /**
+     * Try to replace the record locks tid holds on a table with one table
+     * lock, once there are too many of them. Does not wait.
+     */
+    private void maybeEscalate(TransactionId tid, int tableId) {
+        int threshold = escalationThreshold;
+        Map<Integer, Integer> counts = recordCounts.get(tid);
+        int n = counts == null ? 0 : counts.getOrDefault(tableId, 0);
+        // after a failed attempt, try again only every threshold records
+        if (n <= threshold || (n - 1) % threshold != 0) {
+            return;
+        }
+        List<RecordId> records = new ArrayList<>();
+        LockType mode = LockType.S;
+        for (Map.Entry<Object, LockType> e : transactionTable.get(tid).entrySet()) {
+            if (e.getKey() instanceof RecordId
+                    && ((RecordId) e.getKey()).getPageId().getTableId() == tableId) {
+                records.add((RecordId) e.getKey());
+                mode = mode.join(e.getValue());
+            }
+        }
+        if (!tryLock(tid, new TableResource(tableId), mode)) {
+            return;
+        }
+        for (RecordId rid : records) {
+            release(tid, rid);
+        }
+        escalations.incrementAndGet();
+    }
+
+    /**
+     * Lock the head of the specified resource, creating it if needed. The
+     * caller must unlock head.latch.
+     */
+    private LockHead latchHead(Object resource) {
+        while (true) {
+            LockHead head = lockTable.computeIfAbsent(resource, LockHead::new);
+            head.latch.lock();
+            if (!head.retired) {
+                return head;
+            }
+            // lost a race with the last releaser, which removed the head
+            head.latch.unlock();
+        }
+    }
+
+    /**
+     * Grant the lock to tid; head.latch must be held.
+     */
+    private void grant(LockHead head, TransactionId tid, LockType type) {
+        LockType previous = head.holders.put(tid, type);
+        transactionTable.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).put(head.resource, type);
+        if (type != LockType.IS && type != LockType.S) {
+            exclusiveTable.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(head.resource);
+        }
+        if (previous == null && head.resource instanceof RecordId) {
+            int tableId = ((RecordId) head.resource).getPageId().getTableId();
+            recordCounts.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(tableId, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Recompute the waits-for edges of every request queued on head: a
+     * request waits for each conflicting holder and each conflicting request
+     * queued before it. head.latch must be held.
+     */
+    private void refreshWaits(LockHead head) {
+        List<LockRequest> earlier = new ArrayList<>(head.waiters.size());
+        for (LockRequest req : head.waiters) {
+            Set<TransactionId> blockers = new HashSet<>();
+            for (Map.Entry<TransactionId, LockType> holder : head.holders.entrySet()) {
+                if (req.conflictsWith(holder.getKey(), holder.getValue())) {
+                    blockers.add(holder.getKey());
+                }
+            }
+            for (LockRequest other : earlier) {
+                if (req.conflictsWith(other.tid, other.type)) {
+                    blockers.add(other.tid);
+                }
+            }
+            waitsFor.setWaits(req.tid, head.resource, blockers);
+            earlier.add(req);
+        }
+    }
+
+    /**
+     * Grant queued requests in FIFO order until the first one that still
+     * conflicts, waking only the transactions that were granted; retire the
+     * head if nobody is left. head.latch must be held.
+     */
+    private void grantWaiters(LockHead head) {
+        while (!head.waiters.isEmpty()) {
+            LockRequest req = head.waiters.peekFirst();
+            if (!head.compatible(req.tid, req.type)) {
+                break;
+            }
+            head.waiters.pollFirst();
+            waitsFor.clearWaits(req.tid, head.resource);
+            grant(head, req.tid, req.type);
+            req.isGranted = true;
+            req.granted.signal();
+        }
+        if (head.holders.isEmpty() && head.waiters.isEmpty()) {
+            head.retired = true;
+            lockTable.remove(head.resource, head);
+        } else {
+            refreshWaits(head);
+        }
+    }
+
+    /**
+     * Take req out of its wait queue and let whoever is queued behind it
+     * proceed; head.latch must be held.
+     */
+    private void dequeue(LockRequest req) {
+        if (req.head.waiters.remove(req)) {
+            waitsFor.clearWaits(req.tid, req.head.resource);
+            grantWaiters(req.head);
+        }
+    }
+
+    /**
+     * Break every deadlock that tid is part of by aborting victims until no
+     * cycle through tid is left. Must be called without any latch held.
+     */
+    private void resolveDeadlocks(TransactionId tid) {
+        TransactionId victim;
+        while ((victim = waitsFor.pickVictim(tid, this::chooseVictim)) != null) {
+            abortPending(victim);
+        }
+    }
+
+    /**
+     * Choose the transaction on cycle to abort according to the current
+     * victim policy, preferring the youngest one on ties.
+     */
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        Comparator<TransactionId> youngestFirst = Comparator.comparingLong(TransactionId::getId).reversed();
+        Comparator<TransactionId> order;
+        switch (victimPolicy) {
+            case FEWEST_LOCKS:
+                order = Comparator.<TransactionId>comparingInt(t -> {
+                    Map<Object, LockType> held = transactionTable.get(t);
+                    return held == null ? 0 : held.size();
+                }).thenComparing(youngestFirst);
+                break;
+            case LEAST_WORK:
+                order = Comparator.<TransactionId>comparingInt(t -> {
+                    Set<Object> held = exclusiveTable.get(t);
+                    return held == null ? 0 : held.size();
+                }).thenComparing(youngestFirst);
+                break;
+            default:
+                order = youngestFirst;
+        }
+        return Collections.min(cycle, order);
+    }
+
+    /**
+     * Abort every request tid is still waiting on and wake its threads.
+     */
+    private void abortPending(TransactionId tid) {
+        Set<LockRequest> pending = pendingTable.get(tid);
+        if (pending == null) {
+            return;
+        }
+        for (LockRequest req : pending) {
+            req.head.latch.lock();
+            try {
+                if (!req.isGranted && !req.aborted) {
+                    req.aborted = true;
+                    dequeue(req);
+                    req.granted.signal();
+                }
+            } finally {
+                req.head.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Grant tid the specified mode on a resource, or the join of it with
+     * the mode tid already holds, waiting as long as needed.
+     */
+    private void lock(TransactionId tid, Object resource, LockType reqLock)
+            throws TransactionAbortedException {
+        LockType known = heldMode(tid, resource);
+        if (known != null && known.covers(reqLock)) {
+            return;
+        }
+        LockRequest req;
+        LockHead head = latchHead(resource);
+        try {
+            LockType held = head.holders.get(tid);
+            LockType wanted = held == null ? reqLock : held.join(reqLock);
+            if (wanted == held) {
+                return;
+            }
+            // an upgrade only has to wait for the other holders; anything
+            // else also queues behind earlier waiters so writers don't starve
+            boolean upgrade = held != null;
+            if (head.compatible(tid, wanted) && (upgrade || head.waiters.isEmpty())) {
+                grant(head, tid, wanted);
+                return;
+            }
+
+            req = new LockRequest(tid, wanted, head);
+            if (upgrade) {
+                head.waiters.addFirst(req);
+            } else {
+                head.waiters.addLast(req);
+            }
+            pendingTable.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(req);
+            refreshWaits(head);
+        } finally {
+            head.latch.unlock();
+        }
+
+        // only a new request can close a cycle, and any such cycle runs
+        // through tid, so checking once before parking is enough
+        resolveDeadlocks(tid);
+
+        head.latch.lock();
+        try {
+            while (!req.isGranted) {
+                if (req.aborted) {
+                    throw new TransactionAbortedException();
+                }
+                req.granted.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            // an asynchronous exception (Thread.stop) can leave await()
+            // without the latch
+            if (!head.latch.isHeldByCurrentThread()) {
+                head.latch.lock();
+            }
+            if (!req.isGranted) {
+                dequeue(req);
+            }
+            Set<LockRequest> pending = pendingTable.get(tid);
+            if (pending != null) {
+                pending.remove(req);
+            }
+            head.latch.unlock();
+        }
+    }
+
+    /**
+     * Like lock(), but give up instead of waiting.
+     *
+     * @return true if tid holds the requested mode now
+     */
+    private boolean tryLock(TransactionId tid, Object resource, LockType reqLock) {
+        LockType known = heldMode(tid, resource);
+        if (known != null && known.covers(reqLock)) {
+            return true;
+        }
+        LockHead head = latchHead(resource);
+        try {
+            LockType held = head.holders.get(tid);
+            LockType wanted = held == null ? reqLock : held.join(reqLock);
+            if (wanted == held) {
+                return true;
+            }
+            if (head.compatible(tid, wanted) && (held != null || head.waiters.isEmpty())) {
+                grant(head, tid, wanted);
+                return true;
+            }
+            if (head.holders.isEmpty() && head.waiters.isEmpty()) {
+                head.retired = true;
+                lockTable.remove(resource, head);
+            }
+            return false;
+        } finally {
+            head.latch.unlock();
+        }
+    }
+
+    public void releaseLock(TransactionId tid, PageId pid) {
+        release(tid, pid);
+    }
+
+    private void release(TransactionId tid, Object resource) {
+        Map<Object, LockType> held = transactionTable.get(tid);
+        if (held != null) {
+            held.remove(resource);
+        }
+        Set<Object> exclusive = exclusiveTable.get(tid);
+        if (exclusive != null) {
+            exclusive.remove(resource);
+        }
+
+        LockHead head = lockTable.get(resource);
+        if (head == null) {
+            return;
+        }
+        head.latch.lock();
+        try {
+            if (!head.retired && head.holders.remove(tid) != null) {
+                if (resource instanceof RecordId) {
+                    Map<Integer, Integer> counts = recordCounts.get(tid);
+                    if (counts != null) {
+                        counts.computeIfPresent(((RecordId) resource).getPageId().getTableId(),
+                                (k, n) -> n == 1 ? null : n - 1);
+                    }
+                }
+                grantWaiters(head);
+            }
+        } finally {
+            head.latch.unlock();
+        }
+    }
+
+    public void releaseLocksOnTransaction(TransactionId tid) {
+        Map<Object, LockType> held = transactionTable.remove(tid);
+        exclusiveTable.remove(tid);
+        pendingTable.remove(tid);
+        if (held != null) {
+            for (Object resource : held.keySet()) {
+                release(tid, resource);
+            }
+        }
+        recordCounts.remove(tid);
+    }
+
+    /**
+     * @return a snapshot of the pages tid holds locks on, or null if it
+     * holds none
+     */
+    public List<PageId> getLockList(TransactionId tid) {
+        Map<Object, LockType> held = transactionTable.get(tid);
+        if (held == null) {
+            return null;
+        }
+        List<PageId> pages = new ArrayList<>();
+        for (Object resource : held.keySet()) {
+            if (resource instanceof PageId) {
+                pages.add((PageId) resource);
+            }
+        }
+        return pages;
+    }
+}
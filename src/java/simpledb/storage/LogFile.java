@@ -2,12 +2,16 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
+import java.util.concurrent.TimeUnit;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -53,10 +57,11 @@ must not be declared synchronized and must begin with a block like:
  * transaction id.
  *
  * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * the position in the log file where the record began.  This offset is
+ * the record's log sequence number (LSN).
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, and SLOT
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
@@ -65,13 +70,37 @@ must not be declared synchronized and must begin with a block like:
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
  * methods.  See LogFile.print() for an example.
  *
+ * <li> SLOT records describe a change to a {@link SlottedPage} slot by
+ * slot: the page id (see LogFile.writePageId()), an integer count of
+ * changed slots, and for each of them the slot number and its before and
+ * after contents.  Contents are an integer length followed by that many
+ * bytes of serialized tuple, or a length of -1 for an empty slot.
+ *
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
+ * the checkpoint was taken and their first log record on disk, followed by
+ * the dirty pages in the buffer pool and their recovery offsets.  The format
  * of the record is an integer count of the number of transactions, as well
  * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * for each active transaction; then an integer count of dirty pages, and
+ * for each of them its page id (see LogFile.writePageId()) and a long
+ * integer offset before which the log holds no change of the page that is
+ * missing on disk (its recLSN).
  *
  * </ul>
+ *
+ * <p> Records are not written to the file one field at a time.  Each
+ * record is serialized on its own and appended to an in-memory log
+ * buffer, which goes to the file in a single write when it fills up or
+ * when the log is forced.  Nothing is durable until it is forced: a
+ * caller that needs a record on disk (a commit, or a page that is about
+ * to be written back; see {@link Page#getLSN}) must call {@link #force()}
+ * or {@link #force(long)}.
+ *
+ * <p> Checkpoints are fuzzy: they do not write any pages, they only record
+ * which transactions are active and which pages are dirty.  Recovery redoes
+ * changes from the smallest recLSN of the dirty pages on, and a
+ * {@link PageCleaner} can write dirty pages in the background so that this
+ * point keeps moving forward.
  */
 public class LogFile {
 
@@ -84,17 +113,89 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    /**
+     * LSN of a page that has not been changed since it was read from disk.
+     */
+    public static final long NO_LSN = -1;
+
+    /**
+     * Size of the in-memory log buffer in bytes.
+     */
+    public static final int LOG_BUFFER_SIZE = 64 * 1024;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    volatile long currentOffset = -1;//protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    // group commit: a transaction that needs the log on disk up to some
+    // offset either finds that an earlier fsync already covered it, or
+    // becomes the leader and fsyncs for everybody who appended so far.
+    // groupLock may be taken while holding this, but never the other way
+    // round; the fields below are protected by groupLock. The leader
+    // writes and fsyncs without holding it, with flushing set, so that
+    // commits can append and queue up for the next batch meanwhile.
+    private final Object groupLock = new Object();
+    private long flushedOffset = 0;
+    private boolean flushing = false;
+    private int waitingCommits = 0;
+    private long forceCount = 0;
+    // read by logCommit while holding this, so it is not protected by
+    // groupLock
+    private volatile boolean groupCommit = false;
+    private long groupCommitMaxDelayMicros = DEFAULT_GROUP_COMMIT_MAX_DELAY_MICROS;
+    private int groupCommitMaxBatch = DEFAULT_GROUP_COMMIT_MAX_BATCH;
+    private long flushedLSN = NO_LSN;
+
+    // log buffer: bufferedBytes bytes starting at file offset bufferStart
+    // that have been appended but not written yet.  bufferLock may be taken
+    // while holding this or groupLock, and nothing is taken while holding it.
+    private final Object bufferLock = new Object();
+    private final byte[] logBuffer = new byte[LOG_BUFFER_SIZE];
+    private int bufferedBytes = 0;
+    private long bufferStart = 0;
+    private long bufferWrites = 0;
+    private volatile long lastLSN = NO_LSN;
+
+    // LSNs are file offsets plus lsnBase.  Truncating the log moves records
+    // to smaller offsets; lsnBase grows by the same amount so that the LSN
+    // of every record (and of every page) stays the same.  Written under
+    // this and groupLock.
+    private volatile long lsnBase = 0;
+    private int truncations = 0; // protected by this
+
+    // scratch space a record is serialized into before it is appended,
+    // protected by this
+    private final RecordBuffer recordBytes = new RecordBuffer();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Default longest time a group commit leader waits for more commits to
+     * join its fsync.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_MAX_DELAY_MICROS = 1000;
+
+    /**
+     * Default number of waiting commits that makes a group commit leader
+     * fsync without waiting any longer.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_BATCH = 16;
+
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors(); // protected by this
+
     /**
      * Constructor.
      * Initialize and back the log file with the specified file.
@@ -133,8 +234,188 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            resetAppendOffset(raf.length());
+        }
+    }
+
+    /**
+     * Start appending at the specified offset and forget what has been
+     * forced so far, after the log has been rewritten and old offsets no
+     * longer mean anything.
+     */
+    private void resetAppendOffset(long offset) throws IOException {
+        synchronized (groupLock) {
+            awaitNoFlush();
+            synchronized (bufferLock) {
+                bufferedBytes = 0;
+                bufferStart = offset;
+            }
+            flushedOffset = 0;
+            flushedLSN = NO_LSN;
+        }
+        currentOffset = offset;
+        lastLSN = NO_LSN;
+    }
+
+    /**
+     * Start serializing a new log record.  The caller must hold this, write
+     * the record body to the returned stream and finish with
+     * {@link #endRecord()}.
+     */
+    private DataOutputStream beginRecord(int type, long tid) throws IOException {
+        recordBytes.reset();
+        record.writeInt(type);
+        record.writeLong(tid);
+        return record;
+    }
+
+    /**
+     * Finish the record started by {@link #beginRecord} and append it to
+     * the log buffer.
+     *
+     * @return the file offset of the record
+     */
+    private long endRecord() throws IOException {
+        long lsn = currentOffset;
+        record.writeLong(lsn);
+        int len = recordBytes.size();
+        synchronized (bufferLock) {
+            if (bufferedBytes + len > logBuffer.length) {
+                writeBuffer();
+            }
+            if (len > logBuffer.length) {
+                // too big to buffer, goes straight to the file
+                writeFully(ByteBuffer.wrap(recordBytes.array(), 0, len), bufferStart);
+                bufferStart += len;
+                bufferWrites++;
+            } else {
+                System.arraycopy(recordBytes.array(), 0, logBuffer, bufferedBytes, len);
+                bufferedBytes += len;
+            }
+        }
+        currentOffset = lsn + len;
+        lastLSN = lsn + lsnBase;
+        return lsn;
+    }
+
+    /**
+     * Write the log buffer to the file in one write.  The caller must hold
+     * bufferLock.
+     */
+    private void writeBuffer() throws IOException {
+        if (bufferedBytes == 0) {
+            return;
+        }
+        writeFully(ByteBuffer.wrap(logBuffer, 0, bufferedBytes), bufferStart);
+        bufferStart += bufferedBytes;
+        bufferedBytes = 0;
+        bufferWrites++;
+    }
+
+    private void writeFully(ByteBuffer bytes, long position) throws IOException {
+        FileChannel channel = raf.getChannel();
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    /**
+     * Write everything in the log buffer to the file (without forcing it),
+     * so that it can be read back through raf.
+     */
+    private void flushBuffer() throws IOException {
+        synchronized (bufferLock) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * @return the number of writes of the log buffer to the log file
+     */
+    public long getBufferWriteCount() {
+        synchronized (bufferLock) {
+            return bufferWrites;
+        }
+    }
+
+    /**
+     * @return the LSN of the last record appended to the log, or
+     * {@link #NO_LSN} if none
+     */
+    public long getLastLSN() {
+        return lastLSN;
+    }
+
+    /**
+     * @return the LSN the next record appended to the log will get; every
+     * change made from now on is logged at or after it
+     */
+    public long getNextLSN() {
+        synchronized (groupLock) {
+            return Math.max(currentOffset, LONG_SIZE) + lsnBase;
+        }
+    }
+
+    /**
+     * @return true if the specified transaction has a BEGIN record in the
+     * log and has not completed, so that its changes can be rolled back
+     */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /**
+     * @return the LSN of the last record known to be on disk, or
+     * {@link #NO_LSN} if none
+     */
+    public long getFlushedLSN() {
+        synchronized (groupLock) {
+            return flushedLSN;
+        }
+    }
+
+    /**
+     * Turn group commit on or off. With group commit on, a committing
+     * transaction does not fsync the log itself while holding the log;
+     * instead commits queue up behind a single fsync that covers all of
+     * them.
+     */
+    public void setGroupCommit(boolean enabled) {
+        groupCommit = enabled;
+    }
+
+    /**
+     * @return true if group commit is on
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Configure how long the leader of a group commit waits for more
+     * commits before it fsyncs, and how many waiting commits make it fsync
+     * right away.
+     *
+     * @param maxDelayMicros the longest time to wait for a batch to fill up,
+     *                       0 to fsync immediately
+     * @param maxBatch       the number of commits that fills a batch
+     */
+    public void setGroupCommitLimits(long maxDelayMicros, int maxBatch) {
+        if (maxDelayMicros < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("invalid group commit limits");
+        }
+        synchronized (groupLock) {
+            groupCommitMaxDelayMicros = maxDelayMicros;
+            groupCommitMaxBatch = maxBatch;
+        }
+    }
+
+    /**
+     * @return the number of times the log has been fsynced
+     */
+    public long getForceCount() {
+        synchronized (groupLock) {
+            return forceCount;
         }
     }
 
@@ -163,10 +444,8 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                beginRecord(ABORT_RECORD, tid.getId());
+                endRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -179,32 +458,45 @@ public class LogFile {
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitEnd;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            beginRecord(COMMIT_RECORD, tid.getId());
+            endRecord();
+            commitEnd = currentOffset;
+            tidToFirstLogRecord.remove(tid.getId());
+            if (!groupCommit) {
+                force();
+                return;
+            }
+        }
+        // wait for a shared fsync without holding the log, so other
+        // transactions can append their commit records to the same batch
+        forceTo(commitEnd, true);
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
-     * (with provided         before and after images.)
+     * (with provided         before and after images.)  If the page is a
+     * {@link SlottedPage} and only the contents of its slots changed, a
+     * much smaller SLOT record with just the changed slots is written
+     * instead.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
+     * @return the LSN of the update record; the page must not be written
+     * to disk before the log has been forced up to it
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
@@ -214,18 +506,21 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        SlotRecord slots = SlotRecord.diff(before, after);
+        if (slots != null) {
+            slots.write(this, beginRecord(SLOT_RECORD, tid.getId()));
+        } else {
+            DataOutputStream out = beginRecord(UPDATE_RECORD, tid.getId());
+            writePageData(out, before);
+            writePageData(out, after);
+        }
+        long lsn = endRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn + lsnBase;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
+    void writePageData(DataOutput raf, Page p) throws IOException {
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -253,44 +548,261 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(DataInput in) throws IOException {
+        return readPageImage(in).toPage();
+    }
+
+    /**
+     * A serialized page as written by writePageData(), read back without
+     * constructing the page yet.
+     */
+    static class PageImage {
+        String pageClassName;
         PageId pid;
-        Page newPage = null;
+        byte[] data;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        Page toPage() throws IOException {
+            try {
+                Constructor<?>[] pageConsts = Class.forName(pageClassName).getDeclaredConstructors();
+                if (pageConsts[0].getParameterCount() == 3) {
+                    // B+ tree pages also take the key field of their file
+                    BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    return (Page) pageConsts[0].newInstance(pid, data, f.keyField());
+                }
+                return (Page) pageConsts[0].newInstance(pid, data);
+                //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+            } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+                e.printStackTrace();
+                throw new IOException();
+            }
+        }
+
+        /**
+         * Write the page to its file.
+         */
+        void writeToDisk() throws IOException {
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(toPage());
+        }
+    }
+
+    PageImage readPageImage(DataInput in) throws IOException {
+        PageImage image = new PageImage();
+        image.pageClassName = in.readUTF();
+        String idClassName = in.readUTF();
 
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
 
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            int numIdArgs = in.readInt();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
+                idArgs[i] = in.readInt();
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            image.pid = (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        int pageSize = in.readInt();
+        image.data = new byte[pageSize];
+        in.readFully(image.data);
+        return image;
+    }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
+        }
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+    PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        int numIdArgs = in.readInt();
+        Object[] idArgs = new Object[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++) {
+            idArgs[i] = in.readInt();
+        }
+        try {
+            Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+            return (PageId) idConsts[0].newInstance(idArgs);
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
         }
-        return newPage;
+    }
+
+    /**
+     * The body of a SLOT record: the slots of a page that changed, with
+     * their contents before and after the change (null for an empty slot).
+     */
+    static class SlotRecord {
+        PageId pid;
+        int[] slots;
+        byte[][] before;
+        byte[][] after;
+
+        /**
+         * @return the changed slots between two versions of a page, or null
+         * if the change cannot be described slot by slot
+         */
+        static SlotRecord diff(Page beforePage, Page afterPage) {
+            if (!(beforePage instanceof SlottedPage) || !(afterPage instanceof SlottedPage)) {
+                return null;
+            }
+            SlottedPage b = (SlottedPage) beforePage;
+            SlottedPage a = (SlottedPage) afterPage;
+            if (!a.differsOnlyInSlots(b) || a.getNumSlots() != b.getNumSlots()) {
+                return null;
+            }
+            List<Integer> changed = new ArrayList<>();
+            List<byte[]> beforeData = new ArrayList<>();
+            List<byte[]> afterData = new ArrayList<>();
+            for (int i = 0; i < a.getNumSlots(); i++) {
+                byte[] bd = b.getSlotData(i);
+                byte[] ad = a.getSlotData(i);
+                if (!Arrays.equals(bd, ad)) {
+                    changed.add(i);
+                    beforeData.add(bd);
+                    afterData.add(ad);
+                }
+            }
+            SlotRecord r = new SlotRecord();
+            r.pid = a.getId();
+            r.slots = changed.stream().mapToInt(Integer::intValue).toArray();
+            r.before = beforeData.toArray(new byte[0][]);
+            r.after = afterData.toArray(new byte[0][]);
+            return r;
+        }
+
+        static SlotRecord read(LogFile log, DataInput in) throws IOException {
+            SlotRecord r = new SlotRecord();
+            r.pid = log.readPageId(in);
+            int n = in.readInt();
+            r.slots = new int[n];
+            r.before = new byte[n][];
+            r.after = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                r.slots[i] = in.readInt();
+                r.before[i] = readSlot(in);
+                r.after[i] = readSlot(in);
+            }
+            return r;
+        }
 
+        void write(LogFile log, DataOutput out) throws IOException {
+            log.writePageId(out, pid);
+            out.writeInt(slots.length);
+            for (int i = 0; i < slots.length; i++) {
+                out.writeInt(slots[i]);
+                writeSlot(out, before[i]);
+                writeSlot(out, after[i]);
+            }
+        }
+
+        private static byte[] readSlot(DataInput in) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                return null;
+            }
+            byte[] data = new byte[len];
+            in.readFully(data);
+            return data;
+        }
+
+        private static void writeSlot(DataOutput out, byte[] data) throws IOException {
+            if (data == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+
+        /**
+         * Set the slots of the on-disk version of the page to the specified
+         * contents (the after contents to redo the change, the before
+         * contents to undo it), and of the page in the buffer pool if other
+         * transactions may have changes in it; otherwise drop the page from
+         * the buffer pool.
+         */
+        void apply(byte[][] contents) throws IOException {
+            applyToDisk(contents);
+            Database.getBufferPool().restoreSlots(pid, slots, contents);
+        }
+
+        /**
+         * Like apply(), but leaves the buffer pool alone.
+         */
+        void applyToDisk(byte[][] contents) throws IOException {
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            SlottedPage p = (SlottedPage) f.readPage(pid);
+            for (int i = 0; i < slots.length; i++) {
+                p.setSlotData(slots[i], contents[i]);
+            }
+            f.writePage(p);
+        }
+    }
+
+    /**
+     * The body of a CHECKPOINT record: the active transactions with the
+     * offsets of their first records, and the dirty pages with their
+     * recLSNs (as file offsets).
+     */
+    static class Checkpoint {
+        final Map<Long, Long> activeTxns = new LinkedHashMap<>();
+        final Map<PageId, Long> dirtyPages = new LinkedHashMap<>();
+
+        /**
+         * @return the smallest offset recovery or truncation must keep
+         */
+        long minOffset(long cpLoc) {
+            long min = cpLoc;
+            for (long first : activeTxns.values()) {
+                min = Math.min(min, first);
+            }
+            for (long recLSN : dirtyPages.values()) {
+                min = Math.min(min, recLSN);
+            }
+            return min;
+        }
+    }
+
+    private void writeCheckpoint(DataOutput out, Checkpoint cp) throws IOException {
+        out.writeInt(cp.activeTxns.size());
+        for (Map.Entry<Long, Long> e : cp.activeTxns.entrySet()) {
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeInt(cp.dirtyPages.size());
+        for (Map.Entry<PageId, Long> e : cp.dirtyPages.entrySet()) {
+            writePageId(out, e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    /**
+     * Read the body of a CHECKPOINT record, positioned just after its
+     * transaction id.
+     */
+    private Checkpoint readCheckpoint(DataInput in) throws IOException {
+        Checkpoint cp = new Checkpoint();
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            long tid = in.readLong();
+            cp.activeTxns.put(tid, in.readLong());
+        }
+        int numDirty = in.readInt();
+        while (numDirty-- > 0) {
+            PageId pid = readPageId(in);
+            cp.dirtyPages.put(pid, in.readLong());
+        }
+        return cp;
     }
 
     /**
@@ -306,53 +818,47 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        beginRecord(BEGIN_RECORD, tid.getId());
+        tidToFirstLogRecord.put(tid.getId(), endRecord());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record.  The checkpoint is
+     * fuzzy: no page is written, the record lists the active transactions
+     * and the dirty page table of the buffer pool, and the log is only held
+     * while the record is appended.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        long startCpOffset;
+        int truncationsAtCp;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + currentOffset);
+            preAppend();
+            Checkpoint cp = new Checkpoint();
+            cp.activeTxns.putAll(tidToFirstLogRecord);
+            // taken while holding the log, so a page that is missing here
+            // is only logged after the checkpoint record
+            for (Map.Entry<PageId, Long> e : Database.getBufferPool().getDirtyPageTable().entrySet()) {
+                long recOffset = e.getValue() - lsnBase;
+                cp.dirtyPages.put(e.getKey(), Math.max(LONG_SIZE, Math.min(recOffset, currentOffset)));
+            }
+            writeCheckpoint(beginRecord(CHECKPOINT_RECORD, -1), cp); //no tid , but leave space for convenience
+            startCpOffset = endRecord();
+            truncationsAtCp = truncations;
+        }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+        // once the CP is on disk, make sure the CP location at the
+        // beginning of the log file is updated
+        force();
+        synchronized (this) {
+            if (truncations == truncationsAtCp) {
+                ByteBuffer header = ByteBuffer.allocate(LONG_SIZE);
+                header.putLong(0, startCpOffset);
+                writeFully(header, 0);
             }
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
@@ -364,34 +870,30 @@ public class LogFile {
      */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        flushBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            // without a checkpoint every record may still be needed
+            return;
+        }
 
-            int numOutstanding = raf.readInt();
+        raf.seek(cpLoc);
+        int cpType = raf.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = raf.readLong();
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
 
+        // recovery needs the first record of every active transaction
+        // and everything from the smallest recLSN of the dirty pages on
+        long minLogRecord = readCheckpoint(raf).minOffset(cpLoc);
+
         // we can truncate everything before minLogRecord
+        long endLSN = currentOffset + lsnBase;
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
         logNew.seek(0);
@@ -419,18 +921,21 @@ public class LogFile {
                         writePageData(logNew, before);
                         writePageData(logNew, after);
                         break;
+                    case SLOT_RECORD:
+                        SlotRecord.read(this, raf).write(this, logNew);
+                        break;
                     case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
+                        Checkpoint cp = readCheckpoint(raf);
+                        // offsets before minLogRecord only occur in older
+                        // checkpoints, which nobody reads any more
+                        cp.activeTxns.replaceAll((xid, xoffset) -> Math.max(xoffset - minLogRecord, 0) + LONG_SIZE);
+                        cp.dirtyPages.replaceAll((pid, recOffset) -> Math.max(recOffset - minLogRecord, 0) + LONG_SIZE);
+                        writeCheckpoint(logNew, cp);
                         break;
                     case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
+                        if (tidToFirstLogRecord.containsKey(record_tid)) {
+                            tidToFirstLogRecord.put(record_tid, newStart);
+                        }
                         break;
                 }
 
@@ -445,14 +950,29 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        // the old log is about to go away, so the new one must be durable
+        logNew.getChannel().force(true);
+        logNew.close();
+
+        synchronized (groupLock) {
+            // don't pull the file out from under a group commit leader
+            awaitNoFlush();
+            synchronized (bufferLock) {
+                raf.close();
+                logFile.delete();
+                newFile.renameTo(logFile);
+                raf = new RandomAccessFile(logFile, "rw");
+                newFile.delete();
+                bufferStart = raf.length();
+            }
+            // records keep their LSNs, and all of them are on disk
+            currentOffset = raf.length();
+            lsnBase = endLSN - currentOffset;
+            flushedOffset = currentOffset;
+            flushedLSN = lastLSN;
+        }
+        truncations++;
 
-        currentOffset = raf.getFilePointer();
         //print();
     }
 
@@ -481,6 +1001,7 @@ public class LogFile {
     private void rollbackInternal(long tid) throws NoSuchElementException, IOException {
 
         long firstLogRecord = tidToFirstLogRecord.get(tid);
+        flushBuffer();
 //                last record
         raf.seek(raf.length() - LONG_SIZE);
         long logPtr = raf.readLong();
@@ -500,6 +1021,15 @@ public class LogFile {
                         Database.getBufferPool().discardPage(before.getId());
                         break;
                     }
+                    break;
+                case SLOT_RECORD:
+                    recordId = raf.readLong();
+                    if (recordId == tid) {
+                        SlotRecord slots = SlotRecord.read(this, raf);
+//                                put back what the slots held before
+                        slots.apply(slots.before);
+                    }
+                    break;
                 default:
                     break;
             }
@@ -507,7 +1037,6 @@ public class LogFile {
             raf.seek(logPtr - LONG_SIZE);
             logPtr = raf.readLong();
         }
-        raf.seek(currentOffset);
     }
 
     /**
@@ -518,140 +1047,297 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            force();
+            synchronized (groupLock) {
+                awaitNoFlush();
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Set the number of threads recover() applies log records with.
+     * Changes to the same page are always applied by the same thread, in
+     * log order; with one thread recovery runs on the calling thread only.
+     */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one recovery thread");
+        }
+        recoveryThreads = threads;
+    }
+
+    public synchronized int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /**
+     * A change of a page by a transaction that recovery may have to undo.
+     */
+    private static class PageChange {
+        final long offset;
+        final PageId pid;
+        final boolean redone;
+
+        PageChange(long offset, PageId pid, boolean redone) {
+            this.offset = offset;
+            this.pid = pid;
+            this.redone = redone;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, so that a buffered forward scan of
+     * the log knows where each record starts.
+     */
+    private static class PositionInputStream extends FilterInputStream {
+        long position;
+
+        PositionInputStream(InputStream in, long position) {
+            super(in);
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Read the UPDATE or SLOT record at the specified offset and return the
+     * task that undoes it on disk.
+     */
+    private RecoveryWorkers.Task readUndo(RandomAccessFile in, long offset) throws IOException {
+        in.seek(offset);
+        int type = in.readInt();
+        in.readLong();
+        if (type == UPDATE_RECORD) {
+            PageImage before = readPageImage(in);
+            return before::writeToDisk;
+        } else if (type == SLOT_RECORD) {
+            SlotRecord slots = SlotRecord.read(this, in);
+            return () -> slots.applyToDisk(slots.before);
+        }
+        throw new IOException("no page change at offset " + offset);
+    }
+
     /**
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * The log is read once, forward from the first record recovery needs.
+     * Redo is spread over {@link #getRecoveryThreads()} threads by page, so
+     * that the changes to one page are applied in log order while different
+     * pages are worked on in parallel; the changes of a transaction that
+     * aborted are undone at its ABORT record through the same threads.
+     * Then the transactions that never finished are undone in parallel,
+     * one task per transaction (or per group of transactions that changed
+     * the same pages).
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
-                currentOffset = raf.length();
-                raf.seek(currentOffset - LONG_SIZE);
-                long iter = raf.readLong();
+                flushBuffer();
+                resetAppendOffset(raf.length());
+                long end = currentOffset;
                 raf.seek(0);
-                long begin = raf.readLong();
-                if (begin == -1L) {
-                    begin = LONG_SIZE;
-                }
-//                select information
-                Set<Long> commit = new HashSet<>();
-                Set<Long> transaction = new HashSet<>();
-                while (begin <= iter) {
-                    raf.seek(iter);
-                    int type = raf.readInt();
-                    long recordId;
-                    switch (type) {
-                        case UPDATE_RECORD:
-                            break;
-                        case ABORT_RECORD:
-                            break;
-                        case COMMIT_RECORD:
-                            recordId = raf.readLong();
-                            commit.add(recordId);
-                            break;
-                        case BEGIN_RECORD:
-                            recordId = raf.readLong();
-                            transaction.add(recordId);
-                            break;
-                        case CHECKPOINT_RECORD:
-                            assert begin == iter;
-                            raf.seek(raf.getFilePointer() + LONG_SIZE);
-                            int numActiveTransactions = raf.readInt();
-                            for (int i = 0; i < numActiveTransactions; i++) {
-                                recordId = raf.readLong();
-                                transaction.add(recordId);
-                                long firstLogPosition = raf.readLong();
-                                tidToFirstLogRecord.put(recordId, firstLogPosition);
-                            }
-                            break;
-                        default:
-                            System.out.println(iter);
-                            System.out.println("type:" + type);
-                            throw new IOException("error");
+                long cpLoc = raf.readLong();
+
+                // analysis: the checkpoint tells us which transactions were
+                // active and from where the log may hold changes missing on
+                // disk
+                Map<PageId, Long> dirtyPages = new HashMap<>();
+                long cpStart = LONG_SIZE;
+                long scanStart = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    if (raf.readInt() != CHECKPOINT_RECORD) {
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
                     }
+                    raf.readLong();
+                    Checkpoint cp = readCheckpoint(raf);
+                    tidToFirstLogRecord.putAll(cp.activeTxns);
+                    dirtyPages.putAll(cp.dirtyPages);
+                    cpStart = cpLoc;
+                    scanStart = Math.max(cp.minOffset(cpLoc), LONG_SIZE);
+                }
 
-                    if (iter > LONG_SIZE) {
-                        raf.seek(iter - LONG_SIZE);
-                        iter = raf.readLong();
-                    } else {
-                        iter = -1;
+                Map<Long, List<PageChange>> changes = new HashMap<>();
+                Set<PageId> touched = new HashSet<>();
+                RecoveryWorkers redo = new RecoveryWorkers(recoveryThreads);
+                try (FileInputStream file = new FileInputStream(logFile)) {
+                    file.getChannel().position(scanStart);
+                    PositionInputStream counter = new PositionInputStream(new BufferedInputStream(file, LOG_BUFFER_SIZE), scanStart);
+                    DataInputStream in = new DataInputStream(counter);
+                    while (counter.position < end) {
+                        long offset = counter.position;
+                        int type = in.readInt();
+                        long recordId = in.readLong();
+                        // before the checkpoint only the changes of pages it
+                        // lists as dirty are redone, from their recLSN on
+                        Long recLSN;
+                        boolean doRedo;
+                        switch (type) {
+                            case UPDATE_RECORD:
+                                readPageImage(in);
+                                PageImage after = readPageImage(in);
+                                recLSN = dirtyPages.get(after.pid);
+                                doRedo = offset >= cpStart || (recLSN != null && offset >= recLSN);
+                                changes.computeIfAbsent(recordId, k -> new ArrayList<>()).add(new PageChange(offset, after.pid, doRedo));
+                                if (doRedo) {
+                                    touched.add(after.pid);
+                                    redo.submit(after.pid, after::writeToDisk);
+                                }
+                                break;
+                            case SLOT_RECORD:
+                                SlotRecord slots = SlotRecord.read(this, in);
+                                recLSN = dirtyPages.get(slots.pid);
+                                doRedo = offset >= cpStart || (recLSN != null && offset >= recLSN);
+                                changes.computeIfAbsent(recordId, k -> new ArrayList<>()).add(new PageChange(offset, slots.pid, doRedo));
+                                if (doRedo) {
+                                    touched.add(slots.pid);
+                                    redo.submit(slots.pid, () -> slots.applyToDisk(slots.after));
+                                }
+                                break;
+                            case ABORT_RECORD:
+                                if (offset >= cpStart && tidToFirstLogRecord.remove(recordId) == null) {
+                                    throw new IOException("ABORT :TRANSACTION " + recordId + " is not alive");
+                                }
+                                // the rollback is on disk, except where we
+                                // just redid changes it had undone
+                                List<PageChange> aborted = changes.remove(recordId);
+                                if (aborted != null) {
+                                    for (int i = aborted.size() - 1; i >= 0; i--) {
+                                        PageChange c = aborted.get(i);
+                                        if (c.redone) {
+                                            redo.submit(c.pid, readUndo(raf, c.offset));
+                                        }
+                                    }
+                                }
+                                break;
+                            case COMMIT_RECORD:
+                                tidToFirstLogRecord.remove(recordId);
+                                changes.remove(recordId);
+                                break;
+                            case BEGIN_RECORD:
+                                tidToFirstLogRecord.put(recordId, offset);
+                                break;
+                            case CHECKPOINT_RECORD:
+                                readCheckpoint(in);
+                                break;
+                            default:
+                                throw new IOException("unknown log record type " + type + " at offset " + offset);
+                        }
+                        in.readLong(); // start offset
                     }
+                } finally {
+                    redo.finish();
                 }
 
-
-//                forward redo
-                iter = begin;
-                while (iter < currentOffset) {
-                    raf.seek(iter);
-                    int type = raf.readInt();
-                    long recordId;
-                    switch (type) {
-                        case UPDATE_RECORD:
-
-                            raf.seek(raf.getFilePointer() + LONG_SIZE);
-                            Page before = readPageData(raf);
-                            Page after = readPageData(raf);
-                            Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
-                            Database.getBufferPool().discardPage(after.getId());
-                            iter = raf.getFilePointer();
-                            break;
-                        case ABORT_RECORD:
-                            recordId = raf.readLong();
-                            if (tidToFirstLogRecord.get(recordId) == null) {
-                                throw new IOException("ABORT :TRANSACTION " + recordId + " is not alive");
-                            }
-                            iter = raf.getFilePointer();
-                            rollbackInternal(recordId);
-                            transaction.remove(recordId);
-                            break;
-                        case COMMIT_RECORD:
-                            recordId = raf.readLong();
-                            tidToFirstLogRecord.remove(recordId);
-                            iter = raf.getFilePointer();
-                            break;
-                        case BEGIN_RECORD:
-                            recordId = raf.readLong();
-                            tidToFirstLogRecord.put(recordId, iter);
-                            iter = raf.getFilePointer();
-                            break;
-                        case CHECKPOINT_RECORD:
-                            assert begin == iter;
-                            raf.seek(raf.getFilePointer() + LONG_SIZE);
-                            int numActiveTransaction = raf.readInt();
-                            iter = raf.getFilePointer() + (long) numActiveTransaction * LONG_SIZE * 2;
-                            break;
-                        default:
-                            System.out.println("type:" + type);
-                            throw new IOException("type error");
+                for (List<PageChange> loser : changes.values()) {
+                    for (PageChange c : loser) {
+                        touched.add(c.pid);
                     }
-                    iter += LONG_SIZE;
-
                 }
-                for (Long tid : transaction) {
-                    if (!commit.contains(tid)) {
-                        rollbackInternal(tid);
-                    }
+                undoLosers(changes);
+                // the workers leave the buffer pool alone, it is ours
+                for (PageId pid : touched) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+            }
+        }
+    }
 
+    /**
+     * Undo the changes of the transactions that never finished, newest
+     * first.  Every transaction is undone by a task of its own, reading the
+     * log through its own file handle; transactions that changed the same
+     * page share a task so that the page is undone in log order.
+     */
+    private void undoLosers(Map<Long, List<PageChange>> changes) throws IOException {
+        List<Long> losers = new ArrayList<>(tidToFirstLogRecord.keySet());
+        tidToFirstLogRecord.clear();
+        int[] group = new int[losers.size()];
+        Map<PageId, Integer> pageOwner = new HashMap<>();
+        for (int i = 0; i < losers.size(); i++) {
+            group[i] = i;
+            for (PageChange c : changes.getOrDefault(losers.get(i), Collections.emptyList())) {
+                Integer other = pageOwner.putIfAbsent(c.pid, i);
+                if (other != null) {
+                    union(group, other, i);
                 }
+            }
+        }
+        Map<Integer, List<PageChange>> groups = new HashMap<>();
+        for (int i = 0; i < losers.size(); i++) {
+            List<PageChange> loserChanges = changes.get(losers.get(i));
+            if (loserChanges != null) {
+                groups.computeIfAbsent(find(group, i), k -> new ArrayList<>()).addAll(loserChanges);
+            }
+        }
 
+        RecoveryWorkers undo = new RecoveryWorkers(recoveryThreads);
+        try {
+            for (Map.Entry<Integer, List<PageChange>> e : groups.entrySet()) {
+                List<PageChange> undone = e.getValue();
+                undone.sort((a, b) -> Long.compare(b.offset, a.offset));
+                undo.submit(e.getKey(), () -> {
+                    try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+                        for (PageChange c : undone) {
+                            readUndo(in, c.offset).run();
+                        }
+                    }
+                });
             }
+        } finally {
+            undo.finish();
+        }
+    }
+
+    private static int find(int[] group, int i) {
+        while (group[i] != i) {
+            group[i] = group[group[i]];
+            i = group[i];
         }
+        return i;
+    }
+
+    private static void union(int[] group, int i, int j) {
+        group[find(group, i)] = find(group, j);
     }
 
     /**
      * Print out a human readable represenation of the log
      */
-    public void print() throws IOException {
+    public synchronized void print() throws IOException {
+        flushBuffer();
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -691,6 +1377,15 @@ public class LogFile {
                             System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                             System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                         }
+                        int numDirty = raf.readInt();
+                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+
+                        while (numDirty-- > 0) {
+                            long pageStart = raf.getFilePointer();
+                            PageId pid = readPageId(raf);
+                            long recLSN = raf.readLong();
+                            System.out.println(pageStart + ": DIRTY PAGE: " + pid + " RECLSN: " + recLSN);
+                        }
                         System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                         break;
@@ -713,6 +1408,21 @@ public class LogFile {
 
                         System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                        break;
+                    case SLOT_RECORD:
+                        System.out.println(" (SLOT)");
+
+                        long slotStart = raf.getFilePointer();
+                        SlotRecord slots = SlotRecord.read(this, raf);
+                        System.out.println(slotStart + ": page " + slots.pid);
+                        for (int i = 0; i < slots.slots.length; i++) {
+                            System.out.println("    slot " + slots.slots[i] + ": "
+                                    + (slots.before[i] == null ? "empty" : slots.before[i].length + " bytes") + " -> "
+                                    + (slots.after[i] == null ? "empty" : slots.after[i].length + " bytes"));
+                        }
+
+                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
                         break;
                 }
 
@@ -726,8 +1436,148 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /**
+     * Force everything appended to the log so far to disk.
+     */
+    public void force() throws IOException {
+        forceTo(currentOffset, false);
+    }
+
+    /**
+     * Force the log to disk up to and including the record with the
+     * specified LSN. Does nothing if that record is already on disk.
+     *
+     * @param lsn the LSN of the record that must be durable
+     */
+    public void force(long lsn) throws IOException {
+        if (lsn == NO_LSN) {
+            return;
+        }
+        long offset;
+        synchronized (groupLock) {
+            if (flushedLSN >= lsn) {
+                return;
+            }
+            offset = lsn - lsnBase + 1;
+        }
+        forceTo(offset, false);
+    }
+
+    /**
+     * Make sure the log is on disk up to the specified offset. If another
+     * thread is already forcing the log, wait for it and check whether its
+     * fsync covered us; otherwise become the leader and fsync everything
+     * appended so far on behalf of all waiters. With group commit on, a
+     * leader forcing for a commit first waits (up to the configured delay)
+     * for the batch of waiting commits to fill up.  The leader writes out
+     * the log buffer before the fsync.
+     *
+     * @param offset the log offset that must be durable
+     * @param commit true if a commit record is waiting for this force
+     */
+    private void forceTo(long offset, boolean commit) throws IOException {
+        // nothing beyond the end of the log can be forced, e.g. the stale
+        // LSN of a page that was logged before the log was truncated
+        offset = Math.min(offset, currentOffset);
+        synchronized (groupLock) {
+            if (commit) {
+                waitingCommits++;
+                // the leader may be waiting for the batch to fill up
+                groupLock.notifyAll();
+            }
+        }
+        try {
+            while (true) {
+                synchronized (groupLock) {
+                    while (flushing && flushedOffset < offset) {
+                        groupLock.wait();
+                    }
+                    if (flushedOffset >= offset) {
+                        return;
+                    }
+                    flushing = true;
+                }
+                lead(commit);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for log force");
+        } finally {
+            if (commit) {
+                synchronized (groupLock) {
+                    waitingCommits--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write and fsync the log as the leader of a force, which has set
+     * flushing. groupLock is only held to wait for the batch and to read
+     * and publish how far the log is on disk, not during the fsync.
+     */
+    private void lead(boolean commit) throws IOException, InterruptedException {
+        boolean forced = false;
+        long upTo = 0;
+        long upToLSN = NO_LSN;
+        try {
+            FileChannel channel;
+            synchronized (groupLock) {
+                if (commit && groupCommit && groupCommitMaxDelayMicros > 0) {
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitMaxDelayMicros);
+                    long remaining;
+                    while (waitingCommits < groupCommitMaxBatch
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(groupLock, remaining);
+                    }
+                }
+                // everything appended before these are read is in the
+                // buffer, so the write below covers it; lastLSN is set
+                // after currentOffset, so it is read first
+                upToLSN = lastLSN;
+                upTo = currentOffset;
+                // the file is not replaced while flushing is set
+                channel = raf.getChannel();
+            }
+            flushBuffer();
+            sync(channel);
+            forced = true;
+        } finally {
+            synchronized (groupLock) {
+                flushing = false;
+                if (forced) {
+                    forceCount++;
+                    if (upTo > flushedOffset) {
+                        flushedOffset = upTo;
+                        flushedLSN = upToLSN;
+                    }
+                }
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for a leader writing and fsyncing the log to finish, before the
+     * log file is replaced or closed. The caller must hold groupLock.
+     */
+    private void awaitNoFlush() throws IOException {
+        try {
+            while (flushing) {
+                groupLock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for log force");
+        }
+    }
+
+    /**
+     * Force the log file to disk. Called by the leader of a force without
+     * holding the log or groupLock.
+     */
+    protected void sync(FileChannel channel) throws IOException {
+        channel.force(true);
     }
 
 }
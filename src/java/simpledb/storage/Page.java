@@ -58,4 +58,17 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Return the LSN of the last log record describing a change to this
+     * page, or {@link LogFile#NO_LSN} if no such record has been written
+     * since the page was read. The page must not be written to disk before
+     * the log is durable up to this LSN.
+     */
+    long getLSN();
+
+    /**
+     * Set the LSN of the last log record describing a change to this page.
+     */
+    void setLSN(long lsn);
 }
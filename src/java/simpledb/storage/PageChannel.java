@@ -0,0 +1,242 @@
+package simpledb.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PageChannel is the page I/O layer shared by all readers and writers of a
+ * DbFile. It keeps one FileChannel open per file and transfers pages with
+ * positional reads and writes, so a buffer pool miss costs a single
+ * {@code pread} instead of an open / seek / read / close sequence.
+ * <p>
+ * In memory-mapped mode, reads are served from a read-only MappedByteBuffer
+ * over the whole file, which is remapped when the file grows. Writes always
+ * go through the channel; on a shared mapping they are visible to later
+ * reads right away.
+ * <p>
+ * At most {@link #MAX_OPEN_CHANNELS} channels are kept open across all
+ * files; the least recently used one is closed when more are needed and
+ * reopened transparently on its next use.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    /**
+     * The maximum number of files kept open at the same time.
+     */
+    public static final int MAX_OPEN_CHANNELS = 256;
+
+    // open channels, least recently used first
+    private static final LinkedHashMap<PageChannel, Boolean> openChannels =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private final File f;
+    private volatile FileChannel channel;
+    private volatile boolean mapped;
+    private volatile MappedByteBuffer map;
+
+    /**
+     * Creates a page channel for the specified file. The file is not opened
+     * until the first read or write.
+     *
+     * @param f the file to read and write pages of
+     */
+    public PageChannel(File f) {
+        this.f = f;
+        this.mapped = false;
+    }
+
+    /**
+     * @return the file this channel reads and writes
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Turn memory-mapped reads on or off.
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped) {
+            this.map = null;
+        }
+    }
+
+    /**
+     * @return true if reads are served from a memory mapping of the file
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Return the open channel of this file, opening it if needed, and mark
+     * it as the most recently used one.
+     */
+    private FileChannel channel() throws IOException {
+        synchronized (openChannels) {
+            FileChannel fc = channel;
+            if (fc != null && fc.isOpen()) {
+                openChannels.get(this);
+                return fc;
+            }
+            try {
+                fc = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (AccessDeniedException e) {
+                // read-only table; writes will fail when they are attempted
+                fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            }
+            channel = fc;
+            openChannels.put(this, Boolean.TRUE);
+            if (openChannels.size() > MAX_OPEN_CHANNELS) {
+                Iterator<PageChannel> it = openChannels.keySet().iterator();
+                PageChannel eldest = it.next();
+                it.remove();
+                eldest.closeChannel();
+            }
+            return fc;
+        }
+    }
+
+    /**
+     * Close the underlying channel; the caller must hold openChannels.
+     */
+    private void closeChannel() {
+        FileChannel fc = channel;
+        channel = null;
+        map = null;
+        if (fc != null) {
+            try {
+                fc.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read buf.length bytes starting at the specified offset of the file.
+     *
+     * @param offset the file offset of the first byte to read
+     * @param buf    the buffer to fill
+     * @throws EOFException if the file ends before buf is full
+     */
+    public void read(long offset, byte[] buf) throws IOException {
+        if (mapped && readMapped(offset, buf)) {
+            return;
+        }
+        while (true) {
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                FileChannel fc = channel();
+                while (bb.hasRemaining()) {
+                    int n = fc.read(bb, offset + bb.position());
+                    if (n < 0) {
+                        throw new EOFException(String.format("%s: read past end of file at offset %d",
+                                f.getName(), offset + bb.position()));
+                    }
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed to make room for another file; reopen and retry
+            }
+        }
+    }
+
+    /**
+     * Copy the requested range out of the mapping, mapping the file again if
+     * it has grown past the current mapping.
+     *
+     * @return false if the range lies beyond the end of the file
+     */
+    private boolean readMapped(long offset, byte[] buf) throws IOException {
+        MappedByteBuffer m = map;
+        if (m == null || offset + buf.length > m.capacity()) {
+            synchronized (this) {
+                m = map;
+                if (m == null || offset + buf.length > m.capacity()) {
+                    long size = size();
+                    if (offset + buf.length > size || size > Integer.MAX_VALUE) {
+                        return false;
+                    }
+                    m = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    map = m;
+                }
+            }
+        }
+        ByteBuffer view = m.duplicate();
+        view.position((int) offset);
+        view.get(buf);
+        return true;
+    }
+
+    /**
+     * Write data starting at the specified offset of the file, extending the
+     * file if needed.
+     *
+     * @param offset the file offset of the first byte to write
+     * @param data   the bytes to write
+     */
+    public void write(long offset, byte[] data) throws IOException {
+        while (true) {
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(data);
+                FileChannel fc = channel();
+                while (bb.hasRemaining()) {
+                    fc.write(bb, offset + bb.position());
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed to make room for another file; writing the same
+                // bytes again is harmless
+            }
+        }
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() {
+        return f.length();
+    }
+
+    /**
+     * Close the underlying file. The channel is reopened by the next read or
+     * write.
+     */
+    public void close() {
+        synchronized (openChannels) {
+            openChannels.remove(this);
+            closeChannel();
+        }
+    }
+
+    /**
+     * Close every open page channel.
+     */
+    public static void closeAll() {
+        synchronized (openChannels) {
+            for (Map.Entry<PageChannel, Boolean> e : openChannels.entrySet()) {
+                e.getKey().closeChannel();
+            }
+            openChannels.clear();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner is a background thread that keeps writing the oldest dirty
+ * pages of a BufferPool to disk. Since checkpoints no longer write pages,
+ * this is what moves the smallest recLSN of the dirty page table forward,
+ * and with it the point from which recovery has to redo the log. It also
+ * leaves less work for committing transactions.
+ * <p>
+ * The cleaner also writes the dirty pages the pool is about to evict, so
+ * that a number of frames can always be taken without a write and
+ * getPage does not have to steal pages itself. When getPage does, it wakes
+ * the cleaner up early.
+ * <p>
+ * The cleaner is off unless someone starts it.
+ *
+ * @see BufferPool#cleanPages(int)
+ * @see BufferPool#cleanForEviction(int, int)
+ * @see LogFile#logCheckpoint()
+ */
+public class PageCleaner {
+
+    /**
+     * Default time between two rounds of the cleaner.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    /**
+     * Default number of pages written per round.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    /**
+     * Default number of frames kept free or clean for eviction.
+     */
+    public static final int DEFAULT_RESERVE_FRAMES = 32;
+
+    private final BufferPool pool;
+    private final long intervalMillis;
+    private final int batchSize;
+    private final int reserveFrames;
+    private final AtomicLong cleaned = new AtomicLong();
+    private final Object wakeup = new Object();
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param pool           the buffer pool to clean
+     * @param intervalMillis time between two rounds
+     * @param batchSize      maximum number of pages written per round, both
+     *                       for eviction and by recLSN
+     * @param reserveFrames  number of frames to keep free or clean
+     */
+    public PageCleaner(BufferPool pool, long intervalMillis, int batchSize, int reserveFrames) {
+        if (intervalMillis <= 0 || batchSize < 1 || reserveFrames < 0) {
+            throw new IllegalArgumentException("invalid page cleaner settings");
+        }
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.batchSize = batchSize;
+        this.reserveFrames = reserveFrames;
+    }
+
+    public PageCleaner(BufferPool pool, long intervalMillis, int batchSize) {
+        this(pool, intervalMillis, batchSize, DEFAULT_RESERVE_FRAMES);
+    }
+
+    public PageCleaner(BufferPool pool) {
+        this(pool, DEFAULT_INTERVAL_MILLIS, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Start the cleaner thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "simpledb-page-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+        pool.setPageCleaner(this);
+    }
+
+    /**
+     * Stop the cleaner thread and wait for it to finish its current round.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        pool.setPageCleaner(null);
+        // wake the thread up, but don't interrupt a round in progress
+        wakeUp();
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * @return the number of pages this cleaner has written
+     */
+    public long getCleanedCount() {
+        return cleaned.get();
+    }
+
+    /**
+     * Start the next round now instead of at the end of the interval.
+     */
+    void wakeUp() {
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            synchronized (wakeup) {
+                try {
+                    if (running) {
+                        wakeup.wait(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                cleaned.addAndGet(pool.cleanForEviction(batchSize, reserveFrames));
+                cleaned.addAndGet(pool.cleanPages(batchSize));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb.storage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReadAhead watches the pages a scan reads and, once the scan is clearly
+ * sequential, reads the pages after it into the BufferPool on a background
+ * thread, so the scan finds them resident instead of waiting for each read.
+ * <p>
+ * What "the next page" is depends on the file: the next page number for a
+ * HeapFile, the right sibling for a BTreeFile leaf. The read-ahead window
+ * starts at {@link #INITIAL_WINDOW} pages and doubles every time the scan
+ * consumes half of the pages read ahead for it, up to
+ * {@link #MAX_WINDOW} (or half the scan's buffer ring, so that read-ahead
+ * pages are not recycled before they are used). Any non-sequential access
+ * resets the window.
+ * <p>
+ * A ReadAhead belongs to a single scan and its {@link #access} method must
+ * be called from the scanning thread only.
+ *
+ * @see BufferPool#prefetchPage(PageId, BufferRing)
+ */
+public class ReadAhead {
+
+    /**
+     * Computes the page a sequential scan reads after the given one.
+     */
+    public interface Successor {
+        /**
+         * @param pid  the page that was just read
+         * @param page the contents of that page
+         * @return the page the scan reads next, or null at the end
+         */
+        PageId next(PageId pid, Page page);
+    }
+
+    /**
+     * Number of pages read ahead once a scan turns out to be sequential.
+     */
+    public static final int INITIAL_WINDOW = 2;
+
+    /**
+     * Upper bound on the number of pages read ahead of a scan.
+     */
+    public static final int MAX_WINDOW = 32;
+
+    private static final int THREADS = 2;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static volatile boolean enabled = true;
+
+    private final BufferPool pool;
+    private final BufferRing ring;
+    private final Successor successor;
+    private final int maxWindow;
+
+    // owned by the scanning thread
+    private PageId expected;
+    private int run;
+    private int window;
+    private int ahead;
+
+    // shared with the background reader, protected by this
+    private PageId frontier;
+    private Page frontierPage;
+    private int pending;
+    private int generation;
+    private boolean inFlight;
+
+    /**
+     * @param pool      the buffer pool to read pages into
+     * @param ring      the scan's buffer ring, or null if it uses the shared
+     *                  pool
+     * @param successor computes the next page of the scan
+     */
+    public ReadAhead(BufferPool pool, BufferRing ring, Successor successor) {
+        this.pool = pool;
+        this.ring = ring;
+        this.successor = successor;
+        int limit = ring != null ? ring.size() / 2 : pool.getNumPages() / 4;
+        this.maxWindow = Math.max(1, Math.min(MAX_WINDOW, limit));
+        this.window = Math.min(INITIAL_WINDOW, maxWindow);
+    }
+
+    /**
+     * Turn read-ahead on or off for all scans.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if scans read ahead
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the current size of the read-ahead window in pages
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Tell the read-ahead that the scan has just read the specified page.
+     *
+     * @param pid  the page read by the scan
+     * @param page the contents of the page
+     */
+    public void access(PageId pid, Page page) {
+        if (!enabled) {
+            return;
+        }
+        if (pid.equals(expected)) {
+            run++;
+            if (ahead > 0) {
+                ahead--;
+            }
+        } else {
+            run = 1;
+            ahead = 0;
+            window = Math.min(INITIAL_WINDOW, maxWindow);
+        }
+        expected = successor.next(pid, page);
+        if (expected == null || run < 2) {
+            return;
+        }
+        if (ahead <= window / 2) {
+            if (run > 2) {
+                // the scan kept going through what we read for it
+                window = Math.min(window * 2, maxWindow);
+            }
+            issue(pid, page, window - ahead);
+            ahead = window;
+        }
+    }
+
+    /**
+     * Ask the background reader for count more pages; if the scan has caught
+     * up with it, restart it from the page the scan is on.
+     */
+    private synchronized void issue(PageId pid, Page page, int count) {
+        if (ahead == 0) {
+            frontier = pid;
+            frontierPage = page;
+            pending = 0;
+            generation++;
+        }
+        pending += count;
+        if (!inFlight) {
+            inFlight = true;
+            executor.execute(this::readAhead);
+        }
+    }
+
+    /**
+     * Body of the background reader: follow the successor chain from the
+     * frontier until all requested pages are in the pool.
+     */
+    private void readAhead() {
+        while (true) {
+            PageId from;
+            Page fromPage;
+            int gen;
+            synchronized (this) {
+                if (pending == 0 || !enabled) {
+                    pending = 0;
+                    inFlight = false;
+                    return;
+                }
+                pending--;
+                from = frontier;
+                fromPage = frontierPage;
+                gen = generation;
+            }
+            PageId next = from == null ? null : successor.next(from, fromPage);
+            Page page = next == null ? null : pool.prefetchPage(next, ring);
+            synchronized (this) {
+                if (gen != generation) {
+                    continue;
+                }
+                if (page == null) {
+                    // end of the file, or no clean frame to read into
+                    pending = 0;
+                    inFlight = false;
+                    return;
+                }
+                frontier = next;
+                frontierPage = page;
+            }
+        }
+    }
+}
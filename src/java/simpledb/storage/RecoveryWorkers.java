@@ -0,0 +1,124 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The threads LogFile.recover() applies log records with.  Every thread has
+ * a queue of its own, and all work submitted under the same key (a page, or
+ * a group of loser transactions) goes to the same thread, so it is done in
+ * the order it was submitted while work under different keys is done in
+ * parallel.
+ * <p>
+ * With a single thread, work is done right away by the submitting thread.
+ * Tasks must not call into the buffer pool: recovery holds its lock.
+ */
+class RecoveryWorkers {
+
+    interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Number of tasks a thread may lag behind before submit() blocks.
+     */
+    static final int QUEUE_CAPACITY = 1024;
+
+    private static final Task STOP = () -> {
+    };
+
+    private final List<BlockingQueue<Task>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Throwable failure;
+
+    RecoveryWorkers(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("need at least one recovery thread");
+        }
+        if (numThreads == 1) {
+            return;
+        }
+        for (int i = 0; i < numThreads; i++) {
+            BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            Thread t = new Thread(() -> work(queue), "simpledb-recovery-" + i);
+            t.setDaemon(true);
+            queues.add(queue);
+            threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Queue a task behind all tasks previously submitted under the same key.
+     *
+     * @throws IOException if an earlier task failed
+     */
+    void submit(Object key, Task task) throws IOException {
+        checkFailure();
+        if (queues.isEmpty()) {
+            task.run();
+            return;
+        }
+        BlockingQueue<Task> queue = queues.get(Math.floorMod(key.hashCode(), queues.size()));
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted during recovery");
+        }
+    }
+
+    /**
+     * Wait for all submitted tasks and stop the threads.
+     *
+     * @throws IOException if a task failed
+     */
+    void finish() throws IOException {
+        try {
+            for (BlockingQueue<Task> queue : queues) {
+                queue.put(STOP);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted during recovery");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException("recovery failed", t);
+        }
+    }
+
+    private void work(BlockingQueue<Task> queue) {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            // after a failure keep draining the queue so submit() doesn't block
+            if (failure != null) {
+                continue;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+    }
+}
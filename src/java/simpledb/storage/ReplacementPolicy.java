@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page access and every
+ * page that leaves the pool; the policy keeps whatever bookkeeping it needs
+ * to pick a victim.
+ * <p>
+ * Implementations must be thread safe: accesses are reported from the
+ * getPage fast path without holding the BufferPool monitor.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record a reference to the specified page. Called both when the page is
+     * first brought into the pool and on every later hit.
+     *
+     * @param pid the id of the page that was referenced
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Forget about the specified page; it is no longer resident in the pool.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    void remove(PageId pid);
+
+    /**
+     * Choose a page to evict. The policy must only return pages accepted by
+     * the evictable predicate (e.g. clean pages under NO STEAL), and must not
+     * forget the page itself -- the BufferPool calls {@link #remove} once the
+     * page is actually gone.
+     *
+     * @param evictable tells whether a resident page may be evicted right now
+     * @return the id of the page to evict, or null if no page qualifies
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Choose up to n pages in the order they would be evicted, without
+     * evicting any of them; used to write dirty pages out ahead of their
+     * eviction.
+     *
+     * @param n         the maximum number of pages to choose
+     * @param evictable tells whether a resident page may be chosen
+     * @return the ids of the chosen pages, next victim first
+     */
+    default List<PageId> chooseVictims(int n, Predicate<PageId> evictable) {
+        List<PageId> victims = new ArrayList<>();
+        while (victims.size() < n) {
+            PageId victim = chooseVictim(pid -> !victims.contains(pid) && evictable.test(pid));
+            if (victim == null) {
+                break;
+            }
+            victims.add(victim);
+        }
+        return victims;
+    }
+}
@@ -0,0 +1,294 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * RowStore keeps rows of one TupleDesc in a byte array, one after the other,
+ * in the format HeapPage writes them in: a field of Type t takes t.getLen()
+ * bytes, an int is written big-endian and a string is its length followed by
+ * its characters, padded to Type.STRING_LEN. Operators that have to hold on
+ * to many rows, like the build side of a hash join, keep them here rather
+ * than as Tuple and Field objects.
+ * <p>
+ * Rows are numbered in the order they are added, from 0.
+ */
+public class RowStore {
+
+    private final TupleDesc td;
+    private final int rowSize;
+    private final int[] offsets;
+    private final boolean[] isInt;
+    private byte[] data;
+    private int rows;
+
+    /**
+     * @param td           the TupleDesc of the rows
+     * @param expectedRows the number of rows to make room for up front; the
+     *                     store grows if more are added
+     */
+    public RowStore(TupleDesc td, int expectedRows) {
+        this.td = td;
+        offsets = new int[td.numFields()];
+        isInt = new boolean[td.numFields()];
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            offsets[i] = size;
+            isInt[i] = td.getFieldType(i) == Type.INT_TYPE;
+            size += td.getFieldType(i).getLen();
+        }
+        rowSize = size;
+        data = new byte[Math.max(1, expectedRows) * rowSize];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the store
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the number of bytes the rows in the store take
+     */
+    public long bytes() {
+        return (long) rows * rowSize;
+    }
+
+    /**
+     * @return the number of bytes a row takes
+     */
+    public int rowSize() {
+        return rowSize;
+    }
+
+    /**
+     * Add the selected row i of a batch with the TupleDesc of the store.
+     *
+     * @return the number of the new row
+     */
+    public int add(TupleBatch b, int i) {
+        write(newRow(), b, i);
+        return rows++;
+    }
+
+    /**
+     * Overwrite a row with the selected row i of a batch with the TupleDesc
+     * of the store.
+     */
+    public void set(int row, TupleBatch b, int i) {
+        write(row * rowSize, b, i);
+    }
+
+    private void write(int base, TupleBatch b, int i) {
+        int row = b.row(i);
+        for (int col = 0; col < offsets.length; col++) {
+            if (isInt[col]) {
+                putInt(base + offsets[col], b.getInt(col, row));
+            } else {
+                putString(base + offsets[col], b.getString(col, row));
+            }
+        }
+    }
+
+    /**
+     * Add a tuple with the TupleDesc of the store.
+     *
+     * @return the number of the new row
+     */
+    public int add(Tuple t) {
+        int base = newRow();
+        for (int col = 0; col < offsets.length; col++) {
+            if (isInt[col]) {
+                putInt(base + offsets[col], ((IntField) t.getField(col)).getValue());
+            } else {
+                putString(base + offsets[col], ((StringField) t.getField(col)).getValue());
+            }
+        }
+        return rows++;
+    }
+
+    /**
+     * Add a row of another store with the same TupleDesc.
+     *
+     * @return the number of the new row
+     */
+    public int add(RowStore src, int srcRow) {
+        int base = newRow();
+        System.arraycopy(src.data, srcRow * rowSize, data, base, rowSize);
+        return rows++;
+    }
+
+    /**
+     * Add a row from rowSize() bytes of an array.
+     *
+     * @return the number of the new row
+     */
+    public int add(byte[] src, int off) {
+        int base = newRow();
+        System.arraycopy(src, off, data, base, rowSize);
+        return rows++;
+    }
+
+    /**
+     * Copy the rowSize() bytes of a row to an array.
+     */
+    public void copyRow(int row, byte[] dst, int off) {
+        System.arraycopy(data, row * rowSize, dst, off, rowSize);
+    }
+
+    private int newRow() {
+        int base = rows * rowSize;
+        if (base + rowSize > data.length) {
+            byte[] larger = new byte[Math.max(data.length * 2, base + rowSize)];
+            System.arraycopy(data, 0, larger, 0, base);
+            data = larger;
+        }
+        return base;
+    }
+
+    private void putInt(int off, int v) {
+        data[off] = (byte) (v >>> 24);
+        data[off + 1] = (byte) (v >>> 16);
+        data[off + 2] = (byte) (v >>> 8);
+        data[off + 3] = (byte) v;
+    }
+
+    // like StringField.serialize, keeps the low byte of each character
+    private void putString(int off, String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        putInt(off, len);
+        for (int i = 0; i < len; i++) {
+            data[off + 4 + i] = (byte) s.charAt(i);
+        }
+    }
+
+    private int readInt(int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    public int getInt(int row, int col) {
+        return readInt(row * rowSize + offsets[col]);
+    }
+
+    public String getString(int row, int col) {
+        int off = row * rowSize + offsets[col];
+        int len = readInt(off);
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = (char) (data[off + 4 + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return true if a string field of a row equals s, without making a
+     * String of the field
+     */
+    public boolean stringEquals(int row, int col, String s) {
+        int off = row * rowSize + offsets[col];
+        int len = readInt(off);
+        if (len != Math.min(s.length(), Type.STRING_LEN)) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (data[off + 4 + i] != (byte) s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a field of a row with the same field of a row of a store with
+     * the same TupleDesc, as IntField and StringField compare them, without
+     * making Fields.
+     *
+     * @return a negative number, zero or a positive number as the field of
+     * the row is less than, equal to or greater than the other one
+     */
+    public int compare(int row, int col, RowStore other, int otherRow) {
+        int off = row * rowSize + offsets[col];
+        int otherOff = otherRow * rowSize + offsets[col];
+        if (isInt[col]) {
+            return Integer.compare(readInt(off), other.readInt(otherOff));
+        }
+        int len = readInt(off);
+        int otherLen = other.readInt(otherOff);
+        for (int i = 0; i < Math.min(len, otherLen); i++) {
+            int c = (data[off + 4 + i] & 0xff) - (other.data[otherOff + 4 + i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len - otherLen;
+    }
+
+    public Field getField(int row, int col) {
+        if (isInt[col]) {
+            return new IntField(getInt(row, col));
+        }
+        return new StringField(getString(row, col), Type.STRING_LEN);
+    }
+
+    /**
+     * @return a new Tuple with the values of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int col = 0; col < offsets.length; col++) {
+            t.setField(col, getField(row, col));
+        }
+        return t;
+    }
+
+    /**
+     * Write the bytes of all rows to a stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data, 0, rows * rowSize);
+    }
+
+    /**
+     * Add rows written by {@link #writeTo} from a stream, until the end of
+     * the stream or maxRows rows.
+     *
+     * @return the number of rows added
+     */
+    public int readFrom(InputStream in, int maxRows) throws IOException {
+        int added = 0;
+        while (added < maxRows) {
+            int base = newRow();
+            int n = 0;
+            while (n < rowSize) {
+                int r = in.read(data, base + n, rowSize - n);
+                if (r < 0) {
+                    if (n == 0) {
+                        return added;
+                    }
+                    throw new EOFException("partial row");
+                }
+                n += r;
+            }
+            rows++;
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Remove all rows. The store keeps its memory.
+     */
+    public void clear() {
+        rows = 0;
+    }
+}
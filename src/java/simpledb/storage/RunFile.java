@@ -0,0 +1,153 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * RunFile is a temporary file of rows of one TupleDesc, written as the pages
+ * of a HeapFile: each page of BufferPool.getPageSize() bytes is a header
+ * bitmap of the slots in use followed by the slots, so that a page can be
+ * read by HeapPage. Rows are kept in the order they are added, in the used
+ * slots of a page from the first one, and read back a page at a time, any
+ * number of times, once all of them have been added. Sorts write their
+ * sorted runs to them.
+ */
+public class RunFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int rowSize;
+    private final int slots;
+    private final int headerSize;
+    private final byte[] page;
+    private OutputStream out;
+    private int slot;
+    private int rows;
+    private int pages;
+
+    public RunFile(TupleDesc td) throws IOException {
+        this.td = td;
+        file = File.createTempFile("run", ".dat");
+        file.deleteOnExit();
+        rowSize = td.getSize();
+        slots = HeapPage.slotsPerPage(td);
+        headerSize = (slots + 7) / 8;
+        page = new byte[BufferPool.getPageSize()];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the file
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the number of pages in the file
+     */
+    public int numPages() {
+        return pages;
+    }
+
+    /**
+     * Add a row of a RowStore with the TupleDesc of the file.
+     */
+    public void add(RowStore src, int row) throws IOException {
+        src.copyRow(row, page, headerSize + slot * rowSize);
+        page[slot / 8] |= (byte) (1 << (slot % 8));
+        rows++;
+        if (++slot == slots) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file);
+        }
+        out.write(page);
+        Arrays.fill(page, (byte) 0);
+        slot = 0;
+        pages++;
+    }
+
+    /**
+     * Start reading the rows of the file from the first one. No more rows
+     * may be added.
+     */
+    public Reader reader() throws IOException {
+        if (slot > 0 || out == null) {
+            flush();
+        }
+        out.close();
+        return new Reader();
+    }
+
+    /**
+     * Delete the file.
+     */
+    public void delete() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException ignored) {
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the rows of a RunFile a page at a time.
+     */
+    public class Reader {
+        private DataInputStream in;
+        private final byte[] data = new byte[BufferPool.getPageSize()];
+        private final RowStore rows = new RowStore(td, slots);
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new FileInputStream(file));
+        }
+
+        /**
+         * @return the rows of the next page of the file, or null at its end.
+         * The store is reused by the next call.
+         */
+        public RowStore nextPage() throws IOException {
+            rows.clear();
+            while (in != null && rows.size() == 0) {
+                try {
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    close();
+                    return null;
+                }
+                for (int i = 0; i < slots; i++) {
+                    if ((data[i / 8] & (1 << (i % 8))) != 0) {
+                        rows.add(data, headerSize + i * rowSize);
+                    }
+                }
+            }
+            return rows.size() > 0 ? rows : null;
+        }
+
+        public void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException ignored) {
+            }
+            in = null;
+        }
+    }
+}
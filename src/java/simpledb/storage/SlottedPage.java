@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+/**
+ * A page made of fixed-size tuple slots. The log describes changes to such
+ * pages slot by slot instead of with full page images, and recovery redoes
+ * and undoes them by setting slots.
+ *
+ * @see LogFile#logWrite(simpledb.transaction.TransactionId, Page, Page)
+ */
+public interface SlottedPage extends Page {
+
+    /**
+     * @return the number of slots on this page
+     */
+    int getNumSlots();
+
+    /**
+     * Returns the serialized tuple in the specified slot.
+     *
+     * @param i the slot
+     * @return the bytes of the tuple, or null if the slot is empty
+     */
+    byte[] getSlotData(int i);
+
+    /**
+     * Put a serialized tuple into the specified slot, or empty it.
+     *
+     * @param i    the slot
+     * @param data the bytes of the tuple as returned by getSlotData, or null
+     *             to empty the slot
+     */
+    void setSlotData(int i, byte[] data);
+
+    /**
+     * @param other a version of this page
+     * @return true if this page and other only differ in the contents of
+     * their slots, so that setting slots turns one into the other
+     */
+    boolean differsOnlyInSlots(SlottedPage other);
+}
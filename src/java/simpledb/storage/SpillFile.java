@@ -0,0 +1,146 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SpillFile is a temporary file of rows of one TupleDesc, which operators
+ * write the rows that do not fit in their memory budget to. Rows are kept in
+ * a RowStore of BUFFER_BYTES until it is full, and then appended to the file
+ * in the format of {@link RowStore#writeTo}. They can be read back, any
+ * number of times, once all of them have been added.
+ */
+public class SpillFile {
+
+    /** Size of the buffer of rows that are not written yet. */
+    public static final int BUFFER_BYTES = 1 << 15;
+
+    private final File file;
+    private final RowStore buffer;
+    private final int bufferRows;
+    private OutputStream out;
+    private int rows;
+
+    public SpillFile(TupleDesc td) throws IOException {
+        file = File.createTempFile("spill", ".dat");
+        file.deleteOnExit();
+        buffer = new RowStore(td, 0);
+        bufferRows = Math.max(1, BUFFER_BYTES / buffer.rowSize());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return buffer.getTupleDesc();
+    }
+
+    /**
+     * @return the number of rows in the file
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Add the selected row i of a batch.
+     */
+    public void add(TupleBatch b, int i) throws IOException {
+        buffer.add(b, i);
+        added();
+    }
+
+    /**
+     * Add a row of a RowStore.
+     */
+    public void add(RowStore src, int row) throws IOException {
+        buffer.add(src, row);
+        added();
+    }
+
+    private void added() throws IOException {
+        rows++;
+        if (buffer.size() == bufferRows) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file);
+        }
+        buffer.writeTo(out);
+        buffer.clear();
+    }
+
+    /**
+     * Start reading the rows of the file from the first one. No more rows
+     * may be added.
+     */
+    public Reader reader() throws IOException {
+        if (buffer.size() > 0 || out == null) {
+            flush();
+        }
+        out.close();
+        return new Reader();
+    }
+
+    /**
+     * Delete the file.
+     */
+    public void delete() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException ignored) {
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the rows of a SpillFile a batch at a time.
+     */
+    public class Reader {
+        private InputStream in;
+        private final RowStore chunk = new RowStore(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        private final TupleBatch batch = new TupleBatch(getTupleDesc());
+
+        private Reader() throws IOException {
+            in = new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES);
+        }
+
+        /**
+         * @return the next rows of the file, or null at its end. The batch is
+         * reused by the next call.
+         */
+        public TupleBatch nextBatch() throws IOException {
+            if (in == null) {
+                return null;
+            }
+            chunk.clear();
+            batch.clear();
+            int n = chunk.readFrom(in, TupleBatch.DEFAULT_SIZE);
+            for (int row = 0; row < n; row++) {
+                batch.addRow(chunk, row);
+            }
+            if (n == 0) {
+                close();
+                return null;
+            }
+            return batch;
+        }
+
+        public void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException ignored) {
+            }
+            in = null;
+        }
+    }
+}
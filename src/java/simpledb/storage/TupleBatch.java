@@ -0,0 +1,312 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one TupleDesc column by
+ * column: an int array for each int column and a String array for each
+ * string column, plus the RecordIds of the rows, if they have any.
+ * <p>
+ * A selection vector lists the rows of the batch that are in it, so that an
+ * operator can drop rows without copying the others; while it is not set,
+ * every row is. Methods taking a row take the number of the row in the
+ * columns; {@link #row(int)} maps the i-th selected row to it.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private RecordId[] recordIds;
+    // number of rows in the columns
+    private int size;
+    // rows in the batch, or null if all of them are
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Create an empty batch of up to DEFAULT_SIZE rows.
+     *
+     * @param td the TupleDesc of the rows
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td       the TupleDesc of the rows
+     * @param capacity the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        ints = new int[td.numFields()][];
+        strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    /**
+     * @return the TupleDesc of the rows
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch, i.e. the number of selected
+     * rows
+     */
+    public int numRows() {
+        return selection == null ? size : selected;
+    }
+
+    /**
+     * @return the number of rows in the columns, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the row in the columns of the i-th selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the selection vector, or null if every row is selected. Only
+     * its first {@link #numRows()} entries are used.
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Select some of the rows of the batch.
+     *
+     * @param rows  the rows in the columns, in ascending order. The batch
+     *              keeps the array; the caller must not change it while it
+     *              uses the batch.
+     * @param count the number of entries of rows to use
+     */
+    public void select(int[] rows, int count) {
+        selection = rows;
+        selected = count;
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public String getString(int col, int row) {
+        return strings[col][row];
+    }
+
+    /**
+     * @return the int column col, or null if it is not an int column
+     */
+    public int[] getIntColumn(int col) {
+        return ints[col];
+    }
+
+    /**
+     * @return the string column col, or null if it is not a string column
+     */
+    public String[] getStringColumn(int col) {
+        return strings[col];
+    }
+
+    /**
+     * @return the value of a field as an Integer or a String
+     */
+    public Object getValue(int col, int row) {
+        return ints[col] != null ? (Object) ints[col][row] : strings[col][row];
+    }
+
+    /**
+     * @return the value of a field as a Field
+     */
+    public Field getField(int col, int row) {
+        if (ints[col] != null) {
+            return new IntField(ints[col][row]);
+        }
+        return new StringField(strings[col][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the RecordId of a row, or null if it has none
+     */
+    public RecordId getRecordId(int row) {
+        return recordIds == null ? null : recordIds[row];
+    }
+
+    /**
+     * @return a new Tuple with the values of the i-th selected row
+     */
+    public Tuple getTuple(int i) {
+        int row = row(i);
+        Tuple t = new Tuple(td);
+        for (int col = 0; col < ints.length; col++) {
+            t.setField(col, getField(col, row));
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Add a row with the values of a tuple. The batch must not be full, and
+     * its selection vector must not be set.
+     */
+    public void addTuple(Tuple t) {
+        int row = size++;
+        for (int col = 0; col < ints.length; col++) {
+            Field f = t.getField(col);
+            if (ints[col] != null) {
+                ints[col][row] = ((IntField) f).getValue();
+            } else {
+                strings[col][row] = ((StringField) f).getValue();
+            }
+        }
+        setRecordId(row, t.getRecordId());
+    }
+
+    /**
+     * Add a row with the values of a row of another batch with the same
+     * TupleDesc. The batch must not be full, and its selection vector must
+     * not be set.
+     */
+    public void addRow(TupleBatch src, int srcRow) {
+        int row = size++;
+        copy(src, srcRow, row, 0);
+        setRecordId(row, src.getRecordId(srcRow));
+    }
+
+    /**
+     * Add a row with the values of a row of one batch followed by the
+     * values of a row of another, as a join does. The batch must not be
+     * full, and its selection vector must not be set.
+     */
+    public void addRow(TupleBatch left, int leftRow, TupleBatch right, int rightRow) {
+        int row = size++;
+        copy(left, leftRow, row, 0);
+        copy(right, rightRow, row, left.ints.length);
+        setRecordId(row, null);
+    }
+
+    /**
+     * Add a row with the values of a row of a RowStore with the same
+     * TupleDesc. The batch must not be full, and its selection vector must
+     * not be set.
+     */
+    public void addRow(RowStore src, int srcRow) {
+        int row = size++;
+        copy(src, srcRow, row);
+        setRecordId(row, null);
+    }
+
+    /**
+     * Add a row with the values of a row of a RowStore followed by the
+     * values of a row of a batch, as a hash join does. The batch must not
+     * be full, and its selection vector must not be set.
+     */
+    public void addRow(RowStore left, int leftRow, TupleBatch right, int rightRow) {
+        int row = size++;
+        copy(left, leftRow, row);
+        copy(right, rightRow, row, left.getTupleDesc().numFields());
+        setRecordId(row, null);
+    }
+
+    private void copy(RowStore src, int srcRow, int row) {
+        int n = src.getTupleDesc().numFields();
+        for (int col = 0; col < n; col++) {
+            if (ints[col] != null) {
+                ints[col][row] = src.getInt(srcRow, col);
+            } else {
+                strings[col][row] = src.getString(srcRow, col);
+            }
+        }
+    }
+
+    private void copy(TupleBatch src, int srcRow, int row, int firstCol) {
+        for (int col = 0; col < src.ints.length; col++) {
+            if (src.ints[col] != null) {
+                ints[firstCol + col][row] = src.ints[col][srcRow];
+            } else {
+                strings[firstCol + col][row] = src.strings[col][srcRow];
+            }
+        }
+    }
+
+    // once the array exists every new row sets its entry, so a cleared
+    // batch keeps it
+    private void setRecordId(int row, RecordId rid) {
+        if (rid != null && recordIds == null) {
+            recordIds = new RecordId[capacity];
+        }
+        if (recordIds != null) {
+            recordIds[row] = rid;
+        }
+    }
+
+    /**
+     * Return a batch with some of the columns of this one, which shares
+     * their arrays, the RecordIds and the selection vector with this one.
+     *
+     * @param td   the TupleDesc of the new batch
+     * @param cols for each field of td, the column of this batch it is
+     */
+    public TupleBatch project(TupleDesc td, int[] cols) {
+        int[][] pints = new int[cols.length][];
+        String[][] pstrings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pints[i] = ints[cols[i]];
+            pstrings[i] = strings[cols[i]];
+        }
+        TupleBatch b = new TupleBatch(td, capacity, pints, pstrings);
+        b.recordIds = recordIds;
+        b.size = size;
+        b.selection = selection;
+        b.selected = selected;
+        return b;
+    }
+
+    /**
+     * Remove all rows, so that the batch can be filled again.
+     */
+    public void clear() {
+        size = 0;
+        selection = null;
+        selected = 0;
+    }
+}
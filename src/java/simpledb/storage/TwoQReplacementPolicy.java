@@ -0,0 +1,94 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). New pages enter a small FIFO
+ * queue (A1in); only pages referenced again after falling out of it, while
+ * their id is still remembered in the ghost queue (A1out), are admitted to
+ * the main LRU queue (Am). A sequential scan therefore cycles through A1in
+ * and never displaces the hot pages in Am.
+ *
+ * @Threadsafe
+ */
+public class TwoQReplacementPolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+    private final int kin;
+    private final int kout;
+
+    /**
+     * Creates a 2Q policy with the tuning suggested in the paper: A1in holds
+     * a quarter of the pool and A1out remembers half a pool's worth of ids.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQReplacementPolicy(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     * @param kin      the target size of the A1in FIFO, in pages
+     * @param kout     the number of page ids remembered in A1out
+     */
+    public TwoQReplacementPolicy(int capacity, int kin, int kout) {
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>(capacity);
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        } else if (a1in.contains(pid)) {
+            // correlated re-reference: leave it in the FIFO
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        if (a1in.size() >= kin || am.isEmpty()) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        if (victim == null) {
+            victim = firstEvictable(am, evictable);
+        }
+        if (victim == null) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * VersionStore keeps the committed versions of pages that read-only
+ * transactions may still need, so that they can read a snapshot of the
+ * database without taking locks while writers keep using two-phase locking.
+ * <p>
+ * Commits are numbered. A snapshot is the number of the last commit when
+ * the read-only transaction started, and it sees every page as of that
+ * commit. The current committed version of a page is the before image of
+ * the page ({@link Page#getBeforeImage()}), which BufferPool only replaces
+ * ({@link Page#setBeforeImage()}) when a writer commits. Older versions are
+ * kept here, as long as a snapshot older than the commit that replaced them
+ * is active.
+ * <p>
+ * Under STEAL a page may leave the pool or reach the disk with changes of a
+ * running transaction, so the page object as it was when the transaction
+ * first changed it is kept too; its before image is the committed version.
+ * Under row-level locking several writers may change a page at once; when
+ * one of them commits, BufferPool hands in the new committed version for
+ * the others to keep.
+ * <p>
+ * BufferPool holds the monitor of this object while it publishes a commit
+ * and while it picks the version a snapshot reads.
+ */
+class VersionStore {
+
+    /**
+     * A committed version of a page, visible to snapshots from (inclusive)
+     * up to (exclusive).
+     */
+    private static class Version {
+        final Page image;
+        final long from;
+        final long until;
+
+        Version(Page image, long from, long until) {
+            this.image = image;
+            this.from = from;
+            this.until = until;
+        }
+    }
+
+    private static class PageVersions {
+        // commit that produced the current committed version
+        long committedAt;
+        // bumped on every change, so that a reader that went to disk
+        // without the monitor can tell whether it read the right version
+        long changes;
+        // the page as first changed by the running writers, if any
+        Page pending;
+        final Set<TransactionId> writers = new HashSet<>();
+        // replaced versions, newest first
+        final Deque<Version> older = new ArrayDeque<>();
+    }
+
+    private long lastCommit = 0;
+    private final Map<PageId, PageVersions> pages = new HashMap<>();
+    private final Map<TransactionId, List<PageId>> changedBy = new HashMap<>();
+    private final Map<TransactionId, Long> snapshots = new HashMap<>();
+    // snapshot -> number of transactions reading it
+    private final TreeMap<Long, Integer> activeSnapshots = new TreeMap<>();
+
+    /**
+     * Start a snapshot for a read-only transaction.
+     *
+     * @return the snapshot: the number of the last commit it sees
+     */
+    synchronized long beginSnapshot(TransactionId tid) {
+        if (!snapshots.containsKey(tid)) {
+            snapshots.put(tid, lastCommit);
+            activeSnapshots.merge(lastCommit, 1, Integer::sum);
+        }
+        return snapshots.get(tid);
+    }
+
+    /**
+     * @return the snapshot of the specified transaction, or null if it is
+     * not a read-only transaction
+     */
+    synchronized Long getSnapshot(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /**
+     * End the snapshot of a read-only transaction and drop the versions
+     * nobody needs any more.
+     *
+     * @return false if the transaction had no snapshot
+     */
+    synchronized boolean endSnapshot(TransactionId tid) {
+        Long snapshot = snapshots.remove(tid);
+        if (snapshot == null) {
+            return false;
+        }
+        activeSnapshots.computeIfPresent(snapshot, (k, n) -> n == 1 ? null : n - 1);
+        prune();
+        return true;
+    }
+
+    /**
+     * Note that a writer changed a page. When the first of its writers does,
+     * the page object is kept: its before image is the committed version
+     * until the writers end.
+     */
+    synchronized void recordChange(TransactionId tid, Page p) {
+        PageVersions pv = pages.computeIfAbsent(p.getId(), k -> new PageVersions());
+        if (pv.writers.isEmpty()) {
+            pv.pending = p;
+        }
+        if (pv.writers.add(tid)) {
+            changedBy.computeIfAbsent(tid, k -> new ArrayList<>()).add(p.getId());
+        }
+        pv.changes++;
+    }
+
+    /**
+     * @return the current committed version of a page that writers are
+     * changing, or null if nobody is
+     */
+    synchronized Page getCommitted(PageId pid) {
+        PageVersions pv = pages.get(pid);
+        return pv == null || pv.pending == null ? null : pv.pending.getBeforeImage();
+    }
+
+    /**
+     * Publish the changes of a committing writer as a new commit. The
+     * caller must hold the monitor of this object until it has replaced the
+     * before images of the committed pages.
+     *
+     * @param stillChanging for pages that other writers are still changing,
+     *                      a page whose before image is the new committed
+     *                      version
+     */
+    synchronized void commit(TransactionId tid, Map<PageId, Page> stillChanging) {
+        List<PageId> changed = changedBy.remove(tid);
+        if (changed == null) {
+            return;
+        }
+        long commit = ++lastCommit;
+        for (PageId pid : changed) {
+            PageVersions pv = pages.get(pid);
+            pv.writers.remove(tid);
+            // every active snapshot is older than this commit
+            if (!activeSnapshots.isEmpty()) {
+                pv.older.addFirst(new Version(pv.pending.getBeforeImage(), pv.committedAt, commit));
+            }
+            pv.committedAt = commit;
+            pv.pending = pv.writers.isEmpty() ? null : stillChanging.getOrDefault(pid, pv.pending);
+            pv.changes++;
+            if (activeSnapshots.isEmpty() && pv.writers.isEmpty()) {
+                pages.remove(pid);
+            }
+        }
+    }
+
+    /**
+     * Forget the changes of an aborted writer, once they have been rolled
+     * back.
+     */
+    synchronized void abort(TransactionId tid) {
+        List<PageId> changed = changedBy.remove(tid);
+        if (changed == null) {
+            return;
+        }
+        for (PageId pid : changed) {
+            PageVersions pv = pages.get(pid);
+            pv.writers.remove(tid);
+            if (pv.writers.isEmpty()) {
+                pv.pending = null;
+            }
+            pv.changes++;
+        }
+        prune();
+    }
+
+    /**
+     * Return the version of a page a snapshot sees, if it is not the one in
+     * the buffer pool or on disk.
+     *
+     * @return the version, or null if the snapshot sees the current
+     * committed version and no writer has changed the page
+     */
+    synchronized Page getVersion(PageId pid, long snapshot) {
+        PageVersions pv = pages.get(pid);
+        if (pv == null) {
+            return null;
+        }
+        if (pv.committedAt <= snapshot) {
+            return pv.pending == null ? null : pv.pending.getBeforeImage();
+        }
+        for (Version v : pv.older) {
+            if (v.from <= snapshot && snapshot < v.until) {
+                return v.image;
+            }
+        }
+        throw new IllegalStateException("no version of " + pid + " for snapshot " + snapshot);
+    }
+
+    /**
+     * @return a number that changes whenever the page is changed or committed
+     */
+    synchronized long getChangeCount(PageId pid) {
+        PageVersions pv = pages.get(pid);
+        return pv == null ? 0 : pv.changes;
+    }
+
+    /**
+     * @return the number of old page versions kept for snapshots
+     */
+    synchronized int getVersionCount() {
+        int n = 0;
+        for (PageVersions pv : pages.values()) {
+            n += pv.older.size();
+        }
+        return n;
+    }
+
+    private void prune() {
+        long oldest = activeSnapshots.isEmpty() ? Long.MAX_VALUE : activeSnapshots.firstKey();
+        Iterator<PageVersions> it = pages.values().iterator();
+        while (it.hasNext()) {
+            PageVersions pv = it.next();
+            // no snapshot is older than the end of these versions
+            while (!pv.older.isEmpty() && pv.older.peekLast().until <= oldest) {
+                pv.older.removeLast();
+            }
+            if (pv.older.isEmpty() && pv.writers.isEmpty() && pv.committedAt <= oldest) {
+                it.remove();
+            }
+        }
+    }
+}
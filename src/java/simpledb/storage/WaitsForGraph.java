@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * WaitsForGraph records which transactions every waiting lock request is
+ * blocked behind. The LockManager keeps the edges of a locked resource up
+ * to date whenever the holders or the wait queue of that resource change, so
+ * a cycle in the graph is a real deadlock.
+ * <p>
+ * Transactions that have been picked as deadlock victims are ignored until
+ * their requests have left the wait queues, so the same cycle is not broken
+ * twice.
+ *
+ * @Threadsafe
+ */
+class WaitsForGraph {
+
+    // waiter -> resource it waits for -> transactions it waits behind
+    private final Map<TransactionId, Map<Object, Set<TransactionId>>> waitsFor = new HashMap<>();
+    private final Set<TransactionId> victims = new HashSet<>();
+
+    /**
+     * Record that tid's request on resource is blocked behind the given
+     * transactions, replacing whatever was recorded before.
+     */
+    synchronized void setWaits(TransactionId tid, Object resource, Set<TransactionId> blockers) {
+        waitsFor.computeIfAbsent(tid, k -> new HashMap<>()).put(resource, blockers);
+    }
+
+    /**
+     * Record that tid no longer waits for resource.
+     */
+    synchronized void clearWaits(TransactionId tid, Object resource) {
+        Map<Object, Set<TransactionId>> waits = waitsFor.get(tid);
+        if (waits != null) {
+            waits.remove(resource);
+            if (waits.isEmpty()) {
+                waitsFor.remove(tid);
+                victims.remove(tid);
+            }
+        }
+    }
+
+    /**
+     * Look for a cycle reachable from start and, if there is one, mark the
+     * transaction chosen from it as a victim that is about to be aborted.
+     *
+     * @param start  the transaction whose new request may have closed a cycle
+     * @param policy chooses the victim among the transactions on a cycle
+     * @return the victim, or null if there is no cycle
+     */
+    synchronized TransactionId pickVictim(TransactionId start,
+                                          Function<List<TransactionId>, TransactionId> policy) {
+        List<TransactionId> cycle = findCycle(start);
+        if (cycle == null) {
+            return null;
+        }
+        TransactionId victim = policy.apply(cycle);
+        victims.add(victim);
+        return victim;
+    }
+
+    /**
+     * Look for a cycle reachable from start.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        List<TransactionId> path = new ArrayList<>();
+        Set<TransactionId> onPath = new HashSet<>();
+        Set<TransactionId> done = new HashSet<>();
+        return findCycle(start, path, onPath, done);
+    }
+
+    private List<TransactionId> findCycle(TransactionId tid, List<TransactionId> path,
+                                          Set<TransactionId> onPath, Set<TransactionId> done) {
+        if (onPath.contains(tid)) {
+            return new ArrayList<>(path.subList(path.indexOf(tid), path.size()));
+        }
+        if (done.contains(tid) || victims.contains(tid)) {
+            return null;
+        }
+        path.add(tid);
+        onPath.add(tid);
+        Map<Object, Set<TransactionId>> waits = waitsFor.get(tid);
+        if (waits != null) {
+            for (Set<TransactionId> blockers : waits.values()) {
+                for (TransactionId blocker : blockers) {
+                    List<TransactionId> cycle = findCycle(blocker, path, onPath, done);
+                    if (cycle != null) {
+                        return cycle;
+                    }
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        onPath.remove(tid);
+        done.add(tid);
+        return null;
+    }
+}
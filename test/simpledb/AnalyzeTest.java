@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AnalyzeTest extends SimpleDbTestBase {
+
+  /**
+   * Statistics from a sample of the pages of a table are scaled up to the
+   * whole table.
+   */
+  @Test public void sampled() throws Exception {
+    // 504 tuples of two ints fit on a page
+    int pages = 4 * TableStats.MIN_SAMPLE_PAGES;
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, 100, null, tuples, "c");
+    Database.getCatalog().addTable(f, "sampled");
+
+    TableStats stats = new TableStats(f.getId(), 1, 0.1);
+    assertEquals(TableStats.MIN_SAMPLE_PAGES, stats.getSampledPages());
+    assertEquals(504 * pages, stats.totalTuples());
+    assertEquals(100, stats.distinctValues(0));
+    assertEquals(pages, stats.estimateScanCost(), 0);
+    long below = tuples.stream().filter(t -> t.get(1) < 30).count();
+    assertEquals((double) below / tuples.size(),
+        stats.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(30)), 0.01);
+
+    TableStats whole = new TableStats(f.getId(), 1, 1.0);
+    assertEquals(pages, whole.getSampledPages());
+    assertEquals(504 * pages, whole.totalTuples());
+  }
+
+  /**
+   * Once enough tuples are inserted into a table, a lookup of its
+   * statistics computes them again in the background.
+   */
+  @Test public void refreshed() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+    Database.getCatalog().addTable(f, "refreshed");
+    TableStats stats = new TableStats(f.getId(), 1);
+    TableStats.setTableStats("refreshed", stats);
+    assertFalse(stats.isStale());
+
+    BufferPool pool = Database.getBufferPool();
+    long before = pool.getModificationCount(f.getId());
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < TableStats.REFRESH_MIN_MODIFICATIONS; i++) {
+      pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(i, 2));
+    }
+    pool.transactionComplete(tid);
+    assertEquals(before + TableStats.REFRESH_MIN_MODIFICATIONS, pool.getModificationCount(f.getId()));
+    assertTrue(stats.isStale());
+
+    // the stale statistics are used until the new ones are there
+    assertSame(stats, TableStats.getTableStats("refreshed"));
+    TableStats fresh = stats;
+    for (int i = 0; i < 100 && fresh == stats; i++) {
+      Thread.sleep(50);
+      fresh = TableStats.getTableStats("refreshed");
+    }
+    assertNotSame(stats, fresh);
+    assertEquals(1000 + TableStats.REFRESH_MIN_MODIFICATIONS, fresh.totalTuples());
+    assertFalse(fresh.isStale());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(AnalyzeTest.class);
+  }
+}
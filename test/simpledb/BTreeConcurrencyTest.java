@@ -0,0 +1,202 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeConcurrencyTest extends SimpleDbTestBase {
+	private static final int ROWS = 3000;
+
+	private BTreeFile bf;
+	private BufferPool bp;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+	private ExecutorService exec;
+
+	/**
+	 * Build a tree of half full leaf pages under an internal root page.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		File file = File.createTempFile("btree", ".dat");
+		file.deleteOnExit();
+		bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+		bp = Database.getBufferPool();
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < ROWS; i++) {
+			bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+		}
+		bp.transactionComplete(tid);
+
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		tid = new TransactionId();
+		rootId = ((BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		bp.transactionComplete(tid);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		exec = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		exec.shutdownNow();
+	}
+
+	private static boolean finishes(Future<?> f) throws Exception {
+		try {
+			f.get(500, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		}
+	}
+
+	private int count(int key) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		bp.transactionComplete(tid);
+		return n;
+	}
+
+	/**
+	 * An insert that finds room in its leaf locks neither the root pointer
+	 * nor the internal pages above the leaf.
+	 */
+	@Test
+	public void insertLocksOnlyLeaf() throws Exception {
+		TransactionId tid = new TransactionId();
+		bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(ROWS / 2, 2));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+		assertEquals(2, count(ROWS / 2));
+	}
+
+	/**
+	 * A search locks the leaf pages it reads, but not the pages above them.
+	 */
+	@Test
+	public void searchLocksOnlyLeaf() throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(10)));
+		it.open();
+		assertTrue(it.hasNext());
+		assertEquals(10, ((IntField) it.next().getField(0)).getValue());
+		it.close();
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * Inserts into different leaves do not wait for each other, while
+	 * inserts into the same leaf do.
+	 */
+	@Test
+	public void insertsIntoDifferentLeavesRunConcurrently() throws Exception {
+		TransactionId t1 = new TransactionId();
+		TransactionId t2 = new TransactionId();
+		TransactionId t3 = new TransactionId();
+		bp.insertTuple(t1, bf.getId(), BTreeUtility.getBTreeTuple(10, 2));
+		assertTrue(finishes(exec.submit(() -> {
+			bp.insertTuple(t2, bf.getId(), BTreeUtility.getBTreeTuple(ROWS - 10, 2));
+			return null;
+		})));
+		Future<?> sameLeaf = exec.submit(() -> {
+			bp.insertTuple(t3, bf.getId(), BTreeUtility.getBTreeTuple(11, 2));
+			return null;
+		});
+		assertFalse(finishes(sameLeaf));
+		bp.transactionComplete(t1);
+		sameLeaf.get(10, TimeUnit.SECONDS);
+		bp.transactionComplete(t2);
+		bp.transactionComplete(t3);
+
+		assertEquals(2, count(10));
+		assertEquals(2, count(11));
+		assertEquals(2, count(ROWS - 10));
+	}
+
+	/**
+	 * Threads that insert concurrently, splitting leaf pages as they go,
+	 * leave a consistent tree with every committed tuple in it.
+	 */
+	@Test
+	public void concurrentSplits() throws Exception {
+		final int threads = 4;
+		final int perThread = 600;
+		List<Future<?>> done = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final int offset = i;
+			done.add(exec.submit(() -> {
+				for (int j = 0; j < perThread; j++) {
+					Tuple t = BTreeUtility.getBTreeTuple(ROWS + j * threads + offset, 2);
+					while (true) {
+						TransactionId tid = new TransactionId();
+						try {
+							bp.insertTuple(tid, bf.getId(), t);
+							bp.transactionComplete(tid);
+							break;
+						} catch (TransactionAbortedException e) {
+							bp.transactionComplete(tid, false);
+						}
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : done) {
+			f.get(120, TimeUnit.SECONDS);
+		}
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int n = 0;
+		int last = Integer.MIN_VALUE;
+		while (it.hasNext()) {
+			int key = ((IntField) it.next().getField(0)).getValue();
+			assertTrue(key >= last);
+			last = key;
+			n++;
+		}
+		it.close();
+		bp.transactionComplete(tid);
+		assertEquals(ROWS + threads * perThread, n);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeConcurrencyTest.class);
+	}
+}
@@ -347,6 +347,27 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.getSlotData() and BTreeLeafPage.setSlotData()
+	 */
+	@Test public void setSlotData() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		BTreeLeafPage before = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertTrue(page.differsOnlyInSlots(before));
+
+		// slot 0 holds the smallest key
+		byte[] data = page.getSlotData(0);
+		assertNotNull(data);
+		page.setSlotData(0, null);
+		assertEquals(EXAMPLE_VALUES.length - 1, page.getNumTuples());
+		page.setSlotData(0, data);
+		assertArrayEquals(before.getPageData(), page.getPageData());
+
+		// changing a sibling pointer is not a slot change
+		page.setRightSiblingId(new BTreePageId(pid.getTableId(), 7, BTreePageId.LEAF));
+		assertFalse(page.differsOnlyInSlots(before));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -19,6 +19,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
 public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
@@ -140,6 +141,24 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    @Test public void cleanForEviction() throws Exception {
+        Database.resetBufferPool(4);
+        Transaction t = new Transaction();
+        t.start();
+        HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 4);
+        Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+        Database.getBufferPool().insertTuple(t.getId(), hfd.getId(), Utility.getHeapTuple(1, 2));
+
+        // all four frames are dirty; writing two of them leaves two frames
+        // that can be evicted without a write
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(4, bp.getDirtyPageTable().size());
+        assertEquals(2, bp.cleanForEviction(16, 2));
+        assertEquals(2, bp.getDirtyPageTable().size());
+        assertEquals(0, bp.cleanForEviction(16, 2));
+        t.commit();
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,66 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * Small tables go through the shared pool; large ones get a ring sized
+     * from the pool.
+     */
+    @Test public void forBulkRead() {
+        BufferPool bp = Database.resetBufferPool(100);
+        assertNull(BufferRing.forBulkRead(bp, 25));
+        assertEquals(BufferRing.DEFAULT_SIZE, BufferRing.forBulkRead(bp, 26).size());
+        assertEquals(1, BufferRing.forBulkRead(Database.resetBufferPool(2), 10).size());
+    }
+
+    /**
+     * A scan of a table larger than the pool must not flush out pages that
+     * were already cached.
+     */
+    @Test public void scanKeepsHotPages() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BufferPool bp = Database.resetBufferPool(20);
+        TransactionId tid = new TransactionId();
+
+        PageId hot0 = new HeapPageId(hot.getId(), 0);
+        PageId hot1 = new HeapPageId(hot.getId(), 1);
+        bp.getPage(tid, hot0, Permissions.READ_ONLY);
+        bp.getPage(tid, hot1, Permissions.READ_ONLY);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 40, count);
+
+        bp.resetStats();
+        bp.getPage(tid, hot0, Permissions.READ_ONLY);
+        bp.getPage(tid, hot1, Permissions.READ_ONLY);
+        assertEquals(2, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.ColumnSketch;
+import simpledb.optimizer.HyperLogLog;
+import simpledb.optimizer.IntHistogram;
+import simpledb.optimizer.KllSketch;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ColumnSketchTest extends SimpleDbTestBase {
+
+  @Test public void distinctCount() {
+    HyperLogLog all = new HyperLogLog();
+    HyperLogLog evens = new HyperLogLog();
+    HyperLogLog odds = new HyperLogLog();
+    for (int i = 0; i < 100000; i++) {
+      all.add(i);
+      (i % 2 == 0 ? evens : odds).add(i);
+      all.add(i);
+    }
+    assertEquals(100000, all.estimate(), 5000);
+    assertEquals(50000, evens.estimate(), 2500);
+
+    // the merge of two parts is the sketch of their union
+    evens.merge(odds);
+    assertEquals(all, evens);
+    assertEquals(all, new HyperLogLog(all.getRegisters()));
+
+    HyperLogLog few = new HyperLogLog();
+    for (int i = 0; i < 100; i++) {
+      few.add("value" + i % 37);
+    }
+    assertEquals(37, few.estimate(), 1);
+  }
+
+  /**
+   * The weights of the values a KllSketch keeps add up to the number of
+   * values added, and its ranks are within a few percent, merged or not.
+   */
+  @Test public void quantiles() {
+    Random rand = new Random(7);
+    KllSketch whole = new KllSketch(200, new Random(1));
+    KllSketch[] parts = new KllSketch[4];
+    for (int p = 0; p < parts.length; p++) {
+      parts[p] = new KllSketch(200, new Random(p));
+    }
+    int n = 200000;
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = rand.nextInt(1000000) - 500000;
+      whole.update(values[i]);
+      parts[i % parts.length].update(values[i]);
+    }
+    for (int p = 1; p < parts.length; p++) {
+      parts[0].merge(parts[p]);
+    }
+    Arrays.sort(values);
+
+    for (KllSketch sketch : new KllSketch[] { whole, parts[0] }) {
+      assertEquals(n, sketch.getN());
+      assertTrue(sketch.numRetained() < 1000);
+      long[] weight = new long[1];
+      sketch.visit((v, w) -> weight[0] += w);
+      assertEquals(n, weight[0]);
+      assertEquals(values[0], sketch.quantile(0));
+      assertEquals(values[n - 1], sketch.quantile(1));
+      for (double q = 0.1; q < 1; q += 0.1) {
+        int v = values[(int) (q * n)];
+        assertEquals(q, sketch.rank(v), 0.02);
+        int estimate = sketch.quantile(q);
+        int rank = Math.abs(Arrays.binarySearch(values, estimate));
+        assertEquals(q, (double) rank / n, 0.02);
+      }
+    }
+  }
+
+  /**
+   * A column with few distinct values is counted exactly; one with many is
+   * sketched, and its histogram stays close.
+   */
+  @Test public void columns() {
+    ColumnSketch few = new ColumnSketch(Type.INT_TYPE);
+    ColumnSketch other = new ColumnSketch(Type.INT_TYPE);
+    for (int i = 0; i < 10000; i++) {
+      (i % 3 == 0 ? few : other).add(i % 50);
+    }
+    few.merge(other);
+    assertEquals(10000, few.getCount());
+    assertEquals(50, few.distinctValues());
+    assertEquals(0, few.getMin());
+    assertEquals(49, few.getMax());
+    IntHistogram hist = few.intHistogram(100, few.distinctValues());
+    assertEquals(0.02, hist.estimateSelectivity(Predicate.Op.EQUALS, 7), 0.001);
+
+    ColumnSketch many = new ColumnSketch(Type.INT_TYPE);
+    other = new ColumnSketch(Type.INT_TYPE);
+    for (int i = 0; i < 100000; i++) {
+      (i < 500 ? many : other).add(i);
+    }
+    many.merge(other);
+    assertEquals(100000, many.getCount());
+    assertEquals(100000, many.distinctValues(), 5000);
+    hist = many.intHistogram(100, many.distinctValues());
+    assertEquals(0.25, hist.estimateSelectivity(Predicate.Op.LESS_THAN, 25000), 0.02);
+    assertEquals(0.5, hist.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50000), 0.02);
+
+    ColumnSketch strings = new ColumnSketch(Type.STRING_TYPE);
+    for (int i = 0; i < 3000; i++) {
+      strings.add("name" + i % 300);
+    }
+    assertEquals(300, strings.distinctValues(), 15);
+  }
+
+  /**
+   * TableStats reads a table larger than one thread's share of pages in
+   * ranges and merges them into the same counts as the table has.
+   */
+  @Test public void tableStats() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 200, 5000, null, tuples, "c");
+    Database.getCatalog().addTable(f, "sketched");
+    TableStats stats = new TableStats(f.getId(), 1);
+    assertEquals(504 * 200, stats.totalTuples());
+    assertEquals(5000, stats.distinctValues(0), 250);
+
+    long below = tuples.stream().filter(t -> t.get(1) < 1000).count();
+    double selectivity = stats.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(1000));
+    assertEquals((double) below / tuples.size(), selectivity, 0.02);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnSketchTest.class);
+  }
+}
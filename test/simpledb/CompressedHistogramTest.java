@@ -0,0 +1,212 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.IntHistogram;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class CompressedHistogramTest extends SimpleDbTestBase {
+
+  /**
+   * n values, half of them 7 and the rest spread over [0, range)
+   */
+  private static int[] skewed(int n, int range, long seed) {
+    Random rand = new Random(seed);
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = i % 2 == 0 ? 7 : rand.nextInt(range);
+    }
+    return values;
+  }
+
+  private static IntHistogram compressed(int[] data) {
+    int[] sorted = data.clone();
+    Arrays.sort(sorted);
+    int[] values = new int[sorted.length];
+    long[] counts = new long[sorted.length];
+    int n = 0;
+    for (int v : sorted) {
+      if (n > 0 && values[n - 1] == v) {
+        counts[n - 1]++;
+      } else {
+        values[n] = v;
+        counts[n++] = 1;
+      }
+    }
+    return IntHistogram.compressed(Arrays.copyOf(values, n), Arrays.copyOf(counts, n), 100, n);
+  }
+
+  private static double fraction(int[] data, Predicate.Op op, int v) {
+    int matching = 0;
+    for (int x : data) {
+      if (compare(x, op, v)) {
+        matching++;
+      }
+    }
+    return (double) matching / data.length;
+  }
+
+  private static boolean compare(int x, Predicate.Op op, int v) {
+    switch (op) {
+      case EQUALS: return x == v;
+      case NOT_EQUALS: return x != v;
+      case LESS_THAN: return x < v;
+      case LESS_THAN_OR_EQ: return x <= v;
+      case GREATER_THAN: return x > v;
+      default: return x >= v;
+    }
+  }
+
+  /**
+   * A common value is estimated exactly where fixed-width buckets spread it
+   * over the values around it, and the others stay close.
+   */
+  @Test public void skewedSelectivity() {
+    int[] data = skewed(100000, 10000, 1);
+    IntHistogram fixed = new IntHistogram(100, 0, 9999);
+    for (int v : data) {
+      fixed.addValue(v);
+    }
+    IntHistogram hist = compressed(data);
+    assertTrue(hist.isCompressed());
+
+    assertEquals(fraction(data, Predicate.Op.EQUALS, 7), hist.estimateSelectivity(Predicate.Op.EQUALS, 7), 0.001);
+    assertTrue(fixed.estimateSelectivity(Predicate.Op.EQUALS, 7) < 0.01);
+    assertEquals(fraction(data, Predicate.Op.EQUALS, 5000),
+        hist.estimateSelectivity(Predicate.Op.EQUALS, 5000), 0.0005);
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      for (int v : new int[] { -1, 0, 6, 7, 8, 2500, 5000, 9999, 10000 }) {
+        assertEquals(op + " " + v, fraction(data, op, v), hist.estimateSelectivity(op, v), 0.01);
+      }
+    }
+  }
+
+  private static HeapFile table(int[] column, String name) throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    for (int v : column) {
+      tuples.add(Arrays.asList(v, 0));
+    }
+    File f = File.createTempFile("table", ".dat");
+    f.deleteOnExit();
+    FreeSpaceMap.fileFor(f).deleteOnExit();
+    HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    HeapFile file = Utility.openHeapFile(2, name, f);
+    Database.getCatalog().addTable(file, name);
+    return file;
+  }
+
+  /**
+   * The size of an equality join of skewed columns is estimated from their
+   * common values, and that of columns with no values in common is not
+   * estimated from their sizes alone.
+   */
+  @Test public void joinCardinality() throws Exception {
+    int[] left = skewed(20000, 5000, 2);
+    int[] right = skewed(10000, 5000, 3);
+    int[] disjoint = new int[10000];
+    for (int i = 0; i < disjoint.length; i++) {
+      disjoint[i] = 100000 + i;
+    }
+    Map<String, TableStats> stats = new HashMap<>();
+    Map<String, Integer> aliases = new HashMap<>();
+    for (Object[] t : new Object[][] { { left, "l" }, { right, "r" }, { disjoint, "d" } }) {
+      HeapFile f = table((int[]) t[0], (String) t[1]);
+      stats.put((String) t[1], new TableStats(f.getId(), 1));
+      aliases.put((String) t[1], f.getId());
+    }
+
+    Map<Integer, Integer> rightCounts = new HashMap<>();
+    for (int v : right) {
+      rightCounts.merge(v, 1, Integer::sum);
+    }
+    long actual = 0;
+    for (int v : left) {
+      actual += rightCounts.getOrDefault(v, 0);
+    }
+    int estimate = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "l", "r",
+        "l0", "r0", left.length, right.length, false, false, stats, aliases);
+    assertEquals(actual, estimate, actual * 0.1);
+
+    estimate = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "l", "d",
+        "l0", "d0", left.length, disjoint.length, false, false, stats, aliases);
+    assertEquals(1, estimate);
+  }
+
+  private static HeapFile stringTable(String[] column, String name) throws Exception {
+    File text = File.createTempFile("table", ".txt");
+    text.deleteOnExit();
+    try (PrintWriter out = new PrintWriter(text)) {
+      for (String v : column) {
+        out.println(v);
+      }
+    }
+    File f = File.createTempFile("table", ".dat");
+    f.deleteOnExit();
+    FreeSpaceMap.fileFor(f).deleteOnExit();
+    Type[] types = { Type.STRING_TYPE };
+    HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 1, types, ',');
+    HeapFile file = Utility.openHeapFile(1, name, f, new TupleDesc(types, new String[] { name + "0" }));
+    Database.getCatalog().addTable(file, name);
+    return file;
+  }
+
+  /**
+   * Distinct strings that share a long prefix map to the same integer, so
+   * the size of a join of string keys is estimated from their distinct
+   * counts rather than taken for the join of one common value.
+   */
+  @Test public void stringJoinCardinality() throws Exception {
+    String[] left = new String[4000];
+    for (int i = 0; i < left.length; i++) {
+      left[i] = "customer_key_" + i % 1000;
+    }
+    String[] right = new String[1000];
+    for (int i = 0; i < right.length; i++) {
+      right[i] = "customer_key_" + i;
+    }
+    Map<String, TableStats> stats = new HashMap<>();
+    Map<String, Integer> aliases = new HashMap<>();
+    for (Object[] t : new Object[][] { { left, "sl" }, { right, "sr" } }) {
+      HeapFile f = stringTable((String[]) t[0], (String) t[1]);
+      stats.put((String) t[1], new TableStats(f.getId(), 1));
+      aliases.put((String) t[1], f.getId());
+    }
+
+    // each left tuple matches one right tuple
+    int estimate = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "sl", "sr",
+        "sl0", "sr0", left.length, right.length, false, false, stats, aliases);
+    assertEquals(left.length, estimate, left.length * 0.1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedHistogramTest.class);
+  }
+}
@@ -7,11 +7,15 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
+import simpledb.storage.DeadlockVictimPolicy;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
 import simpledb.transaction.TransactionId;
@@ -219,6 +223,59 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Builds a deadlock where t2 (younger) holds p1.write and t1 (older) only
+   * holds p0.read: t1 attempts p1.write, then t2 attempts p0.write. Returns
+   * the write grabbers of t1 and t2 once one of them has been aborted.
+   */
+  private LockGrabber[] deadlockWithPolicy(DeadlockVictimPolicy policy) throws Exception {
+    bp.setDeadlockVictimPolicy(policy);
+    assertEquals(policy, bp.getDeadlockVictimPolicy());
+
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg1Read0 = startGrabber(tid1, p0, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2Write1.acquired() && lg1Read0.acquired());
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+    for (int i = 0; i < 50; i++) {
+      Thread.sleep(POLL_INTERVAL);
+      if (lg1Write1.getError() != null || lg2Write0.getError() != null) {
+        break;
+      }
+    }
+    return new LockGrabber[] { lg1Write1, lg2Write0 };
+  }
+
+  /**
+   * By default the youngest transaction on the cycle is aborted, and the
+   * other one proceeds without waiting for any timeout.
+   */
+  @Test public void testYoungestVictim() throws Exception {
+    LockGrabber[] lg = deadlockWithPolicy(DeadlockVictimPolicy.YOUNGEST);
+    assertNotNull(lg[1].getError());
+    assertNull(lg[0].getError());
+    lg[0].join(WAIT_INTERVAL);
+    assertTrue(lg[0].acquired());
+    bp.transactionComplete(tid1);
+  }
+
+  /**
+   * With LEAST_WORK the transaction holding no write locks is aborted even
+   * though it is the older one.
+   */
+  @Test public void testLeastWorkVictim() throws Exception {
+    LockGrabber[] lg = deadlockWithPolicy(DeadlockVictimPolicy.LEAST_WORK);
+    assertNotNull(lg[0].getError());
+    assertNull(lg[1].getError());
+    lg[1].join(WAIT_INTERVAL);
+    assertTrue(lg[1].acquired());
+    bp.transactionComplete(tid2);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+  private static File tempFile() throws Exception {
+    File f = File.createTempFile("fsm", ".dat");
+    f.deleteOnExit();
+    FreeSpaceMap.fileFor(f).deleteOnExit();
+    return f;
+  }
+
+  /**
+   * Only pages with free slots are picked, those with the most free space
+   * first.
+   */
+  @Test public void picksPagesWithRoom() throws Exception {
+    FreeSpaceMap map = new FreeSpaceMap(tempFile(), 100);
+    assertEquals(0, map.bucketOf(0));
+    assertEquals(1, map.bucketOf(1));
+    assertEquals(FreeSpaceMap.BUCKETS - 1, map.bucketOf(100));
+
+    for (int page = 0; page < 10; page++) {
+      map.update(page, 0, 10);
+    }
+    assertEquals(-1, map.pickPage(10));
+    map.update(7, 3, 10);
+    assertEquals(7, map.pickPage(10));
+    map.update(4, 100, 10);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(4, map.pickPage(10));
+    }
+    assertEquals(7, map.pickPage(10, new HashSet<>(Collections.singletonList(4))));
+    assertEquals(-1, map.pickPage(10, new HashSet<>(Arrays.asList(4, 7))));
+    map.update(4, 0, 10);
+    map.update(7, 0, 10);
+    assertEquals(-1, map.pickPage(10));
+
+    // pages it has not seen may have room
+    assertEquals(10, map.pickPage(11));
+  }
+
+  /**
+   * The buckets of saved pages are there when the map is loaded again,
+   * once it has been flushed.
+   */
+  @Test public void saved() throws Exception {
+    File f = tempFile();
+    FreeSpaceMap map = new FreeSpaceMap(f, 100);
+    assertTrue(FreeSpaceMap.fileFor(f).exists());
+    for (int page = 0; page < 5; page++) {
+      map.update(page, page == 3 ? 50 : 0, 5);
+      map.save(page);
+    }
+    map.flush();
+    FreeSpaceMap loaded = new FreeSpaceMap(f, 100);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(3, loaded.pickPage(5));
+    }
+
+    // not one whose last pages were saved without a flush
+    File unflushed = tempFile();
+    map = new FreeSpaceMap(unflushed, 100);
+    for (int page = 0; page < 5; page++) {
+      map.update(page, 0, 5);
+      map.save(page);
+    }
+    assertTrue(new FreeSpaceMap(unflushed, 100).pickPage(5) >= 0);
+
+    // nor once the table has changed without it
+    try (FileOutputStream out = new FileOutputStream(f, true)) {
+      out.write(1);
+    }
+    loaded = new FreeSpaceMap(f, 100);
+    boolean others = false;
+    for (int i = 0; i < 50; i++) {
+      others |= loaded.pickPage(5) != 3;
+    }
+    assertTrue(others);
+    assertEquals(0, FreeSpaceMap.fileFor(f).length());
+  }
+
+  /**
+   * The map of a table is not loaded for another table created at the same
+   * path, whose inserts go to the pages with room it has rather than to
+   * new pages.
+   */
+  @Test public void recreatedTable() throws Exception {
+    File file = tempFile();
+    List<List<Integer>> tuples = new ArrayList<>();
+    // 504 tuples of two ints fit on a page: 3 full pages and 4 tuples
+    for (int i = 0; i < 3 * 504 + 4; i++) {
+      tuples.add(Arrays.asList(i, i));
+    }
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    HeapFile old = Utility.openHeapFile(2, "old", file);
+    for (int page = 0; page < old.numPages(); page++) {
+      old.writePage(old.readPage(new HeapPageId(old.getId(), page)));
+    }
+    old.getFreeSpaceMap().flush();
+    assertEquals(3, new FreeSpaceMap(file, HeapPage.slotsPerPage(old.getTupleDesc())).pickPage(4));
+
+    // the same path, with a page that has room where the old table had a
+    // full one
+    HeapFileEncoder.convert(tuples.subList(0, 4), file, BufferPool.getPageSize(), 2);
+    HeapFile f = Utility.openHeapFile(2, "new", file);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 100; i++) {
+      List<Page> pages = f.insertTuple(tid, Utility.getHeapTuple(i, 2));
+      assertEquals(0, pages.get(0).getId().getPageNumber());
+    }
+    assertEquals(1, f.numPages());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Once the map knows the pages of a table, an insert goes to a page with
+   * room rather than to the first page, and one that fills the last page
+   * adds a page.
+   */
+  @Test public void insertsWhereThereIsRoom() throws Exception {
+    // 504 tuples of two ints fit on a page: 3 full pages and 4 tuples
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3 * 504 + 4, null, null);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "");
+    scan.open();
+    while (scan.hasNext()) {
+      scan.next();
+    }
+    scan.close();
+
+    for (int i = 0; i < 500; i++) {
+      List<Page> pages = f.insertTuple(tid, Utility.getHeapTuple(i, 2));
+      assertEquals(3, pages.get(0).getId().getPageNumber());
+    }
+    assertEquals(4, f.numPages());
+    List<Page> pages = f.insertTuple(tid, Utility.getHeapTuple(0, 2));
+    assertEquals(4, pages.get(0).getId().getPageNumber());
+    assertEquals(5, f.numPages());
+    assertTrue(FreeSpaceMap.fileFor(f.getFile()).exists());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+  }
+}
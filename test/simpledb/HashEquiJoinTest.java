@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  private static HashEquiJoin join(OpIterator child1, OpIterator child2) throws Exception {
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), child1, child2);
+    op.open();
+    return op;
+  }
+
+  /**
+   * Tuples come out in the order of child2, and the tuples of child1 that
+   * match one of them in the order of child1.
+   */
+  @Test public void intKeys() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2,
+        new int[] { 1, 10,
+                    2, 20,
+                    1, 11,
+                    3, 30 });
+    OpIterator scan2 = TestUtil.createTupleList(2,
+        new int[] { 3, 300,
+                    4, 400,
+                    1, 100 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 3, 30, 3, 300,
+                    1, 10, 1, 100,
+                    1, 11, 1, 100 });
+    HashEquiJoin op = join(scan1, scan2);
+    TestUtil.compareDbIterators(expected, op);
+
+    // rewinding keeps the table of child1
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * String keys are hashed by their hash code, which "Aa" and "BB" share.
+   */
+  @Test public void stringKeys() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(2,
+        new Object[] { "Aa", 1,
+                       "BB", 2,
+                       "Aa", 3 });
+    OpIterator scan2 = TestUtil.createTupleList(2,
+        new Object[] { "BB", 20,
+                       "Aa", 10,
+                       "C", 30 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new Object[] { "BB", 2, "BB", 20,
+                       "Aa", 1, "Aa", 10,
+                       "Aa", 3, "Aa", 10 });
+    TestUtil.compareDbIterators(expected, join(scan1, scan2));
+  }
+
+  private static int[] randomTuples(int rows, int keys, Random rand) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = rand.nextInt(keys);
+      data[2 * i + 1] = i;
+    }
+    return data;
+  }
+
+  private static List<String> expectedJoin(int[] data1, int[] data2) {
+    List<String> rows = new ArrayList<>();
+    for (int i = 0; i < data1.length; i += 2) {
+      for (int j = 0; j < data2.length; j += 2) {
+        if (data1[i] == data2[j]) {
+          rows.add(data1[i] + " " + data1[i + 1] + " " + data2[j] + " " + data2[j + 1]);
+        }
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static List<String> drain(OpIterator op) throws Exception {
+    List<String> rows = new ArrayList<>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+        sb.append(i == 0 ? "" : " ").append(((IntField) t.getField(i)).getValue());
+      }
+      rows.add(sb.toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * A join whose table does not fit in its memory budget spills partitions
+   * to disk and still returns every matching pair, also after a rewind.
+   */
+  @Test public void spillsOverBudget() throws Exception {
+    Random rand = new Random(1);
+    int[] data1 = randomTuples(5000, 2000, rand);
+    int[] data2 = randomTuples(3000, 2000, rand);
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2));
+    op.setMemoryBudget(8 * 1024);
+    op.open();
+    List<String> expected = expectedJoin(data1, data2);
+    assertEquals(expected, drain(op));
+    assertTrue(op.getSpilledPartitions() > 0);
+
+    op.rewind();
+    assertEquals(expected, drain(op));
+    op.close();
+  }
+
+  /**
+   * Splitting a partition whose tuples all have the same key does not make
+   * it smaller; at the maximum depth it is joined a budget at a time.
+   */
+  @Test public void skewedKey() throws Exception {
+    int[] data1 = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      data1[2 * i] = i < 2900 ? 7 : i;
+      data1[2 * i + 1] = i;
+    }
+    int[] data2 = { 7, 0, 8, 1, 7, 2, 2999, 3 };
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2));
+    op.setMemoryBudget(4 * 1024);
+    op.open();
+    List<String> rows = drain(op);
+    assertEquals(2 * 2900 + 1, rows.size());
+    assertEquals(expectedJoin(data1, data2), rows);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -131,6 +131,37 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getSlotData() and HeapPage.setSlotData()
+     */
+    @Test public void setSlotData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(page.differsOnlyInSlots(before));
+
+        int used = -1, empty = -1;
+        for (int i = 0; i < page.getNumSlots(); i++) {
+            if (page.isSlotUsed(i) && used < 0)
+                used = i;
+            if (!page.isSlotUsed(i) && empty < 0)
+                empty = i;
+        }
+        byte[] data = page.getSlotData(used);
+        assertEquals(Utility.getTupleDesc(2).getSize(), data.length);
+        assertNull(page.getSlotData(empty));
+
+        // move a tuple to an empty slot
+        page.setSlotData(empty, data);
+        page.setSlotData(used, null);
+        assertFalse(page.isSlotUsed(used));
+        assertArrayEquals(data, page.getSlotData(empty));
+
+        // and back
+        page.setSlotData(used, data);
+        page.setSlotData(empty, null);
+        assertArrayEquals(before.getPageData(), page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
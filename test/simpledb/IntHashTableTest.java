@@ -0,0 +1,66 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.IntHashTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+  private static List<Integer> rows(IntHashTable table, int key) {
+    List<Integer> rows = new ArrayList<>();
+    for (int row = table.first(key); row != -1; row = table.next(row)) {
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /**
+   * Rows with the same key come back in the order they were added.
+   */
+  @Test public void chains() {
+    IntHashTable table = new IntHashTable(4);
+    int[] keys = { 5, -3, 5, 0, 5, -3 };
+    for (int row = 0; row < keys.length; row++) {
+      table.add(keys[row], row);
+    }
+    assertEquals(Arrays.asList(0, 2, 4), rows(table, 5));
+    assertEquals(Arrays.asList(1, 5), rows(table, -3));
+    assertEquals(Arrays.asList(3), rows(table, 0));
+    assertEquals(-1, table.first(7));
+    assertEquals(6, table.size());
+    assertEquals(3, table.distinctKeys());
+  }
+
+  /**
+   * The table grows past its expected size, keeping its chains, also for
+   * keys that fall into the same slots.
+   */
+  @Test public void grows() {
+    IntHashTable table = new IntHashTable(16);
+    int n = 100000;
+    for (int row = 0; row < 2 * n; row++) {
+      table.add((row % n) << 10, row);
+    }
+    assertEquals(2 * n, table.size());
+    assertEquals(n, table.distinctKeys());
+    for (int key = 0; key < n; key++) {
+      assertEquals(Arrays.asList(key, key + n), rows(table, key << 10));
+    }
+    assertEquals(-1, table.first(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashTableTest.class);
+  }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static List<int[]> drain(OpIterator op) throws Exception {
+    List<int[]> rows = new ArrayList<>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      rows.add(new int[] { ((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue() });
+    }
+    return rows;
+  }
+
+  private static void assertRows(List<int[]> expected, List<int[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals("row " + i, expected.get(i)[0], actual.get(i)[0]);
+      assertEquals("row " + i, expected.get(i)[1], actual.get(i)[1]);
+    }
+  }
+
+  /**
+   * Tuples equal on the first field are ordered by the second one, each
+   * field in its own direction.
+   */
+  @Test public void multipleFields() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2,
+        new int[] { 2, 1,
+                    1, 5,
+                    2, 3,
+                    1, 7,
+                    3, 0 });
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 3, 0,
+                    2, 3,
+                    2, 1,
+                    1, 7,
+                    1, 5 });
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, false }, scan);
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+
+    OpIterator scan2 = TestUtil.createTupleList(2,
+        new Object[] { "b", 1,
+                       "a", 2,
+                       "b", 0 });
+    OpIterator expected2 = TestUtil.createTupleList(2,
+        new Object[] { "a", 2,
+                       "b", 0,
+                       "b", 1 });
+    OrderBy op2 = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, true }, scan2);
+    op2.open();
+    TestUtil.compareDbIterators(expected2, op2);
+  }
+
+  /**
+   * A sort whose tuples do not fit in its memory budget writes sorted runs
+   * to disk and merges them, in more than one pass if there are more runs
+   * than it can merge at once, and is stable. A rewind merges the runs
+   * again.
+   */
+  @Test public void spillsOverBudget() throws Exception {
+    Random rand = new Random(2);
+    int[] data = new int[2 * 5000];
+    List<int[]> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      data[2 * i] = rand.nextInt(300);
+      data[2 * i + 1] = i;
+      expected.add(new int[] { data[2 * i], i });
+    }
+    expected.sort(Comparator.comparingInt((int[] row) -> row[0]));
+
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    op.setMemoryBudget(8 * 1024);
+    op.open();
+    assertTrue(op.getSpilledRuns() > 2);
+    assertRows(expected, drain(op));
+    op.rewind();
+    assertRows(expected, drain(op));
+    op.close();
+  }
+
+  /**
+   * Strings sort the same whether they are kept in memory or spilled.
+   */
+  @Test public void spilledStrings() throws Exception {
+    Random rand = new Random(3);
+    Object[] data = new Object[2 * 500];
+    for (int i = 0; i < 500; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = rand.nextInt(6); j >= 0; j--) {
+        sb.append((char) ('a' + rand.nextInt(3)));
+      }
+      data[2 * i] = sb.toString();
+      data[2 * i + 1] = i;
+    }
+    OrderBy inMemory = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+        TestUtil.createTupleList(2, data));
+    inMemory.open();
+    OrderBy spilled = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+        TestUtil.createTupleList(2, data));
+    spilled.setMemoryBudget(16 * 1024);
+    spilled.open();
+    assertTrue(spilled.getSpilledRuns() > 0);
+    assertEquals(0, inMemory.getSpilledRuns());
+
+    Tuple last = null;
+    while (inMemory.hasNext()) {
+      Tuple t = inMemory.next();
+      assertTrue(spilled.hasNext());
+      assertTrue(TestUtil.compareTuples(t, spilled.next()));
+      if (last != null) {
+        StringField s = (StringField) t.getField(0);
+        assertTrue(s.getValue().compareTo(((StringField) last.getField(0)).getValue()) <= 0);
+      }
+      last = t;
+    }
+    assertTrue(TestUtil.checkExhausted(spilled));
+    spilled.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
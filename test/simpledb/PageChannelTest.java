@@ -0,0 +1,95 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.EOFException;
+import java.io.File;
+import java.util.Arrays;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+    private static byte[] filled(int len, int value) {
+        byte[] b = new byte[len];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /**
+     * Positional writes and reads round trip, and reads past the end of the
+     * file fail.
+     */
+    @Test public void readWrite() throws Exception {
+        File f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        PageChannel pc = new PageChannel(f);
+        pc.write(100, filled(50, 7));
+        assertEquals(150, pc.size());
+
+        byte[] buf = new byte[50];
+        pc.read(100, buf);
+        assertArrayEquals(filled(50, 7), buf);
+
+        try {
+            pc.read(120, buf);
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+
+        // a closed channel is reopened on its next use
+        pc.close();
+        pc.read(100, buf);
+        assertArrayEquals(filled(50, 7), buf);
+        pc.close();
+    }
+
+    /**
+     * Mapped reads see later writes, including ones that grow the file.
+     */
+    @Test public void mappedReads() throws Exception {
+        File f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        PageChannel pc = new PageChannel(f);
+        pc.setMapped(true);
+        pc.write(0, filled(64, 1));
+
+        byte[] buf = new byte[64];
+        pc.read(0, buf);
+        assertArrayEquals(filled(64, 1), buf);
+
+        pc.write(0, filled(64, 2));
+        pc.write(64, filled(64, 3));
+        pc.read(0, buf);
+        assertArrayEquals(filled(64, 2), buf);
+        pc.read(64, buf);
+        assertArrayEquals(filled(64, 3), buf);
+        pc.close();
+    }
+
+    /**
+     * A memory-mapped HeapFile returns the same pages as a regular one.
+     */
+    @Test public void mappedHeapFile() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        ReadAhead.setEnabled(true);
+    }
+
+    private static void waitForPrefetches(BufferPool bp, long count) throws InterruptedException {
+        for (int i = 0; i < 500 && bp.getPrefetchCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, bp.getPrefetchCount());
+    }
+
+    /**
+     * Read-ahead starts after two sequential pages and the window doubles
+     * while the scan keeps consuming it.
+     */
+    @Test public void windowGrows() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(100);
+        TransactionId tid = new TransactionId();
+        ReadAhead ra = new ReadAhead(bp, null, (pid, page) -> new HeapPageId(pid.getTableId(), pid.getPageNumber() + 1));
+
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            ra.access(pid, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        }
+        assertEquals(ReadAhead.INITIAL_WINDOW, ra.getWindow());
+        waitForPrefetches(bp, 2);
+
+        HeapPageId p2 = new HeapPageId(hf.getId(), 2);
+        ra.access(p2, bp.getPage(tid, p2, Permissions.READ_ONLY));
+        assertEquals(4, ra.getWindow());
+        waitForPrefetches(bp, 5);
+        assertEquals(2, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+
+        // a jump resets the window
+        HeapPageId p10 = new HeapPageId(hf.getId(), 10);
+        ra.access(p10, bp.getPage(tid, p10, Permissions.READ_ONLY));
+        assertEquals(ReadAhead.INITIAL_WINDOW, ra.getWindow());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A full scan reads every page exactly once, either ahead of time or on
+     * a miss.
+     */
+    @Test public void heapScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BufferPool bp = Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 40, count);
+        assertEquals(40, bp.getMissCount() + bp.getPrefetchCount());
+        assertTrue(bp.getPrefetchCount() > 0);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Nothing is read ahead while read-ahead is turned off.
+     */
+    @Test public void disabled() throws Exception {
+        ReadAhead.setEnabled(false);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(500);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertEquals(10, bp.getMissCount());
+        assertEquals(0, bp.getPrefetchCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
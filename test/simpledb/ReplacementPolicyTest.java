@@ -0,0 +1,146 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private PageId[] pids;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        pids = new PageId[8];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(1, i);
+        }
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(3);
+        policy.recordAccess(pids[0]);
+        policy.recordAccess(pids[1]);
+        policy.recordAccess(pids[2]);
+
+        // first sweep clears all reference bits, so the hand lands on page 0
+        assertEquals(pids[0], policy.chooseVictim(pid -> true));
+        policy.remove(pids[0]);
+        policy.recordAccess(pids[3]);
+
+        // page 1 was touched again and survives; page 2 goes
+        policy.recordAccess(pids[1]);
+        assertEquals(pids[2], policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * LRU-K evicts pages referenced fewer than K times first.
+     */
+    @Test public void lruKPrefersColdPages() {
+        ReplacementPolicy policy = new LRUKReplacementPolicy(4, 2);
+        policy.recordAccess(pids[0]);
+        policy.recordAccess(pids[0]);
+        policy.recordAccess(pids[1]);
+        policy.recordAccess(pids[2]);
+        policy.recordAccess(pids[2]);
+
+        assertEquals(pids[1], policy.chooseVictim(pid -> true));
+        assertEquals(pids[0], policy.chooseVictim(pid -> !pid.equals(pids[1])));
+    }
+
+    /**
+     * chooseVictims lists pages in eviction order without evicting them.
+     */
+    @Test public void chooseVictimsInOrder() {
+        ReplacementPolicy policy = new LRUKReplacementPolicy(4, 2);
+        policy.recordAccess(pids[0]);
+        policy.recordAccess(pids[0]);
+        policy.recordAccess(pids[1]);
+        policy.recordAccess(pids[2]);
+        policy.recordAccess(pids[2]);
+        policy.recordAccess(pids[3]);
+
+        assertArrayEquals(new PageId[]{pids[1], pids[3], pids[0]},
+                policy.chooseVictims(3, pid -> true).toArray());
+        assertArrayEquals(new PageId[]{pids[3], pids[2]},
+                policy.chooseVictims(4, pid -> !pid.equals(pids[0]) && !pid.equals(pids[1])).toArray());
+        assertEquals(pids[1], policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * 2Q keeps re-referenced pages in Am while a scan cycles through A1in.
+     */
+    @Test public void twoQScanResistant() {
+        ReplacementPolicy policy = new TwoQReplacementPolicy(4, 1, 4);
+        // pages 0-2 enter A1in, fall out to A1out and come back into Am
+        for (int i = 0; i < 3; i++) {
+            policy.recordAccess(pids[i]);
+            policy.remove(pids[i]);
+            policy.recordAccess(pids[i]);
+        }
+
+        // a scan over the other pages only ever evicts its own pages
+        for (int i = 3; i < pids.length; i++) {
+            if (i > 3) {
+                PageId victim = policy.chooseVictim(pid -> true);
+                assertEquals(pids[i - 1], victim);
+                policy.remove(victim);
+            }
+            policy.recordAccess(pids[i]);
+        }
+    }
+
+    /**
+     * Policies never return a page the caller refuses to evict.
+     */
+    @Test public void respectsEvictable() {
+        ReplacementPolicy[] policies = { new ClockReplacementPolicy(4),
+                new LRUKReplacementPolicy(4), new TwoQReplacementPolicy(4) };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 4; i++) {
+                policy.recordAccess(pids[i]);
+            }
+            assertEquals(pids[3], policy.chooseVictim(pid -> pid.equals(pids[3])));
+            assertNull(policy.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * BufferPool counts hits, misses and evictions.
+     */
+    @Test public void bufferPoolCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 6; i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        assertEquals(6, bp.getMissCount());
+        assertEquals(6, bp.getHitCount());
+        assertEquals(2, bp.getEvictionCount());
+        bp.resetStats();
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
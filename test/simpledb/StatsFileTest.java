@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.StatsFile;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StatsFileTest extends SimpleDbTestBase {
+
+  private File file;
+  private HeapFile table;
+
+  @Before public void createTable() throws Exception {
+    file = File.createTempFile("catalog", ".stats");
+    file.delete();
+    file.deleteOnExit();
+    // 504 tuples of two ints fit on a page
+    table = SystemTestUtil.createRandomHeapFile(2, 504 * 10, 1000, null, null, "c");
+    Database.getCatalog().addTable(table, "persisted");
+  }
+
+  @After public void forget() {
+    TableStats.setStatsFile(null);
+    TableStats.getStatsMap().remove("persisted");
+  }
+
+  private void insert(int tuples) throws Exception {
+    BufferPool pool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < tuples; i++) {
+      pool.insertTuple(tid, table.getId(), Utility.getHeapTuple(i, 2));
+    }
+    pool.transactionComplete(tid);
+  }
+
+  private void delete(int tuples) throws Exception {
+    BufferPool pool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    List<Tuple> deleted = new ArrayList<>();
+    SeqScan scan = new SeqScan(tid, table.getId());
+    scan.open();
+    while (deleted.size() < tuples && scan.hasNext()) {
+      deleted.add(scan.next());
+    }
+    scan.close();
+    for (Tuple t : deleted) {
+      pool.deleteTuple(tid, t);
+    }
+    pool.transactionComplete(tid);
+  }
+
+  // what a restart does to statistics: they are saved when the JVM exits,
+  // and the buffer pool of the next run counts modifications from zero
+  private void restart() {
+    TableStats.saveStatistics();
+    TableStats.getStatsMap().remove("persisted");
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TableStats.setStatsFile(file);
+  }
+
+  /**
+   * Statistics computed on the first lookup are saved on exit rather than
+   * right away, and read back rather than computed again by the first
+   * lookup after a restart.
+   */
+  @Test public void savedAndLoaded() throws Exception {
+    TableStats.setStatsFile(file);
+    TableStats computed = TableStats.getTableStats("persisted");
+    assertEquals(504 * 10, computed.totalTuples());
+    assertTrue(!file.exists());
+    TableStats.saveStatistics();
+    assertTrue(new StatsFile(file).contains("persisted"));
+
+    // a few more tuples do not make the saved statistics out of date
+    insert(10);
+    restart();
+    TableStats loaded = TableStats.getTableStats("persisted");
+    assertNotSame(computed, loaded);
+    assertEquals(504 * 10, loaded.totalTuples());
+    assertEquals(computed.estimateScanCost(), loaded.estimateScanCost(), 0);
+    for (int field = 0; field < 2; field++) {
+      assertEquals(computed.distinctValues(field), loaded.distinctValues(field));
+      for (Predicate.Op op : Predicate.Op.values()) {
+        if (op == Predicate.Op.LIKE) {
+          continue;
+        }
+        for (int v = -100; v < 1100; v += 50) {
+          IntField constant = new IntField(v);
+          assertEquals(computed.estimateSelectivity(field, op, constant),
+              loaded.estimateSelectivity(field, op, constant), 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Saved statistics of a table that has grown since are computed again.
+   */
+  @Test public void outOfDate() throws Exception {
+    TableStats.setStatsFile(file);
+    TableStats.getTableStats("persisted");
+
+    insert(504 * 5);
+    restart();
+    assertEquals(504 * 15, TableStats.getTableStats("persisted").totalTuples());
+
+    // and saved again
+    restart();
+    assertEquals(504 * 15, TableStats.getTableStats("persisted").totalTuples());
+  }
+
+  /**
+   * Tuples deleted over several runs, which leave the table its pages, add
+   * up until the saved statistics are out of date and computed again.
+   */
+  @Test public void modifiedOverRestarts() throws Exception {
+    TableStats.setStatsFile(file);
+    TableStats.getTableStats("persisted");
+    restart();
+
+    delete(600);
+    restart();
+    assertEquals(600, new StatsFile(file).getModifications("persisted"));
+    assertEquals(504 * 10, TableStats.getTableStats("persisted").totalTuples());
+
+    delete(600);
+    restart();
+    assertEquals(504 * 10 - 1200, TableStats.getTableStats("persisted").totalTuples());
+    assertEquals(10, table.numPages());
+
+    // and saved again, with no modifications since
+    restart();
+    assertEquals(0, new StatsFile(file).getModifications("persisted"));
+    assertEquals(504 * 10 - 1200, TableStats.getTableStats("persisted").totalTuples());
+  }
+
+  /**
+   * A transaction that has changed a table, and holds locks on its pages,
+   * plans and runs a query over it while its statistics are computed on
+   * the first lookup.
+   */
+  @Test(timeout = 60000) public void plannedWhileModified() throws Exception {
+    TableStats.setStatsFile(file);
+    BufferPool pool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 10; i++) {
+      pool.insertTuple(tid, table.getId(), Utility.getHeapTuple(i, 2));
+    }
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM persisted;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(TableStats.getStatsMap().containsKey("persisted"));
+
+    plan.open();
+    int tuples = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      tuples++;
+    }
+    plan.close();
+    pool.transactionComplete(tid);
+    assertEquals(504 * 10 + 10, tuples);
+  }
+
+  /**
+   * A stats file that cannot be read has no statistics.
+   */
+  @Test public void unreadable() throws Exception {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7 });
+    }
+    assertTrue(!new StatsFile(file).contains("persisted"));
+    TableStats.setStatsFile(file);
+    assertEquals(504 * 10, TableStats.getTableStats("persisted").totalTuples());
+    TableStats.saveStatistics();
+    assertTrue(new StatsFile(file).contains("persisted"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StatsFileTest.class);
+  }
+}
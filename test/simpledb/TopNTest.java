@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Project;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private static List<List<Integer>> drain(OpIterator op) throws Exception {
+    List<List<Integer>> rows = new ArrayList<>();
+    op.open();
+    while (op.hasNext()) {
+      rows.add(SystemTestUtil.tupleToList(op.next()));
+    }
+    op.close();
+    return rows;
+  }
+
+  /**
+   * TopN returns the first tuples OrderBy returns, in the same order, ties
+   * included.
+   */
+  @Test public void firstTuplesOfOrderBy() throws Exception {
+    Random rand = new Random(4);
+    int[] data = new int[3 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      data[3 * i] = rand.nextInt(20);
+      data[3 * i + 1] = rand.nextInt(50);
+      data[3 * i + 2] = i;
+    }
+    int[] fields = { 0, 1 };
+    boolean[] asc = { true, false };
+    List<List<Integer>> sorted = drain(new OrderBy(fields, asc, TestUtil.createTupleList(3, data)));
+    for (int limit : new int[] { 0, 1, 7, 100, 2999, 3000, 5000 }) {
+      TopN op = new TopN(fields, asc, limit, TestUtil.createTupleList(3, data));
+      assertEquals("limit " + limit, sorted.subList(0, Math.min(limit, sorted.size())), drain(op));
+    }
+  }
+
+  @Test public void rewind() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2,
+        new Object[] { "b", 1,
+                       "a", 2,
+                       "c", 0,
+                       "a", 1 });
+    OpIterator expected = TestUtil.createTupleList(2,
+        new Object[] { "c", 0,
+                       "b", 1 });
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { false }, 2, scan);
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  private static OpIterator plan(String sql, TransactionId tid) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+  }
+
+  /**
+   * The planner replaces an ORDER BY followed by a LIMIT with a TopN, and
+   * plans a LIMIT without an ORDER BY as a Limit.
+   */
+  @Test public void planned() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+
+    OpIterator topN = plan("SELECT t.c0, t.c1 FROM t ORDER BY t.c0 DESC, t.c1 LIMIT 10;", tid);
+    assertTrue(topN instanceof Project);
+    assertTrue(((Project) topN).getChildren()[0] instanceof TopN);
+    List<List<Integer>> expected = new ArrayList<>(tuples);
+    expected.sort((x, y) -> !x.get(0).equals(y.get(0)) ? y.get(0) - x.get(0) : x.get(1) - y.get(1));
+    assertEquals(expected.subList(0, 10), drain(topN));
+
+    OpIterator limit = plan("select * from t limit 3;", tid);
+    assertTrue(((Project) limit).getChildren()[0] instanceof Limit);
+    assertEquals(tuples.subList(0, 3), drain(limit));
+
+    OpIterator orderBy = plan("SELECT t.c0 FROM t ORDER BY t.c0;", tid);
+    assertTrue(((Project) orderBy).getChildren()[0] instanceof OrderBy);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
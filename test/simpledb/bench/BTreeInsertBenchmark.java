@@ -0,0 +1,87 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of concurrent B+ tree inserts with different
+ * numbers of threads. Each thread inserts random keys into one shared index,
+ * one transaction per tuple, and retries the transactions that are aborted
+ * to break deadlocks.
+ * <p>
+ * Usage: java simpledb.bench.BTreeInsertBenchmark [tuplesPerRun] [maxThreads]
+ */
+public class BTreeInsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tuples = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            run(tuples, threads);
+        }
+        if (Integer.bitCount(maxThreads) != 1) {
+            run(tuples, maxThreads);
+        }
+    }
+
+    private static void run(int tuples, int threads) throws Exception {
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 20);
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        AtomicLong aborts = new AtomicLong();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int n = tuples / threads;
+            final Random rand = new Random(i);
+            workers.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < n; j++) {
+                        int key = rand.nextInt(Integer.MAX_VALUE);
+                        while (!insert(bf, key)) {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%2d threads %8.0f inserts/s %6d aborts%n",
+                threads, tuples / (nanos / 1e9), aborts.get());
+    }
+
+    private static boolean insert(BTreeFile bf, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+            Database.getBufferPool().transactionComplete(tid);
+            return true;
+        } catch (TransactionAbortedException e) {
+            Database.getBufferPool().transactionComplete(tid, false);
+            return false;
+        }
+    }
+}
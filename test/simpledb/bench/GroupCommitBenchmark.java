@@ -0,0 +1,72 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures commit throughput with and without group commit. Every thread
+ * runs small transactions that each insert one tuple into a table of its
+ * own, so the threads only contend on the log.
+ * <p>
+ * Usage: java simpledb.bench.GroupCommitBenchmark [threads] [txnsPerThread]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int txns = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.printf("%d threads x %d transactions%n", threads, txns);
+        run("no group commit", threads, txns, false);
+        run("group commit", threads, txns, true);
+    }
+
+    private static void run(String name, int threads, int txns, boolean group) throws Exception {
+        Database.reset();
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            File f = File.createTempFile("groupcommit", ".dat");
+            f.deleteOnExit();
+            FreeSpaceMap.fileFor(f).deleteOnExit();
+            tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+        }
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(group);
+        long forcesBefore = log.getForceCount();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            HeapFile hf = tables.get(i);
+            workers.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < txns; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(j, 2));
+                        t.commit();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long nanos = System.nanoTime() - start;
+
+        int commits = threads * txns;
+        System.out.printf("%-16s %8.0f commits/s %8d fsyncs%n", name,
+                commits / (nanos / 1e9), log.getForceCount() - forcesBefore);
+    }
+}
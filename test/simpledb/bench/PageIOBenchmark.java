@@ -0,0 +1,91 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Compares the page read paths of HeapFile: a fresh RandomAccessFile per
+ * page (the old implementation), positional reads on a shared PageChannel,
+ * and memory-mapped reads. Each variant first fetches the raw bytes of every
+ * page, then runs a full scan through a cold buffer pool, which also pays
+ * for building the pages.
+ * <p>
+ * Usage: java simpledb.bench.PageIOBenchmark [numPages] [rounds]
+ */
+public class PageIOBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // 504 two-column tuples fill a 4096 byte page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * numPages, null, null);
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        mapped.setMemoryMapped(true);
+        Database.getCatalog().addTable(mapped, "mapped");
+
+        System.out.printf("%d pages, best of %d rounds%n", hf.numPages(), rounds);
+        PageChannel channel = new PageChannel(hf.getFile());
+        PageChannel mappedChannel = new PageChannel(hf.getFile());
+        mappedChannel.setMapped(true);
+        report("open/seek/read/close per page", hf.numPages(), best(rounds, () -> readLegacy(hf)));
+        report("positional reads", hf.numPages(), best(rounds, () -> readAll(channel, hf.numPages())));
+        report("memory-mapped reads", hf.numPages(), best(rounds, () -> readAll(mappedChannel, hf.numPages())));
+        report("scan, positional reads", hf.numPages(), best(rounds, () -> scan(hf)));
+        report("scan, memory-mapped reads", hf.numPages(), best(rounds, () -> scan(mapped)));
+    }
+
+    private interface Round {
+        void run() throws Exception;
+    }
+
+    private static long best(int rounds, Round r) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            r.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(String name, int numPages, long nanos) {
+        System.out.printf("%-30s %8.1f ms %10.0f pages/s%n", name, nanos / 1e6, numPages / (nanos / 1e9));
+    }
+
+    private static void readLegacy(HeapFile hf) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < hf.numPages(); i++) {
+            try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r")) {
+                byte[] bytes = new byte[pageSize];
+                raf.seek((long) i * pageSize);
+                raf.readFully(bytes);
+            }
+        }
+    }
+
+    private static void readAll(PageChannel channel, int numPages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < numPages; i++) {
+            byte[] bytes = new byte[pageSize];
+            channel.read((long) i * pageSize, bytes);
+        }
+    }
+
+    private static void scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares running a filter and project plan over a table a tuple at a time
+ * and a batch at a time, summing the result column. The table fits in the
+ * buffer pool, so the runs after the first measure the operators rather
+ * than the disk.
+ * <p>
+ * Usage: java simpledb.bench.QueryExecutionBenchmark [rows] [runs]
+ */
+public class QueryExecutionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random rand = new Random(0);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Arrays.asList(rand.nextInt(1000), rand.nextInt(1000), rand.nextInt(1000)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 3);
+        Database.resetBufferPool(rows / 300 + 100);
+        HeapFile table = Utility.openHeapFile(3, f);
+
+        for (int run = 0; run < runs; run++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            Project rowPlan = plan(tid, table);
+            rowPlan.open();
+            long rowResult = 0;
+            while (rowPlan.hasNext()) {
+                rowResult += ((IntField) rowPlan.next().getField(0)).getValue();
+            }
+            rowPlan.close();
+            long rowNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Project batchPlan = plan(tid, table);
+            batchPlan.open();
+            long batchResult = 0;
+            TupleBatch b;
+            while ((b = batchPlan.nextBatch()) != null) {
+                int[] values = b.getIntColumn(0);
+                for (int i = 0; i < b.numRows(); i++) {
+                    batchResult += values[b.row(i)];
+                }
+            }
+            batchPlan.close();
+            long batchNanos = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+
+            if (rowResult != batchResult) {
+                throw new IllegalStateException(rowResult + " != " + batchResult);
+            }
+            System.out.printf("run %d: tuples %6.1f ms, batches %6.1f ms%n",
+                    run, rowNanos / 1e6, batchNanos / 1e6);
+        }
+    }
+
+    // SELECT field2 FROM t WHERE field0 < 500 AND field1 >= 250
+    private static Project plan(TransactionId tid, HeapFile table) {
+        OpIterator scan = new SeqScan(tid, table.getId(), "t");
+        Filter f1 = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)), scan);
+        Filter f2 = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250)), f1);
+        return new Project(Arrays.asList(2), new Type[]{Type.INT_TYPE}, f2);
+    }
+}
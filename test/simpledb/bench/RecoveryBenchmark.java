@@ -0,0 +1,122 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures crash recovery time with different numbers of recovery threads.
+ * It writes a synthetic log straight through LogFile: transactions that each
+ * rewrite every slot of a few random pages of many tables, all but the last
+ * few committed, and no checkpoint, so that recovery redoes the whole log
+ * and undoes the open transactions.  Then it recovers from that log once per
+ * thread count.
+ * <p>
+ * Usage: java simpledb.bench.RecoveryBenchmark [logMegabytes] [tables] [pagesPerTable]
+ */
+public class RecoveryBenchmark {
+
+    private static final int PAGES_PER_TXN = 8;
+    private static final int OPEN_TXNS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int numTables = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int pagesPerTable = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < numTables; i++) {
+            File f = File.createTempFile("recovery", ".dat");
+            f.deleteOnExit();
+            FreeSpaceMap.fileFor(f).deleteOnExit();
+            try (FileOutputStream out = new FileOutputStream(f)) {
+                for (int j = 0; j < pagesPerTable; j++) {
+                    out.write(HeapPage.createEmptyPageData());
+                }
+            }
+            files.add(f);
+        }
+
+        long logBytes = writeLog(files, pagesPerTable, megabytes * 1024L * 1024L);
+        System.out.printf("log: %d MB, %d tables x %d pages%n", logBytes / (1024 * 1024), numTables, pagesPerTable);
+
+        int max = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= max; threads *= 2) {
+            recover(files, threads);
+        }
+        if (Integer.bitCount(max) != 1) {
+            recover(files, max);
+        }
+    }
+
+    private static List<HeapFile> openTables(List<File> files) {
+        List<HeapFile> tables = new ArrayList<>();
+        for (File f : files) {
+            tables.add(Utility.openHeapFile(2, f));
+        }
+        return tables;
+    }
+
+    private static long writeLog(List<File> files, int pagesPerTable, long bytes) throws IOException {
+        Database.reset();
+        List<HeapFile> tables = openTables(files);
+        LogFile log = Database.getLogFile();
+        Random rand = new Random(0);
+        byte[][][] pages = new byte[tables.size()][pagesPerTable][];
+        while (log.getNextLSN() < bytes) {
+            writeTxn(log, tables, pages, rand, true);
+        }
+        // a few transactions are still running at the crash
+        for (int i = 0; i < OPEN_TXNS; i++) {
+            writeTxn(log, tables, pages, rand, false);
+        }
+        log.force();
+        return log.getNextLSN();
+    }
+
+    private static void writeTxn(LogFile log, List<HeapFile> tables, byte[][][] pages, Random rand, boolean commit)
+            throws IOException {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < PAGES_PER_TXN; i++) {
+            int t = rand.nextInt(tables.size());
+            int p = rand.nextInt(pages[t].length);
+            HeapPageId pid = new HeapPageId(tables.get(t).getId(), p);
+            byte[] data = pages[t][p] != null ? pages[t][p] : HeapPage.createEmptyPageData();
+            HeapPage before = new HeapPage(pid, data);
+            HeapPage after = new HeapPage(pid, data);
+            for (int s = 0; s < after.getNumSlots(); s++) {
+                after.setSlotData(s, ByteBuffer.allocate(8).putInt(rand.nextInt()).putInt(s).array());
+            }
+            log.logWrite(tid, before, after);
+            pages[t][p] = after.getPageData();
+        }
+        if (commit) {
+            log.logCommit(tid);
+        }
+    }
+
+    private static void recover(List<File> files, int threads) throws IOException {
+        Database.reset();
+        openTables(files);
+        LogFile log = Database.getLogFile();
+        log.setRecoveryThreads(threads);
+        long start = System.nanoTime();
+        log.recover();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%2d threads %8.0f ms%n", threads, nanos / 1e6);
+    }
+}
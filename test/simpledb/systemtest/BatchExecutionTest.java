@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the batch interface of the operators returns the same tuples as
+ * the tuple at a time interface.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    private static List<List<Integer>> rows(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.close();
+        return rows;
+    }
+
+    private static List<List<Integer>> batches(BatchOpIterator op)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        op.open();
+        TupleBatch b;
+        while ((b = op.nextBatch()) != null) {
+            assertTrue(b.numRows() > 0);
+            assertTrue(b.numRows() <= TupleBatch.DEFAULT_SIZE);
+            for (int i = 0; i < b.numRows(); i++) {
+                rows.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+            }
+        }
+        op.close();
+        return rows;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        rows.sort((x, y) -> x.toString().compareTo(y.toString()));
+        return rows;
+    }
+
+    private static HeapFile createTable(int rows, int maxValue) throws IOException {
+        return SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, new ArrayList<>());
+    }
+
+    @Test public void scan() throws Exception {
+        HeapFile f = createTable(3000, 1000);
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, f.getId(), "t");
+        try {
+            ss.nextBatch();
+            fail("nextBatch before open");
+        } catch (IllegalStateException expected) {
+        }
+        ss.open();
+        TupleBatch b = ss.nextBatch();
+        assertEquals(TupleBatch.DEFAULT_SIZE, b.numRows());
+        assertNull(b.getSelection());
+        assertNotNull(b.getRecordId(0));
+        assertEquals(ss.getTupleDesc(), b.getTupleDesc());
+        ss.close();
+
+        assertEquals(rows(new SeqScan(tid, f.getId(), "t")), batches(new SeqScan(tid, f.getId(), "t")));
+
+        // tuples before a batch are not in it
+        ss.open();
+        Tuple first = ss.next();
+        b = ss.nextBatch();
+        assertNotEquals(first.getRecordId(), b.getRecordId(0));
+        assertEquals(TupleBatch.DEFAULT_SIZE, b.numRows());
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void filterSelectsRows() throws Exception {
+        HeapFile f = createTable(3000, 1000);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300));
+        List<List<Integer>> expected = rows(new Filter(p, new SeqScan(tid, f.getId(), "")));
+        assertEquals(expected, batches(new Filter(p, new SeqScan(tid, f.getId(), ""))));
+
+        Filter filter = new Filter(p, new SeqScan(tid, f.getId(), ""));
+        filter.open();
+        TupleBatch b = filter.nextBatch();
+        assertNotNull(b.getSelection());
+        assertTrue(b.numRows() < b.size());
+        for (int i = 0; i < b.numRows(); i++) {
+            assertTrue(b.getInt(1, b.row(i)) < 300);
+        }
+        filter.close();
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate q = new Predicate(0, op, new IntField(500));
+            assertEquals(rows(new Filter(q, new SeqScan(tid, f.getId(), ""))),
+                    batches(new Filter(q, new SeqScan(tid, f.getId(), ""))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void project() throws Exception {
+        HeapFile f = createTable(3000, 1000);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(700));
+        List<Integer> fields = Arrays.asList(1, 0, 1);
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+        List<List<Integer>> expected = rows(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, f.getId(), ""))));
+        assertEquals(expected, batches(new Project(fields, types,
+                new Filter(p, new SeqScan(tid, f.getId(), "")))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The join returns the same tuples in the same order, also after a
+     * rewind.
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        HeapFile f1 = createTable(21000, 1000);
+        HeapFile f2 = createTable(50, 1000);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        List<List<Integer>> expected = rows(new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, batches(new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"))));
+
+        HashEquiJoin join = new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+        join.open();
+        join.nextBatch();
+        join.rewind();
+        List<List<Integer>> again = new ArrayList<>();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            for (int i = 0; i < b.numRows(); i++) {
+                again.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+            }
+        }
+        join.close();
+        assertEquals(expected, again);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void aggregate() throws Exception {
+        HeapFile f = createTable(3000, 100);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.AVG}) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                assertEquals(sorted(rows(new Aggregate(new SeqScan(tid, f.getId(), ""), 1, gfield, op))),
+                        sorted(batches(new Aggregate(new SeqScan(tid, f.getId(), ""), 1, gfield, op))));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Batch operators read from tuple at a time operators, and tuple at a
+     * time consumers read the batches of batch operators.
+     */
+    @Test public void adapters() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            Tuple t = new Tuple(SystemTestUtil.SINGLE_INT_DESCRIPTOR);
+            t.setField(0, new IntField(i));
+            tuples.add(t);
+            if (i % 3 == 0) {
+                expected.add(Collections.singletonList(i));
+            }
+        }
+        TupleIterator source = new TupleIterator(SystemTestUtil.SINGLE_INT_DESCRIPTOR, tuples);
+        assertFalse(BatchOpIterator.of(source) == source);
+        assertTrue(BatchOpIterator.of(new Filter(null, source)) instanceof Filter);
+
+        // TupleIterator only returns tuples one at a time
+        Predicate everyThird = new Predicate(0, Predicate.Op.EQUALS, new IntField(0)) {
+            @Override
+            public int filter(TupleBatch batch, int[] rows) {
+                int count = 0;
+                for (int i = 0; i < batch.numRows(); i++) {
+                    if (batch.getInt(0, batch.row(i)) % 3 == 0) {
+                        rows[count++] = batch.row(i);
+                    }
+                }
+                return count;
+            }
+        };
+        Filter filter = new Filter(everyThird, source);
+        assertEquals(expected, batches(filter));
+        assertEquals(expected, rows(new BatchRowAdapter(new Filter(everyThird, source))));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -1,7 +1,9 @@
 package simpledb.systemtest;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -14,6 +16,7 @@ import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import static org.junit.Assert.*;
 
@@ -436,6 +439,378 @@ public class LogTest extends SimpleDbTestBase {
     }
 
 
+    @Test public void TestGroupCommit()
+            throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // concurrent commits share fsyncs, and what they committed
+        // survives a crash
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(true);
+        log.setGroupCommitLimits(200000, 8);
+        long forcesBefore = log.getForceCount();
+
+        final int COMMITTERS = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < COMMITTERS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    Transaction t = new Transaction();
+                    t.start();
+                    t.commit();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread th : threads)
+            th.start();
+        for (Thread th : threads)
+            th.join();
+        assertTrue(errors.isEmpty());
+        assertTrue(log.getForceCount() - forcesBefore < COMMITTERS);
+
+        doInsert(hf2, 21, 22);
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf2, t, 21, true);
+        look(hf2, t, 22, true);
+        t.commit();
+    }
+
+    @Test(timeout = 60000) public void TestAppendDuringForce()
+            throws Exception {
+        // *** Test:
+        // while a group commit leader fsyncs the log, another commit
+        // appends its record and waits for the next fsync, and other
+        // records are appended without waiting for either
+        File f = File.createTempFile("log", ".dat");
+        f.deleteOnExit();
+        final CountDownLatch syncing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LogFile log = new LogFile(f) {
+            @Override
+            protected void sync(FileChannel channel) throws IOException {
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.sync(channel);
+            }
+        };
+        log.setGroupCommit(true);
+        log.setGroupCommitLimits(0, 1);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t1);
+        log.logXactionBegin(t2);
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread leader = new Thread(() -> {
+            try {
+                log.logCommit(t1);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        leader.start();
+        syncing.await();
+        Thread follower = new Thread(() -> {
+            try {
+                log.logCommit(t2);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        follower.start();
+        while (follower.getState() != Thread.State.WAITING && follower.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+
+        log.logXactionBegin(new TransactionId());
+        assertEquals(0, log.getForceCount());
+        assertTrue(log.getFlushedLSN() < log.getLastLSN());
+
+        release.countDown();
+        leader.join();
+        follower.join();
+        assertTrue(errors.isEmpty());
+        assertEquals(2, log.getForceCount());
+        log.force();
+        assertEquals(log.getLastLSN(), log.getFlushedLSN());
+    }
+
+    @Test public void TestBufferedLog()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // log records are buffered until forced, and a page is only
+        // written once the log is on disk up to its LSN
+        LogFile log = Database.getLogFile();
+        long writesBefore = log.getBufferWriteCount();
+        Transaction t1 = new Transaction();
+        t1.start();
+        long begin = log.getLastLSN();
+        assertTrue(log.getFlushedLSN() < begin);
+        assertEquals(writesBefore, log.getBufferWriteCount());
+
+        insertRow(hf1, t1, 3);
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        Page p = Database.getBufferPool().getPage(t1.getId(), pid, Permissions.READ_ONLY);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(p.getLSN() > begin);
+        assertEquals(p.getLSN(), log.getLastLSN());
+        assertTrue(log.getFlushedLSN() >= p.getLSN());
+        assertEquals(writesBefore + 1, log.getBufferWriteCount());
+        t1.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        t.commit();
+    }
+
+    // number of tuples in the on-disk version of a page
+    int tuplesOnDisk(HeapFile hf, HeapPageId pid) {
+        int n = 0;
+        Iterator<Tuple> it = ((HeapPage) hf.readPage(pid)).iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    @Test public void TestFuzzyCheckpoint()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a checkpoint does not write dirty pages, and recovery from it
+        // still works
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getBufferPool().getDirtyPageTable().containsKey(pid));
+        assertEquals(2, tuplesOnDisk(hf1, pid));
+
+        doInsert(hf2, 4, 5);
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf2, t, 4, true);
+        look(hf2, t, 5, true);
+        t.commit();
+    }
+
+    @Test public void TestPageCleaner()
+            throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the cleaner writes the pages of a running transaction, and
+        // recovery undoes them
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+
+        PageCleaner cleaner = new PageCleaner(Database.getBufferPool(), 10, 16);
+        cleaner.start();
+        for (int i = 0; i < 500 && !Database.getBufferPool().getDirtyPageTable().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        cleaner.shutdown();
+        assertEquals(1, cleaner.getCleanedCount());
+        assertTrue(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        assertEquals(3, tuplesOnDisk(hf1, pid));
+
+        Database.getLogFile().logCheckpoint();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        t.commit();
+    }
+
+    @Test public void TestCleanThenAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a transaction whose pages were cleaned can still abort
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        assertEquals(1, Database.getBufferPool().cleanPages(16));
+        assertEquals(3, tuplesOnDisk(hf1, pid));
+        t1.abort();
+        assertEquals(2, tuplesOnDisk(hf1, pid));
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        t.commit();
+    }
+
+    @Test public void TestSlotRecords()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a one-tuple change to a heap page is logged slot by slot, in far
+        // less than a page image, and still redone after a crash
+        LogFile log = Database.getLogFile();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        long start = log.getNextLSN();
+        Database.getBufferPool().flushPages(t1.getId());
+        long logged = log.getNextLSN() - start;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 20);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 4);
+        insertRow(hf2, t2, 5);
+        Database.getBufferPool().flushAllPages();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        look(hf2, t, 5, false);
+        t.commit();
+    }
+
+    @Test public void TestRowWritersCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // two transactions change the same heap page under row locks; only
+        // the committed one's row survives a crash, even though the page
+        // reached the disk with both changes
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t1, 3);
+        insertRow(hf1, t2, 4);
+        t2.commit();
+        Database.getBufferPool().flushAllPages();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, true);
+        t.commit();
+    }
+
+    @Test public void TestParallelRecovery()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // recovery with several threads redoes changes spread over many
+        // pages and undoes an abort and two open transactions
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 1500; i++) {
+            Database.getBufferPool().insertTuple(t1.getId(), hf1.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        for (int i = 1500; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(t2.getId(), hf1.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushPages(t2.getId());
+        t2.abort();
+
+        Database.getLogFile().logCheckpoint();
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        for (int i = 2000; i < 2600; i++) {
+            Database.getBufferPool().insertTuple(t3.getId(), hf2.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t3.commit();
+
+        Transaction t4 = new Transaction();
+        t4.start();
+        insertRow(hf1, t4, 3000);
+        Transaction t5 = new Transaction();
+        t5.start();
+        insertRow(hf2, t5, 3001);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().setRecoveryThreads(4);
+        Database.getLogFile().recover();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 0, true);
+        look(hf1, t, 1499, true);
+        look(hf1, t, 1500, false);
+        look(hf1, t, 1999, false);
+        look(hf2, t, 2000, true);
+        look(hf2, t, 2599, true);
+        look(hf1, t, 3000, false);
+        look(hf2, t, 3001, false);
+        int n = 0;
+        for (int i = 0; i < hf1.numPages(); i++) {
+            n += tuplesOnDisk(hf1, new HeapPageId(hf1.getId(), i));
+        }
+        assertEquals(1500, n);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
@@ -10,6 +10,7 @@ import org.junit.Test;
 import simpledb.storage.BufferPool;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.storage.FreeSpaceMap;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
 import simpledb.Parser;
@@ -31,6 +32,7 @@ public class QueryTest {
 	public static HeapFile createDuplicateHeapFile(List<List<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.fileFor(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -0,0 +1,252 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests hierarchical and row-level locking of heap files.
+ */
+public class RowLockingTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private ExecutorService exec;
+
+    @Before public void setUp() throws IOException {
+        f = SystemTestUtil.createRandomHeapFile(2, 10, null, new ArrayList<>());
+        exec = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() {
+        exec.shutdownNow();
+    }
+
+    private List<Tuple> scan(Transaction t) throws DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            tuples.add(ss.next());
+        }
+        ss.close();
+        return tuples;
+    }
+
+    private int count(Transaction t) throws DbException, TransactionAbortedException {
+        return scan(t).size();
+    }
+
+    private static boolean finishes(Future<?> f) throws Exception {
+        try {
+            f.get(500, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Two transactions delete different rows of the same page without
+     * waiting for each other.
+     */
+    @Test public void writersShareAPage() throws Exception {
+        Transaction r = new Transaction();
+        r.start();
+        List<Tuple> rows = scan(r);
+        r.commit();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().deleteTuple(t1.getId(), rows.get(0));
+        assertTrue(finishes(exec.submit(() -> {
+            Database.getBufferPool().deleteTuple(t2.getId(), rows.get(1));
+            return null;
+        })));
+        PageId pid = rows.get(0).getRecordId().getPageId();
+        assertTrue(Database.getBufferPool().holdsLock(t1.getId(), pid));
+        assertTrue(Database.getBufferPool().holdsLock(t2.getId(), pid));
+        t1.commit();
+        t2.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(8, count(t));
+        t.commit();
+    }
+
+    /**
+     * A second writer of the same row waits until the first commits.
+     */
+    @Test public void sameRowBlocks() throws Exception {
+        Transaction r = new Transaction();
+        r.start();
+        Tuple row = scan(r).get(0);
+        r.commit();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().lockTuple(t1.getId(), row.getRecordId(), Permissions.READ_WRITE);
+        Future<?> second = exec.submit(() -> {
+            Database.getBufferPool().lockTuple(t2.getId(), row.getRecordId(), Permissions.READ_WRITE);
+            return null;
+        });
+        assertFalse(finishes(second));
+        t1.commit();
+        second.get(10, TimeUnit.SECONDS);
+        t2.commit();
+    }
+
+    /**
+     * An insert does not reuse a slot that an uncommitted delete freed, so
+     * that the delete can still be rolled back.
+     */
+    @Test public void freedSlotIsNotReused() throws Exception {
+        Transaction r = new Transaction();
+        r.start();
+        Tuple row = scan(r).get(0);
+        r.commit();
+
+        Transaction deleter = new Transaction();
+        deleter.start();
+        Database.getBufferPool().deleteTuple(deleter.getId(), row);
+        Transaction inserter = new Transaction();
+        inserter.start();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        Database.getBufferPool().insertTuple(inserter.getId(), f.getId(), t);
+        assertNotEquals(row.getRecordId(), t.getRecordId());
+        deleter.abort();
+        inserter.commit();
+
+        Transaction check = new Transaction();
+        check.start();
+        assertEquals(11, count(check));
+        check.commit();
+    }
+
+    /**
+     * A page whose only free slot an uncommitted delete holds is skipped by
+     * an insert, but not taken to be full, so that inserts can use the slot
+     * once the delete commits.
+     */
+    @Test public void heldSlotKeepsItsRoom() throws Exception {
+        // 504 tuples of two ints fit on a page
+        f = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        Transaction r = new Transaction();
+        r.start();
+        Tuple row = scan(r).get(0);
+        r.commit();
+
+        Transaction deleter = new Transaction();
+        deleter.start();
+        Database.getBufferPool().deleteTuple(deleter.getId(), row);
+        Transaction inserter = new Transaction();
+        inserter.start();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        Database.getBufferPool().insertTuple(inserter.getId(), f.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(0, f.getFreeSpaceMap().pickPage(f.numPages(), Collections.singleton(1)));
+        deleter.commit();
+        inserter.commit();
+    }
+
+    /**
+     * Aborting one writer of a page keeps the changes of the other.
+     */
+    @Test public void abortKeepsOtherRows() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().insertTuple(t1.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().insertTuple(t2.getId(), f.getId(), Utility.getHeapTuple(-2, 2));
+        t1.abort();
+        t2.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        List<Integer> values = new ArrayList<>();
+        for (Tuple tup : scan(t)) {
+            values.add(((IntField) tup.getField(0)).getValue());
+        }
+        t.commit();
+        assertEquals(11, values.size());
+        assertFalse(values.contains(-1));
+        assertTrue(values.contains(-2));
+    }
+
+    /**
+     * A reader that wants the whole page waits for a row writer.
+     */
+    @Test public void pageReaderWaitsForRowWriter() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().insertTuple(writer.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        Transaction reader = new Transaction();
+        reader.start();
+        Future<Integer> read = exec.submit(() -> count(reader));
+        assertFalse(finishes(read));
+        writer.commit();
+        assertEquals(11, (int) read.get(10, TimeUnit.SECONDS));
+        reader.commit();
+    }
+
+    /**
+     * Many row locks on one table are traded for a table lock.
+     */
+    @Test public void locksEscalate() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setLockEscalationThreshold(4);
+        Transaction r = new Transaction();
+        r.start();
+        List<Tuple> rows = scan(r);
+        r.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        assertFalse(bp.holdsTableLock(t.getId(), f.getId(), Permissions.READ_WRITE));
+        for (int i = 0; i < 5; i++) {
+            bp.deleteTuple(t.getId(), rows.get(i));
+        }
+        assertEquals(1, bp.getLockEscalationCount());
+        assertTrue(bp.holdsTableLock(t.getId(), f.getId(), Permissions.READ_WRITE));
+        // covered by the table lock, no further escalation
+        bp.deleteTuple(t.getId(), rows.get(5));
+        assertEquals(1, bp.getLockEscalationCount());
+        t.commit();
+
+        Transaction check = new Transaction();
+        check.start();
+        assertEquals(4, count(check));
+        check.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
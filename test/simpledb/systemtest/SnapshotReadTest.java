@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests snapshot reads of read-only transactions.
+ */
+public class SnapshotReadTest extends SimpleDbTestBase {
+
+    private static List<Integer> scan(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        List<Integer> values = new ArrayList<>();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            values.add(((IntField) ss.next().getField(0)).getValue());
+        }
+        ss.close();
+        return values;
+    }
+
+    private static HeapFile createTable(int rows) throws IOException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        return SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+    }
+
+    /**
+     * A reader neither waits for a writer holding a page lock nor sees its
+     * changes, and keeps its snapshot after the writer commits.
+     */
+    @Test public void readerDoesNotBlockOnWriter() throws Exception {
+        HeapFile f = createTable(100);
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().insertTuple(writer.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            // would wait for the writer's exclusive lock under 2PL
+            Future<List<Integer>> before = exec.submit(() -> scan(f, reader));
+            List<Integer> seen = before.get(10, TimeUnit.SECONDS);
+            assertEquals(100, seen.size());
+            assertFalse(seen.contains(-1));
+
+            writer.commit();
+            assertFalse(exec.submit(() -> scan(f, reader)).get(10, TimeUnit.SECONDS).contains(-1));
+        } finally {
+            exec.shutdownNow();
+        }
+        reader.commit();
+
+        Transaction later = new Transaction(true);
+        later.start();
+        List<Integer> seen = scan(f, later);
+        assertEquals(101, seen.size());
+        assertTrue(seen.contains(-1));
+        later.commit();
+        assertEquals(0, Database.getBufferPool().getVersionCount());
+    }
+
+    /**
+     * Changes of a running writer that reached the disk stay invisible, and
+     * a rolled back writer leaves the snapshot alone.
+     */
+    @Test public void stolenPageIsNotVisible() throws Exception {
+        HeapFile f = createTable(10);
+        Transaction reader = new Transaction(true);
+        reader.start();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        Database.getBufferPool().insertTuple(writer.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        Database.getBufferPool().flushPages(writer.getId());
+        Database.getBufferPool().discardPage(new HeapPageId(f.getId(), 0));
+
+        Transaction other = new Transaction(true);
+        other.start();
+        assertEquals(10, scan(f, reader).size());
+        assertEquals(10, scan(f, other).size());
+        writer.abort();
+        assertEquals(10, scan(f, reader).size());
+        assertEquals(10, scan(f, other).size());
+        reader.commit();
+        other.commit();
+    }
+
+    /**
+     * A snapshot keeps seeing the versions it started with across several
+     * commits.
+     */
+    @Test public void oldVersionsAreKept() throws Exception {
+        HeapFile f = createTable(0);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(1, 2));
+        t.commit();
+
+        Transaction reader1 = new Transaction(true);
+        reader1.start();
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(2, 2));
+        t.commit();
+
+        Transaction reader2 = new Transaction(true);
+        reader2.start();
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(3, 2));
+        t.commit();
+
+        assertEquals(2, Database.getBufferPool().getVersionCount());
+        assertEquals(1, scan(f, reader1).size());
+        assertEquals(2, scan(f, reader2).size());
+        reader1.commit();
+        assertEquals(1, Database.getBufferPool().getVersionCount());
+        assertEquals(2, scan(f, reader2).size());
+        reader2.commit();
+        assertEquals(0, Database.getBufferPool().getVersionCount());
+    }
+
+    @Test(expected = DbException.class)
+    public void readOnlyCannotWrite() throws Exception {
+        HeapFile f = createTable(10);
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            Database.getBufferPool().insertTuple(reader.getId(), f.getId(), Utility.getHeapTuple(-1, 2));
+        } finally {
+            reader.commit();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Delete;
 import simpledb.execution.Insert;
 import simpledb.execution.Query;
@@ -239,6 +240,7 @@ public class TransactionTest extends SimpleDbTestBase {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
         Database.resetBufferPool(1);
+        Database.getBufferPool().setSteal(false);
 
         // BEGIN TRANSACTION
         Transaction t = new Transaction();
@@ -255,6 +257,60 @@ public class TransactionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void testAllDirtySteals()
+            throws IOException, DbException, TransactionAbortedException {
+        // Allocate a file with ~10 pages of data
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(1);
+
+        // BEGIN TRANSACTION
+        Transaction t = new Transaction();
+        t.start();
+
+        // Insert a new row
+        AbortEvictionTest.insertRow(f, t);
+
+        // Under STEAL the scan writes the dirty page out instead of failing
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        assertTrue(Database.getBufferPool().getStealCount() > 0);
+
+        // ABORT: the page on disk is rolled back through the log
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertFalse(AbortEvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    @Test public void testTransactionLargerThanPool()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Database.resetBufferPool(4);
+
+        // a transaction that dirties more pages than the pool holds
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 504 * 6; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+        assertTrue(f.numPages() >= 6);
+
+        t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(504 * 6, count);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(TransactionTest.class);